@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.benchmarks.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import kotlin.Unit;
+import org.basinmc.benchmarks.event.EventFixtures.Listener;
+import org.basinmc.benchmarks.event.EventFixtures.SampleEvent;
+import org.basinmc.benchmarks.event.EventFixtures.StatefulEvent;
+import org.basinmc.faucet.event.ExecutionContext;
+import org.basinmc.faucet.event.handler.Subscribe;
+import org.basinmc.faucet.util.State;
+import org.basinmc.sink.event.EventBusImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of posting an event to a bus with a varying amount of subscribed handlers.
+ *
+ * Half of the handlers on the cancellable event only receive denied events in order to reflect
+ * the common case of listeners which only care about a specific outcome.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventBusBenchmark {
+
+  private static final int BATCH_SIZE = 16;
+
+  @Param({"1", "10", "100"})
+  public int handlers;
+
+  private EventBusImpl bus;
+  private SampleEvent event;
+  private List<SampleEvent> batch;
+  private Object[] states;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    this.bus = new EventBusImpl();
+    for (int i = 0; i < this.handlers; ++i) {
+      this.bus.subscribe(new Listener(blackhole));
+      this.bus.subscribe(new StatefulListener(blackhole));
+    }
+
+    this.event = new SampleEvent(42);
+    this.batch = new ArrayList<>();
+    for (int i = 0; i < BATCH_SIZE; ++i) {
+      this.batch.add(new SampleEvent(i));
+    }
+    this.states = new Object[BATCH_SIZE];
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.bus.destroy();
+  }
+
+  @Benchmark
+  public Unit post() {
+    return this.bus.post(this.event);
+  }
+
+  @Benchmark
+  public State postCancellable() {
+    return this.bus.post(new StatefulEvent(this.event.getValue()));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public Object[] postAll() {
+    this.bus.postAll(this.batch, this.states);
+    return this.states;
+  }
+
+  public static class StatefulListener {
+
+    private final Blackhole blackhole;
+
+    public StatefulListener(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Subscribe
+    public void handle(StatefulEvent event) {
+      this.blackhole.consume(event.getValue());
+    }
+
+    @Subscribe(receiveState = State.DENY)
+    public void handleDenied(StatefulEvent event, ExecutionContext<State> ctx) {
+      this.blackhole.consume(ctx.getState());
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.benchmarks.event;
+
+import kotlin.Unit;
+import org.basinmc.faucet.event.AbstractEvent;
+import org.basinmc.faucet.event.StatelessEvent;
+import org.basinmc.faucet.event.filter.IntFilter;
+import org.basinmc.faucet.event.handler.Subscribe;
+import org.basinmc.faucet.internal.event.FilterExpose;
+import org.basinmc.faucet.util.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Provides the events and listeners which are shared between the event benchmarks.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public final class EventFixtures {
+
+  private EventFixtures() {
+  }
+
+  /**
+   * Represents a stateless event which carries a single value.
+   */
+  public static class SampleEvent implements StatelessEvent {
+
+    private final int value;
+
+    public SampleEvent(int value) {
+      this.value = value;
+    }
+
+    public int getValue() {
+      return this.value;
+    }
+
+    @Override
+    public Unit getDefaultState() {
+      return Unit.INSTANCE;
+    }
+  }
+
+  /**
+   * Represents a cancellable event which carries a single (filterable) value.
+   */
+  public static class StatefulEvent extends AbstractEvent<State> {
+
+    @FilterExpose(annotation = IntFilter.class)
+    private final int value;
+
+    public StatefulEvent(int value) {
+      super(State.ALLOW);
+      this.value = value;
+    }
+
+    public int getValue() {
+      return this.value;
+    }
+  }
+
+  /**
+   * Consumes the value of every {@link SampleEvent} it receives.
+   */
+  public static class Listener {
+
+    private final Blackhole blackhole;
+
+    public Listener(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Subscribe
+    public void handle(SampleEvent event) {
+      this.blackhole.consume(event.getValue());
+    }
+  }
+}
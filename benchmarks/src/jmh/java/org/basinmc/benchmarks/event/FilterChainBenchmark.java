@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.benchmarks.event;
+
+import java.util.concurrent.TimeUnit;
+import kotlin.Unit;
+import org.basinmc.faucet.event.StatelessEvent;
+import org.basinmc.faucet.event.filter.BooleanFilter;
+import org.basinmc.faucet.event.filter.ClassFilter;
+import org.basinmc.faucet.event.filter.DoubleFilter;
+import org.basinmc.faucet.event.filter.FilterChain;
+import org.basinmc.faucet.event.filter.IntFilter;
+import org.basinmc.faucet.event.filter.StringFilter;
+import org.basinmc.faucet.internal.event.FilterExpose;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the cost of evaluating a filter chain with a varying amount of (matching) filters
+ * against an equivalent hand-written condition.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FilterChainBenchmark {
+
+  @Param({"0", "1", "2", "3", "4", "5"})
+  public int filters;
+
+  private FilterChain chain;
+  private SampleEvent event;
+
+  @Setup
+  public void setup() throws NoSuchMethodException {
+    this.chain = new FilterChain(Handlers.class.getMethod("filters" + this.filters),
+        SampleEvent.class);
+    this.event = new SampleEvent(42, "basin", String.class, 0.5, true);
+  }
+
+  @Benchmark
+  public boolean matches() {
+    return this.chain.matches(this.event);
+  }
+
+  /**
+   * Evaluates the same comparisons as the respective chain through a hand-written condition in
+   * order to provide a baseline for {@link #matches()}.
+   */
+  @Benchmark
+  public boolean handWritten() {
+    SampleEvent event = this.event;
+
+    switch (this.filters) {
+      case 0:
+        return true;
+      case 1:
+        return event.id == 42;
+      case 2:
+        return event.id == 42 && "basin".equals(event.name);
+      case 3:
+        return event.id == 42 && "basin".equals(event.name) && event.type == String.class;
+      case 4:
+        return event.id == 42 && "basin".equals(event.name) && event.type == String.class
+            && event.weight == 0.5;
+      default:
+        return event.id == 42 && "basin".equals(event.name) && event.type == String.class
+            && event.weight == 0.5 && event.enabled;
+    }
+  }
+
+  public static class SampleEvent implements StatelessEvent {
+
+    @FilterExpose(annotation = IntFilter.class)
+    private final int id;
+    @FilterExpose(annotation = StringFilter.class)
+    private final String name;
+    @FilterExpose(annotation = ClassFilter.class)
+    private final Class<?> type;
+    @FilterExpose(annotation = DoubleFilter.class)
+    private final double weight;
+    @FilterExpose(annotation = BooleanFilter.class)
+    private final boolean enabled;
+
+    public SampleEvent(int id, String name, Class<?> type, double weight, boolean enabled) {
+      this.id = id;
+      this.name = name;
+      this.type = type;
+      this.weight = weight;
+      this.enabled = enabled;
+    }
+
+    @Override
+    public Unit getDefaultState() {
+      return Unit.INSTANCE;
+    }
+  }
+
+  public static class Handlers {
+
+    public void filters0() {
+    }
+
+    @IntFilter(42)
+    public void filters1() {
+    }
+
+    @IntFilter(42)
+    @StringFilter("basin")
+    public void filters2() {
+    }
+
+    @IntFilter(42)
+    @StringFilter("basin")
+    @ClassFilter(String.class)
+    public void filters3() {
+    }
+
+    @IntFilter(42)
+    @StringFilter("basin")
+    @ClassFilter(String.class)
+    @DoubleFilter(0.5)
+    public void filters4() {
+    }
+
+    @IntFilter(42)
+    @StringFilter("basin")
+    @ClassFilter(String.class)
+    @DoubleFilter(0.5)
+    @BooleanFilter(true)
+    public void filters5() {
+    }
+  }
+}
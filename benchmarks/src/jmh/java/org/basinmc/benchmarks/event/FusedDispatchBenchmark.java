@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.benchmarks.event;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.basinmc.benchmarks.event.EventFixtures.StatefulEvent;
+import org.basinmc.faucet.event.ExecutionContext;
+import org.basinmc.faucet.event.filter.IntFilter;
+import org.basinmc.faucet.event.handler.Subscribe;
+import org.basinmc.faucet.util.State;
+import org.basinmc.sink.event.EventBusImpl;
+import org.basinmc.sink.event.EventStatisticsImpl;
+import org.basinmc.sink.event.HandlerWatchdog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares fused dispatchers against the walk of a handler table when posting to a large set of
+ * unrelated handlers (as is the case with many extensions).
+ *
+ * Handlers are spread across several listener types and functional subscriptions in order to
+ * render the shared call sites of the table walk megamorphic.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FusedDispatchBenchmark {
+
+  @Param({"false", "true"})
+  public boolean fuse;
+
+  @Param({"8", "32"})
+  public int handlers;
+
+  private EventBusImpl bus;
+  private StatefulEvent event;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    this.bus = new EventBusImpl(new EventStatisticsImpl(), new HandlerWatchdog(), 0, 1024,
+        4096, this.fuse);
+    for (int i = 0; i < this.handlers; ++i) {
+      switch (i % 4) {
+        case 0:
+          this.bus.subscribe(new CountingListener(blackhole));
+          break;
+        case 1:
+          this.bus.subscribe(new FilteredListener(blackhole));
+          break;
+        case 2:
+          this.bus.subscribe(new DeniedListener(blackhole));
+          break;
+        default:
+          this.bus.subscribe(StatefulEvent.class,
+              (Consumer<StatefulEvent>) (e) -> blackhole.consume(e.getValue()));
+          break;
+      }
+    }
+
+    this.event = new StatefulEvent(42);
+
+    // ensure that the table has been compiled (where enabled) before measuring
+    for (int i = 0; i < 1024; ++i) {
+      this.bus.post(this.event);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.bus.destroy();
+  }
+
+  @Benchmark
+  public State post() {
+    return this.bus.post(this.event);
+  }
+
+  public static class CountingListener {
+
+    private final Blackhole blackhole;
+    private int count;
+
+    public CountingListener(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Subscribe
+    public void handle(StatefulEvent event) {
+      this.blackhole.consume(++this.count);
+    }
+  }
+
+  public static class FilteredListener {
+
+    private final Blackhole blackhole;
+
+    public FilteredListener(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Subscribe
+    @IntFilter(42)
+    public void handle(StatefulEvent event) {
+      this.blackhole.consume(event.getValue());
+    }
+  }
+
+  public static class DeniedListener {
+
+    private final Blackhole blackhole;
+
+    public DeniedListener(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Subscribe(receiveState = State.DENY)
+    public void handle(StatefulEvent event, ExecutionContext<State> ctx) {
+      this.blackhole.consume(ctx.getState());
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.benchmarks.event;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import kotlin.Unit;
+import org.basinmc.benchmarks.event.EventFixtures.SampleEvent;
+import org.basinmc.sink.event.EventContextImpl;
+import org.basinmc.sink.event.handler.HandlerInvoker;
+import org.basinmc.sink.event.handler.HandlerInvokerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the cost of invoking a single handler method through the generated invokers against
+ * reflection and method handles.
+ *
+ * The direct call acts as the baseline which the generated invoker is expected to match once the
+ * JIT has inlined it (e.g. {@code -prof perfasm} should show no remaining call to the invoker).
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandlerInvokerBenchmark {
+
+  private static final MethodHandle HANDLE;
+
+  static {
+    try {
+      HANDLE = MethodHandles.lookup().findVirtual(Listener.class, "handle",
+          MethodType.methodType(void.class, SampleEvent.class));
+    } catch (NoSuchMethodException | IllegalAccessException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private Listener listener;
+  private SampleEvent event;
+  private EventContextImpl<SampleEvent, Unit> ctx;
+
+  private Method method;
+  private HandlerInvoker generatedInvoker;
+  private HandlerInvoker handleInvoker;
+
+  @Setup
+  public void setup(Blackhole blackhole) throws NoSuchMethodException {
+    this.listener = new Listener(blackhole);
+    this.event = new SampleEvent(42);
+    this.ctx = new EventContextImpl<>(this.event);
+
+    this.method = Listener.class.getMethod("handle", SampleEvent.class);
+    this.generatedInvoker = HandlerInvokerFactory.INSTANCE.create(this.method, SampleEvent.class);
+    this.handleInvoker = HandlerInvokerFactory.INSTANCE.create(
+        Listener.class.getDeclaredMethod("handlePrivate", SampleEvent.class), SampleEvent.class);
+  }
+
+  @Benchmark
+  public void direct() {
+    this.listener.handle(this.event);
+  }
+
+  @Benchmark
+  public void reflection() throws ReflectiveOperationException {
+    this.method.invoke(this.listener, this.event);
+  }
+
+  @Benchmark
+  public void methodHandle() throws Throwable {
+    HANDLE.invokeExact(this.listener, this.event);
+  }
+
+  @Benchmark
+  public void generatedInvoker() {
+    this.generatedInvoker.invoke(this.listener, this.ctx);
+  }
+
+  @Benchmark
+  public void methodHandleInvoker() {
+    this.handleInvoker.invoke(this.listener, this.ctx);
+  }
+
+  public static class Listener {
+
+    private final Blackhole blackhole;
+
+    public Listener(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    public void handle(SampleEvent event) {
+      this.blackhole.consume(event.getValue());
+    }
+
+    private void handlePrivate(SampleEvent event) {
+      this.blackhole.consume(event.getValue());
+    }
+  }
+}
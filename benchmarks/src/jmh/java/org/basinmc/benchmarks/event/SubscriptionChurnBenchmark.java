@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.benchmarks.event;
+
+import java.util.concurrent.TimeUnit;
+import kotlin.Unit;
+import org.basinmc.benchmarks.event.EventFixtures.Listener;
+import org.basinmc.benchmarks.event.EventFixtures.SampleEvent;
+import org.basinmc.sink.event.EventBusImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of subscribing and unsubscribing handlers while other threads are posting
+ * events to the same bus (and vice versa).
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SubscriptionChurnBenchmark {
+
+  private static final int BASE_HANDLERS = 10;
+
+  private EventBusImpl bus;
+  private SampleEvent event;
+  private Listener listener;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    this.bus = new EventBusImpl();
+    for (int i = 0; i < BASE_HANDLERS; ++i) {
+      this.bus.subscribe(new Listener(blackhole));
+    }
+
+    this.event = new SampleEvent(42);
+    this.listener = new Listener(blackhole);
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.bus.destroy();
+  }
+
+  @Benchmark
+  @Group("churn")
+  @GroupThreads(3)
+  public Unit post() {
+    return this.bus.post(this.event);
+  }
+
+  @Benchmark
+  @Group("churn")
+  @GroupThreads(1)
+  public void subscribe() throws Exception {
+    this.bus.subscribe(this.listener).close();
+  }
+}
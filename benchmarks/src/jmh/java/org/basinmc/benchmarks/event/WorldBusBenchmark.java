@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.benchmarks.event;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.basinmc.benchmarks.event.EventFixtures.StatefulEvent;
+import org.basinmc.faucet.util.State;
+import org.basinmc.sink.event.EventBusImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures concurrent posts from several threads (such as one thread per world) either to a single
+ * shared bus or to one child bus per thread.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(3)
+public class WorldBusBenchmark {
+
+  @Param({"false", "true"})
+  public boolean children;
+
+  private final AtomicInteger threadIndex = new AtomicInteger();
+  private EventBusImpl bus;
+  private EventBusImpl[] worlds;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    this.bus = new EventBusImpl();
+    for (int i = 0; i < 8; ++i) {
+      this.bus.subscribe(StatefulEvent.class,
+          (Consumer<StatefulEvent>) (e) -> blackhole.consume(e.getValue()));
+    }
+
+    this.worlds = new EventBusImpl[3];
+    for (int i = 0; i < this.worlds.length; ++i) {
+      this.worlds[i] = this.children ? this.bus.createChild() : this.bus;
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.bus.destroy();
+  }
+
+  @Benchmark
+  public State post(WorldState world) {
+    return world.bus.post(world.event);
+  }
+
+  @org.openjdk.jmh.annotations.State(Scope.Thread)
+  public static class WorldState {
+
+    private EventBusImpl bus;
+    private StatefulEvent event;
+
+    @Setup
+    public void setup(WorldBusBenchmark benchmark) {
+      int index = benchmark.threadIndex.getAndIncrement() % benchmark.worlds.length;
+      this.bus = benchmark.worlds[index];
+      this.event = new StatefulEvent(index);
+    }
+  }
+}
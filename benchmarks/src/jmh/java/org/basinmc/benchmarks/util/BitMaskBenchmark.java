@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.benchmarks.util;
+
+import java.util.concurrent.TimeUnit;
+import org.basinmc.faucet.event.extension.ExtensionRegistrationEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the cost of the bit mask operations which are used to represent extension event
+ * states.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BitMaskBenchmark {
+
+  private ExtensionRegistrationEvent.State empty;
+  private ExtensionRegistrationEvent.State register;
+
+  @Setup
+  public void setup() {
+    this.register = ExtensionRegistrationEvent.State.Companion.getREGISTER();
+    this.empty = this.register.unset(this.register);
+  }
+
+  @Benchmark
+  public boolean has() {
+    return this.register.has(this.register);
+  }
+
+  @Benchmark
+  public boolean hasMissing() {
+    return this.empty.has(this.register);
+  }
+
+  @Benchmark
+  public ExtensionRegistrationEvent.State set() {
+    return this.empty.set(this.register);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.faucet.event.filter;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.function.Predicate;
+import org.basinmc.faucet.event.Event;
+
+/**
+ * Provides a base to generated filter chain predicates which evaluate all filters of a chain
+ * within a single method (see {@link PredicateCompiler}).
+ *
+ * Generated predicates retrieve their accessor handles and expected values through {@link
+ * #constants()} during their static initialization and store them within constant fields. As a
+ * result, the JIT may treat the accessors as constants and inline them into the comparison. This
+ * type is public as generated predicates reside within their own class loader but is not intended
+ * to be used outside of this package.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public abstract class CompiledPredicate implements Predicate<Event<?>> {
+
+  private static final ThreadLocal<Object[]> pending = new ThreadLocal<>();
+
+  /**
+   * Provides a set of constants to the predicate which is initialized on the calling thread.
+   *
+   * @param constants an array of constants.
+   */
+  static void offer(@NonNull Object[] constants) {
+    pending.set(constants);
+  }
+
+  /**
+   * Discards any constants which have not been claimed by a predicate on the calling thread.
+   */
+  static void discard() {
+    pending.remove();
+  }
+
+  /**
+   * Retrieves the constants which have been provided to the predicate which is being initialized
+   * on the calling thread.
+   *
+   * @return an array of constants.
+   * @throws IllegalStateException when no constants have been provided.
+   */
+  @NonNull
+  public static Object[] constants() {
+    Object[] constants = pending.get();
+    if (constants == null) {
+      throw new IllegalStateException("No constants have been provided to the predicate");
+    }
+
+    pending.remove();
+    return constants;
+  }
+
+  /**
+   * Converts a failure of an accessor into an unchecked exception.
+   *
+   * @param ex an arbitrary exception.
+   * @return an unchecked exception.
+   * @throws Error when the given exception is an error.
+   */
+  @NonNull
+  public static RuntimeException wrap(@NonNull Throwable ex) {
+    if (ex instanceof Error) {
+      throw (Error) ex;
+    }
+    if (ex instanceof RuntimeException) {
+      return (RuntimeException) ex;
+    }
+
+    return new IllegalStateException("Cannot access filtered event field", ex);
+  }
+}
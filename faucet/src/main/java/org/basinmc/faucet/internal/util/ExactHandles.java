@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.faucet.internal.util;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import org.basinmc.faucet.event.Event;
+import org.basinmc.faucet.event.EventContext;
+
+/**
+ * Invokes pre-resolved method handles through their exact signature.
+ *
+ * Calls to {@link MethodHandle#invokeExact(Object...)} need to be compiled with the
+ * (polymorphic) signature of the call site which the Kotlin compiler does not emit. All exact
+ * invocations of handles which are performed outside of generated classes are thus implemented
+ * within this type instead. Each method expects a handle of a specific type and fails with a
+ * {@link java.lang.invoke.WrongMethodTypeException} when given a handle of any other type.
+ *
+ * This type is not part of the public API and may change without notice.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public final class ExactHandles {
+
+  private ExactHandles() {
+  }
+
+  /**
+   * Creates a function which retrieves a (boxed) value from an event through an accessor handle.
+   *
+   * @param accessor a handle which accepts an event (or one of its subtypes) and returns a value.
+   * @param subject a description of the accessed value (used within error messages).
+   * @return an extractor function.
+   */
+  @NonNull
+  public static Function<Event<?>, Object> extractor(@NonNull MethodHandle accessor,
+      @NonNull String subject) {
+    MethodHandle handle = accessor.asType(MethodType.methodType(Object.class, Event.class));
+
+    return (event) -> {
+      try {
+        return handle.invokeExact(event);
+      } catch (RuntimeException | Error ex) {
+        throw ex;
+      } catch (Throwable ex) {
+        throw new IllegalStateException("Cannot access " + subject, ex);
+      }
+    };
+  }
+
+  /**
+   * Creates a function which retrieves an integer value from an event through an accessor
+   * handle.
+   *
+   * @param accessor a handle which accepts an event (or one of its subtypes) and returns a value
+   * which is convertible to an integer.
+   * @param subject a description of the accessed value (used within error messages).
+   * @return an extractor function.
+   */
+  @NonNull
+  public static ToIntFunction<Event<?>> intExtractor(@NonNull MethodHandle accessor,
+      @NonNull String subject) {
+    MethodHandle handle = accessor.asType(MethodType.methodType(int.class, Event.class));
+
+    return (event) -> {
+      try {
+        return (int) handle.invokeExact(event);
+      } catch (RuntimeException | Error ex) {
+        throw ex;
+      } catch (Throwable ex) {
+        throw new IllegalStateException("Cannot access " + subject, ex);
+      }
+    };
+  }
+
+  /**
+   * Invokes a handle of type {@code (EventContext)void}.
+   *
+   * @param handle a handle.
+   * @param ctx an event context.
+   * @throws Throwable when the handle fails.
+   */
+  public static void invoke(@NonNull MethodHandle handle, @NonNull EventContext<?, ?> ctx)
+      throws Throwable {
+    handle.invokeExact(ctx);
+  }
+
+  /**
+   * Invokes a handle of type {@code (Object, EventContext)void}.
+   *
+   * @param handle a handle.
+   * @param receiver the first argument (typically the receiver of the underlying method).
+   * @param ctx an event context.
+   * @throws Throwable when the handle fails.
+   */
+  public static void invoke(@NonNull MethodHandle handle, @NonNull Object receiver,
+      @NonNull EventContext<?, ?> ctx) throws Throwable {
+    handle.invokeExact(receiver, ctx);
+  }
+
+  /**
+   * Adapts a method handle into a handle which accepts its receiver and an array of arguments
+   * (see {@link #invokeSpread(MethodHandle, Object, Object[])}).
+   *
+   * @param handle a handle which accepts a receiver followed by an arbitrary amount of arguments.
+   * @return a handle of type {@code (Object, Object[])Object}.
+   */
+  @NonNull
+  public static MethodHandle spread(@NonNull MethodHandle handle) {
+    int argumentCount = handle.type().parameterCount() - 1;
+
+    return handle
+        .asType(MethodType.genericMethodType(argumentCount + 1))
+        .asSpreader(Object[].class, argumentCount);
+  }
+
+  /**
+   * Invokes a handle of type {@code (Object, Object[])Object} (see {@link #spread(MethodHandle)}).
+   *
+   * @param handle a handle.
+   * @param receiver the receiver of the underlying method.
+   * @param args the method arguments (or null if the method declares no parameters).
+   * @return the return value or null if the method does not return a value.
+   * @throws Throwable when the handle fails.
+   */
+  public static Object invokeSpread(@NonNull MethodHandle handle, @NonNull Object receiver,
+      Object[] args) throws Throwable {
+    return handle.invokeExact(receiver, args);
+  }
+}
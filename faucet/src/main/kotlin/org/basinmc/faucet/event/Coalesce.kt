@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.faucet.event
+
+/**
+ * Annotates an event type of which only the most recent instance per key is of interest within a
+ * single server tick (e.g. entity movement or repeated block updates on the same coordinate).
+ *
+ * When events of the annotated type are deferred to the end of the current tick (see
+ * [EventBus.postDeferred]), each deferred event replaces any pending event of the same type with an
+ * equal key. As a result, handlers are invoked at most once per key and tick. Events which are
+ * posted directly are not affected by this annotation.
+ *
+ * This annotation is inherited by all subtypes of the annotated event type.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+@MustBeDocumented
+@Retention(AnnotationRetention.RUNTIME)
+@Target(AnnotationTarget.CLASS)
+annotation class Coalesce(
+
+    /**
+     * Specifies the name of the property (or field) which identifies events that supersede each
+     * other.
+     *
+     * The values of this property are compared using their respective [Any.equals] and
+     * [Any.hashCode] implementations.
+     */
+    val key: String)
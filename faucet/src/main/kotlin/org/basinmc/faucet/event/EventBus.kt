@@ -18,6 +18,7 @@
 package org.basinmc.faucet.event
 
 import org.basinmc.faucet.event.handler.EventHandler
+import java.util.concurrent.CompletableFuture
 import java.util.function.Consumer
 
 /**
@@ -37,6 +38,101 @@ interface EventBus {
    */
   fun <E : Event<S>, S : Any> post(event: E): S
 
+  /**
+   * Posts a batch of events to the event bus.
+   *
+   * Handlers are resolved once per run of events which share the same type and are then invoked
+   * for every event of the run before the next handler is consulted. As a result, each event will
+   * still observe its handlers in priority order while a single handler may receive multiple events
+   * before lower priority handlers are invoked.
+   *
+   * @param events a collection of events.
+   * @param <E> an event type.
+   * @param <S> a state type.
+   * @return a list of resulting states in the iteration order of the passed collection.
+   */
+  fun <E : Event<S>, S : Any> postAll(events: Collection<E>): List<S>
+
+  /**
+   * Posts a batch of events to the event bus and writes their resulting states to a caller
+   * supplied array.
+   *
+   * This method behaves like [postAll] but permits callers to re-use a single state array across
+   * multiple batches rather than allocating a new result list for every batch.
+   *
+   * @param events a collection of events.
+   * @param states an array of at least the size of the collection in which the state of each
+   * event is stored at its respective iteration index.
+   * @param <E> an event type.
+   * @param <S> a state type.
+   * @throws IllegalArgumentException when the array is too small to hold all states.
+   */
+  fun <E : Event<S>, S : Any> postAll(events: Collection<E>, states: Array<in S>)
+
+  /**
+   * Posts a stateless event to the event bus without waiting for asynchronous handlers.
+   *
+   * Handlers which opted into asynchronous execution (see [EventHandler.async]) are invoked on a
+   * bounded worker pool while all remaining handlers are invoked on the calling thread before this
+   * method returns. Asynchronous handlers which originate from the same extension are invoked in
+   * their respective priority order and will never observe events out of order relative to other
+   * events posted via this method.
+   *
+   * Asynchronous handlers are never invoked on the calling thread. When the pending invocations of
+   * an extension exceed the capacity of the worker pool, its asynchronous handlers are skipped for
+   * this event instead and the returned future completes exceptionally with a
+   * [java.util.concurrent.RejectedExecutionException] (see [EventStatistics.rejections]).
+   *
+   * @param event the event to post.
+   * @param <E> an event type.
+   * @return a future which completes once all asynchronous handlers have been invoked.
+   */
+  fun <E : StatelessEvent> postAsync(event: E): CompletableFuture<Unit>
+
+  /**
+   * Hands an event off to the server's main thread where it is posted at the beginning of the
+   * next server tick.
+   *
+   * This method may be called from arbitrary threads and never blocks. Events are posted in the
+   * order in which they were accepted by this method. Since the event is posted at a later point
+   * in time, its resulting state cannot be observed by the caller.
+   *
+   * @param event the event to post.
+   * @return true if the event has been accepted, false if the hand-off queue is currently full
+   * and the caller is expected to retry or drop the event.
+   */
+  fun postOnMainThread(event: Event<*>): Boolean
+
+  /**
+   * Defers an event to the end of the current server tick.
+   *
+   * When the event type is annotated with [Coalesce], the event replaces any pending event of the
+   * same type with an equal key. Deferred events are posted on the server's main thread in the
+   * order in which their keys were first deferred within the tick. Since the event is posted at a
+   * later point in time, its resulting state cannot be observed by the caller.
+   *
+   * The amount of events which may be pending within a single tick is bounded. Events which
+   * supersede a pending event are always accepted.
+   *
+   * @param event the event to defer.
+   * @return true if the event has been accepted, false if the maximum amount of pending events
+   * has been reached (see [EventStatistics.rejections]).
+   * @throws IllegalArgumentException when the event type declares an invalid coalescing key.
+   */
+  fun postDeferred(event: Event<*>): Boolean
+
+  /**
+   * Evaluates whether at least one handler is currently subscribed to a given event type.
+   *
+   * This method is intended to permit callers to skip the construction of events which would not
+   * be observed by any handler. Note that the result may be outdated by the time the caller acts
+   * upon it when subscriptions are created or closed concurrently.
+   *
+   * @param eventType a concrete event type.
+   * @return true if at least one handler accepts the type, false otherwise.
+   */
+  fun hasSubscribers(eventType: Class<out Event<*>>): Boolean
+
   /**
    * Subscribes an arbitrary event handler to this particular bus.
    *
@@ -75,3 +171,22 @@ interface EventBus {
   fun <E : Event<*>> subscribe(eventClass: Class<E>,
       consumer: Consumer<E>): Subscription
 }
+
+/**
+ * Constructs and posts an event only when at least one handler is subscribed to its type.
+ *
+ * The event type is derived from the declared return type of the factory and should thus refer to
+ * the concrete event type which is being constructed.
+ *
+ * @param factory a factory which constructs the event.
+ * @param <E> an event type.
+ * @param <S> a state type.
+ * @return the resulting event state or null if no handlers are subscribed to the event.
+ */
+inline fun <reified E : Event<S>, S : Any> EventBus.postIfObserved(factory: () -> E): S? {
+  if (!this.hasSubscribers(E::class.java)) {
+    return null
+  }
+
+  return this.post(factory())
+}
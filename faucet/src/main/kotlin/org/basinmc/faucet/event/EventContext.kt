@@ -0,0 +1,31 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.faucet.event
+
+/**
+ * Provides a context to event handlers which exposes the posted event along with its current
+ * execution state.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+interface EventContext<out E : Event<S>, S> : ExecutionContext<S> {
+
+  /**
+   * Retrieves the event which is currently being posted.
+   */
+  val event: E
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.faucet.event
+
+import org.basinmc.faucet.event.handler.EventHandler
+import org.basinmc.faucet.extension.Extension
+
+/**
+ * Provides access to the latency statistics which are gathered for event handler invocations.
+ *
+ * Statistics are only recorded while sampling is enabled. While disabled, handler invocations will
+ * not be timed at all.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+interface EventStatistics {
+
+  /**
+   * Selects whether handler invocations are currently timed.
+   */
+  var enabled: Boolean
+
+  /**
+   * Retrieves a snapshot of the statistics for all handlers which have been invoked at least once
+   * since sampling was enabled (or the statistics were last reset).
+   */
+  val handlers: List<HandlerStatistics>
+
+  /**
+   * Retrieves the total amount of events (or asynchronous handler invocations) which have been
+   * rejected as their respective hand-off queue was saturated.
+   *
+   * Rejections are counted regardless of whether sampling is enabled.
+   */
+  val rejections: Long
+
+  /**
+   * Discards all statistics which have been gathered so far.
+   */
+  fun reset()
+
+  /**
+   * Represents the latency statistics of a single event handler.
+   *
+   * All durations are expressed in nanoseconds.
+   */
+  interface HandlerStatistics {
+
+    /**
+     * Identifies the handler to which these statistics apply.
+     */
+    val handler: EventHandler
+
+    /**
+     * Identifies the extension which owns the handler (or null if the handler is provided by the
+     * server itself).
+     */
+    val extension: Extension?
+
+    /**
+     * Retrieves the total amount of recorded invocations.
+     */
+    val invocations: Long
+
+    /**
+     * Retrieves the sum of all recorded invocation durations.
+     */
+    val totalTime: Long
+
+    /**
+     * Retrieves the longest recorded invocation duration.
+     */
+    val maximumTime: Long
+
+    /**
+     * Retrieves the average invocation duration.
+     */
+    val meanTime: Long
+      get() = if (this.invocations == 0L) 0 else this.totalTime / this.invocations
+
+    /**
+     * Retrieves the (approximate) invocation duration below which the given percentage of
+     * invocations completed.
+     *
+     * @param percentile a percentile between 0 and 100.
+     * @return a duration.
+     * @throws IllegalArgumentException when the percentile is out of bounds.
+     */
+    fun percentile(percentile: Double): Long
+  }
+}
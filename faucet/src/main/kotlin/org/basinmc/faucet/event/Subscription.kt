@@ -29,4 +29,15 @@ interface Subscription : AutoCloseable {
    * @return an event bus.
    */
   val bus: EventBus
+
+  /**
+   * Closes this subscription.
+   *
+   * Once this method returns, none of the subscription's handlers will be invoked by posts which
+   * start afterwards. Invocations which are in progress on other threads at the time of this call
+   * (or which are about to start as part of such a post) are not awaited and may thus complete
+   * after this method returns. This method never blocks and may thus be invoked from within a
+   * handler (e.g. in order to close its own subscription or that of another handler).
+   */
+  override fun close()
 }
@@ -18,6 +18,11 @@ package org.basinmc.faucet.event.filter
 
 import kotlin.reflect.KClass
 
+/**
+ * Requires that a `Class` typed field within the event refers to the exact specified type.
+ *
+ * Types are compared by identity (e.g. subtypes of the specified type will not match).
+ */
 @Repeatable
 @Retention(AnnotationRetention.RUNTIME)
 @Target(AnnotationTarget.FUNCTION, AnnotationTarget.PROPERTY_GETTER,
@@ -17,30 +17,87 @@
 package org.basinmc.faucet.event.filter
 
 import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.internal.event.FilterExpose
+import org.basinmc.faucet.internal.util.ExactHandles
+import org.basinmc.faucet.internal.util.StringParsable
+import org.springframework.beans.BeanUtils
 import org.springframework.core.annotation.AnnotationUtils
+import org.springframework.util.ReflectionUtils
 import java.lang.invoke.MethodHandle
 import java.lang.invoke.MethodHandles
 import java.lang.invoke.MethodType
 import java.lang.reflect.AnnotatedElement
+import java.lang.reflect.Field
+import java.lang.reflect.Member
+import java.lang.reflect.Method
+import java.util.function.Function
+import java.util.function.Predicate
+import java.util.function.ToIntFunction
 
 /**
  * Provides an event filter chain implementation which handles the discovery and initialization of
  * custom filter types.
  *
+ * The chain is compiled into a single short-circuiting [predicate] upon construction (see
+ * [PredicateCompiler]). Field filters (such as [IntFilter] or [StringFilter]) are resolved against
+ * the fields exposed by the given event type (see [FilterExpose]) up front and compare primitive
+ * values in their unboxed form while an empty chain is represented by a constant which accepts all
+ * events.
+ *
  * @author [Johannes Donath](mailto:johannesd@torchmind.com)
  */
-class FilterChain(element: AnnotatedElement) {
+class FilterChain @JvmOverloads constructor(
+    element: AnnotatedElement,
+
+    /**
+     * Identifies the event type against which field filters are resolved.
+     */
+    private val eventType: Class<*> = Event::class.java) {
+
+  private val terms = mutableListOf<PredicateCompiler.Term>()
+
+  /**
+   * Retrieves the compiled representation of this chain.
+   */
+  val predicate: Predicate<Event<*>>
 
-  private val chain = mutableListOf<EventFilter<*>>()
+  /**
+   * Evaluates whether this chain does not contain any filters (e.g. accepts all events).
+   */
+  val isEmpty: Boolean
+    get() = this.terms.isEmpty()
+
+  private var firstHint: IndexHint? = null
+
+  /**
+   * Retrieves a field filter which may be used to index this chain by its expected value (if
+   * any).
+   *
+   * Chains which match events only when the hinted field is equal to the hinted value expose the
+   * first built-in [IntFilter], [StringFilter] or [ClassFilter] within the chain. Blacklisting
+   * chains never provide a hint.
+   */
+  val indexHint: IndexHint?
 
   init {
     AnnotationUtils.getAnnotations(element)?.let { annotations ->
       for (annotation in annotations) {
-        val filterSpec = AnnotationUtils.getAnnotation(annotation, Filter::class.java) ?: continue
-
-        this.append(annotation, filterSpec)
+        val filterSpec = AnnotationUtils.getAnnotation(annotation, Filter::class.java)
+        if (filterSpec != null) {
+          this.append(annotation, filterSpec)
+        } else {
+          this.appendField(annotation)
+        }
       }
     }
+
+    val blacklist = AnnotationUtils.getAnnotation(element, Blacklist::class.java) != null
+    this.predicate = if (this.terms.isEmpty()) {
+      always
+    } else {
+      PredicateCompiler.compile(this.terms, blacklist)
+    }
+    this.indexHint = if (blacklist) null else this.firstHint
   }
 
   private fun append(annotation: Annotation, spec: Filter) {
@@ -65,7 +122,214 @@ class FilterChain(element: AnnotatedElement) {
     }
 
     filter.initialize(annotation)
-    this.chain += filter
+    this.terms += PredicateCompiler.Term.CustomTerm(Predicate { filter.matches(it) })
+  }
+
+  /**
+   * Appends a built-in field filter to the chain (if the annotation represents one).
+   *
+   * @param annotation an arbitrary annotation.
+   */
+  private fun appendField(annotation: Annotation) {
+    this.terms += when (annotation) {
+      is IntFilter -> {
+        val field = this.resolveField(IntFilter::class.java, annotation.field)
+        this.offerHint(field, annotation.value, false)
+
+        PredicateCompiler.Term.IntTerm(field.accessor, annotation.value)
+      }
+      is DoubleFilter -> PredicateCompiler.Term.DoubleTerm(
+          this.resolveField(DoubleFilter::class.java, annotation.field).accessor, annotation.value)
+      is BooleanFilter -> PredicateCompiler.Term.BooleanTerm(
+          this.resolveField(BooleanFilter::class.java, annotation.field).accessor, annotation.value)
+      is ClassFilter -> {
+        val field = this.resolveField(ClassFilter::class.java, annotation.field)
+        this.offerHint(field, annotation.value.java, true)
+
+        PredicateCompiler.Term.ObjectTerm(field.accessor, annotation.value.java, true)
+      }
+      is StringFilter -> {
+        val expose = this.findExposedField(StringFilter::class.java, annotation.field)
+            ?.getAnnotation(FilterExpose::class.java)
+        val value = expose?.mapper
+            ?.takeIf { it != StringParsable::class }
+            ?.let { BeanUtils.instantiateClass(it.java).fromString(annotation.value) }
+            ?: annotation.value
+
+        val field = this.resolveField(StringFilter::class.java, annotation.field)
+        this.offerHint(field, value, false)
+
+        PredicateCompiler.Term.ObjectTerm(field.accessor, value, false)
+      }
+      else -> return
+    }
+  }
+
+  /**
+   * Selects the given field filter as the index hint of this chain unless another filter has been
+   * selected before.
+   *
+   * @param field a resolved field.
+   * @param value an expected value.
+   * @param identity true if values are compared by identity, false otherwise.
+   */
+  private fun offerHint(field: ResolvedField, value: Any?, identity: Boolean) {
+    if (this.firstHint != null) {
+      return
+    }
+
+    val type = field.accessor.type().returnType()
+    val intExtractor = if (type == Int::class.javaPrimitiveType) {
+      ExactHandles.intExtractor(field.accessor, FIELD_SUBJECT)
+    } else {
+      null
+    }
+    this.firstHint = IndexHint(field.key, value, identity,
+        ExactHandles.extractor(field.accessor, FIELD_SUBJECT), intExtractor)
+  }
+
+  /**
+   * Locates the event field which is exposed to a given filter annotation.
+   *
+   * @param annotationType a filter annotation type.
+   * @param name a field name or an empty string to select the only exposed field.
+   * @return a field or null if no matching field is exposed.
+   * @throws IllegalArgumentException when the selection is ambiguous.
+   */
+  private fun findExposedField(annotationType: Class<out Annotation>, name: String): Field? {
+    val candidates = mutableListOf<Field>()
+    ReflectionUtils.doWithFields(this.eventType) { field ->
+      val expose = field.getAnnotation(FilterExpose::class.java)
+      if (expose != null && expose.annotation.java == annotationType &&
+          (name.isEmpty() || name == expose.name.ifEmpty { field.name })) {
+        candidates += field
+      }
+    }
+
+    if (candidates.size > 1) {
+      throw IllegalArgumentException(
+          "Illegal filter: Ambiguous field \"$name\" for @${annotationType.simpleName} in event ${this.eventType.name}")
+    }
+
+    return candidates.firstOrNull()
+  }
+
+  /**
+   * Resolves the field targeted by a given filter along with a method handle of type `(Event)T`
+   * which retrieves its value.
+   *
+   * @param annotationType a filter annotation type.
+   * @param name a field name or an empty string to select the only exposed field.
+   * @return a resolved field.
+   * @throws IllegalArgumentException when no matching field exists.
+   */
+  private fun resolveField(annotationType: Class<out Annotation>, name: String): ResolvedField {
+    val exposed = this.findExposedField(annotationType, name)
+
+    val member = when {
+      exposed != null -> exposed
+      name.isNotEmpty() -> findMember(this.eventType, name)
+      else -> null
+    } ?: throw IllegalArgumentException(
+        "Illegal filter: Event ${this.eventType.name} does not expose field \"$name\" to @${annotationType.simpleName}")
+    var accessor = createAccessor(member)
+
+    val extract = exposed?.getAnnotation(FilterExpose::class.java)?.extract ?: ""
+    if (extract.isNotEmpty()) {
+      accessor = MethodHandles.filterReturnValue(accessor,
+          findMember(accessor.type().returnType(), extract)?.let(::createAccessor)
+              ?: throw IllegalArgumentException(
+                  "Illegal filter: Cannot extract \"$extract\" from field ${exposed!!.name} in event ${this.eventType.name}"))
+    }
+
+    return ResolvedField(listOf(annotationType, member, extract),
+        accessor.asType(accessor.type().changeParameterType(0, Event::class.java)))
+  }
+
+  /**
+   * Represents a field which has been resolved for a filter.
+   */
+  private class ResolvedField(val key: Any, val accessor: MethodHandle)
+
+  /**
+   * Describes a built-in field filter which compares a single event field against a constant
+   * value.
+   *
+   * Event buses may use this information in order to index handlers by their expected value
+   * rather than evaluating the filters of all handlers. Two hints with equal keys are guaranteed
+   * to refer to the same event field and comparison.
+   */
+  class IndexHint internal constructor(
+
+      /**
+       * Identifies the filtered field and the comparison which is applied to it.
+       */
+      val key: Any,
+
+      /**
+       * Retrieves the value which the field is expected to be equal to.
+       */
+      val value: Any?,
+
+      /**
+       * Indicates whether the field is compared by identity rather than equality.
+       */
+      val identity: Boolean,
+      private val extractor: Function<Event<*>, Any?>,
+      private val intExtractor: ToIntFunction<Event<*>>?) {
+
+    /**
+     * Indicates whether the filtered field is of type `int` (e.g. [extractInt] may be used).
+     */
+    val isInt: Boolean
+      get() = this.intExtractor != null
+
+    /**
+     * Retrieves the current value of the filtered field within a given event.
+     *
+     * @param event an event which is compatible with the filtered event type.
+     * @return a field value.
+     */
+    fun extract(event: Event<*>): Any? = this.extractor.apply(event)
+
+    /**
+     * Retrieves the current value of the filtered `int` field within a given event.
+     *
+     * @param event an event which is compatible with the filtered event type.
+     * @return a field value.
+     * @throws IllegalStateException when the field is not of type `int`.
+     */
+    fun extractInt(event: Event<*>): Int = (this.intExtractor
+        ?: throw IllegalStateException("Filtered field is not of type int")).applyAsInt(event)
+  }
+
+  companion object {
+
+    private const val FIELD_SUBJECT = "filtered event field"
+
+    private val always = Predicate<Event<*>> { true }
+
+    /**
+     * Creates an accessor for a given field or getter.
+     */
+    private fun createAccessor(member: Member): MethodHandle = when (member) {
+      is Field -> {
+        ReflectionUtils.makeAccessible(member)
+        MethodHandles.lookup().unreflectGetter(member)
+      }
+      is Method -> {
+        ReflectionUtils.makeAccessible(member)
+        MethodHandles.lookup().unreflect(member)
+      }
+      else -> throw IllegalArgumentException("Illegal accessor: $member")
+    }
+
+    /**
+     * Locates a named property getter (or field) within a given type.
+     */
+    private fun findMember(type: Class<*>, name: String): Member? =
+        BeanUtils.getPropertyDescriptor(type, name)?.readMethod
+            ?: ReflectionUtils.findField(type, name)
   }
 
   /**
@@ -75,8 +339,5 @@ class FilterChain(element: AnnotatedElement) {
    * @param <E> an event type.
    * @return true if matches (e.g. passes the chain's restrictions), false otherwise.
   </E> */
-  fun <E : Event<*>> matches(event: E): Boolean {
-    return this.chain.stream()
-        .allMatch { filter -> filter.matches(event) }
-  }
+  fun <E : Event<*>> matches(event: E) = this.predicate.test(event)
 }
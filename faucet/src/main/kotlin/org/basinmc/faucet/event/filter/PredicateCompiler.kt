@@ -0,0 +1,295 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.faucet.event.filter
+
+import org.basinmc.faucet.event.Event
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Label
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.Type
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodType
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Predicate
+
+/**
+ * Generates predicates which evaluate the filters of a chain within a single method.
+ *
+ * Accessor handles (and expected object values) are stored within static final fields of the
+ * generated class which the JIT treats as constants. Each field filter thus compiles into a direct
+ * field access (or getter call) followed by a comparison against a constant while custom filters
+ * are invoked through a call site which is specific to the chain.
+ *
+ * Each predicate is defined within its own class loader in order to permit it to be unloaded once
+ * its handler has been unsubscribed.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal object PredicateCompiler {
+
+  private val baseType = Type.getType(CompiledPredicate::class.java)
+  private val eventType = Type.getType(Event::class.java)
+  private val handleType = Type.getType(MethodHandle::class.java)
+  private val objectType = Type.getType(Any::class.java)
+  private val predicateType = Type.getType(Predicate::class.java)
+
+  private val counter = AtomicInteger()
+
+  /**
+   * Compiles a list of terms into a single predicate.
+   *
+   * @param terms a non-empty list of terms.
+   * @param blacklist true if the predicate matches only when none of the terms match, false if it
+   * matches only when all terms match.
+   * @return a predicate.
+   */
+  fun compile(terms: List<Term>, blacklist: Boolean): Predicate<Event<*>> {
+    val constants = mutableListOf<Any?>()
+    val constantTypes = mutableListOf<Type>()
+    val slots = terms.map { term ->
+      val slot = constants.size
+      constants += term.constant
+      constantTypes += if (term is Term.CustomTerm) predicateType else handleType
+      if (term is Term.ObjectTerm) {
+        constants += term.expected
+        constantTypes += objectType
+      }
+
+      slot
+    }
+
+    val className = "${baseType.internalName}\$\$${counter.incrementAndGet()}"
+    val bytes = this.generate(className, terms, slots, constantTypes, blacklist)
+
+    CompiledPredicate.offer(constants.toTypedArray())
+    try {
+      val loader = PredicateClassLoader(CompiledPredicate::class.java.classLoader)
+      @Suppress("UNCHECKED_CAST")
+      return loader.define(className.replace('/', '.'), bytes)
+          .getDeclaredConstructor()
+          .newInstance() as Predicate<Event<*>>
+    } finally {
+      // the constants are claimed during class initialization and thus will only remain when the
+      // class failed to initialize
+      CompiledPredicate.discard()
+    }
+  }
+
+  /**
+   * Generates the bytecode of a predicate.
+   */
+  private fun generate(className: String, terms: List<Term>, slots: List<Int>,
+      constantTypes: List<Type>, blacklist: Boolean): ByteArray {
+    val writer = ClassWriter(ClassWriter.COMPUTE_MAXS or ClassWriter.COMPUTE_FRAMES)
+    writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC or Opcodes.ACC_FINAL or Opcodes.ACC_SYNTHETIC,
+        className, null, baseType.internalName, null)
+
+    constantTypes.forEachIndexed { i, type ->
+      writer.visitField(Opcodes.ACC_PRIVATE or Opcodes.ACC_STATIC or Opcodes.ACC_FINAL, "c$i",
+          type.descriptor, null, null).visitEnd()
+    }
+
+    writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null).apply {
+      visitCode()
+      visitMethodInsn(Opcodes.INVOKESTATIC, baseType.internalName, "constants",
+          "()[${objectType.descriptor}", false)
+      visitVarInsn(Opcodes.ASTORE, 0)
+      constantTypes.forEachIndexed { i, type ->
+        visitVarInsn(Opcodes.ALOAD, 0)
+        visitLdcInsn(i)
+        visitInsn(Opcodes.AALOAD)
+        if (type != objectType) {
+          visitTypeInsn(Opcodes.CHECKCAST, type.internalName)
+        }
+        visitFieldInsn(Opcodes.PUTSTATIC, className, "c$i", type.descriptor)
+      }
+      visitInsn(Opcodes.RETURN)
+      visitMaxs(0, 0)
+      visitEnd()
+    }
+
+    writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null).apply {
+      visitCode()
+      visitVarInsn(Opcodes.ALOAD, 0)
+      visitMethodInsn(Opcodes.INVOKESPECIAL, baseType.internalName, "<init>", "()V", false)
+      visitInsn(Opcodes.RETURN)
+      visitMaxs(0, 0)
+      visitEnd()
+    }
+
+    writer.visitMethod(Opcodes.ACC_PUBLIC, "test",
+        Type.getMethodDescriptor(Type.BOOLEAN_TYPE, objectType), null, null).apply {
+      visitCode()
+
+      val start = Label()
+      val end = Label()
+      val failure = Label()
+      visitTryCatchBlock(start, end, failure, "java/lang/Throwable")
+
+      // when blacklisting, the first matching term rejects the event while the first mismatching
+      // term rejects it otherwise
+      val reject = Label()
+      visitLabel(start)
+      visitVarInsn(Opcodes.ALOAD, 1)
+      visitTypeInsn(Opcodes.CHECKCAST, eventType.internalName)
+      visitVarInsn(Opcodes.ASTORE, 2)
+      terms.forEachIndexed { i, term ->
+        this@PredicateCompiler.emit(this, className, term, slots[i], reject, blacklist)
+      }
+      visitLabel(end)
+      visitInsn(Opcodes.ICONST_1)
+      visitInsn(Opcodes.IRETURN)
+
+      visitLabel(reject)
+      visitInsn(Opcodes.ICONST_0)
+      visitInsn(Opcodes.IRETURN)
+
+      visitLabel(failure)
+      visitMethodInsn(Opcodes.INVOKESTATIC, baseType.internalName, "wrap",
+          "(Ljava/lang/Throwable;)Ljava/lang/RuntimeException;", false)
+      visitInsn(Opcodes.ATHROW)
+
+      visitMaxs(0, 0)
+      visitEnd()
+    }
+
+    writer.visitEnd()
+    return writer.toByteArray()
+  }
+
+  /**
+   * Emits the evaluation of a single term.
+   *
+   * @param visitor a method visitor.
+   * @param className the internal name of the generated class.
+   * @param term a term.
+   * @param slot the index of the first constant of the term.
+   * @param reject a label which rejects the event.
+   * @param blacklist true if a matching term rejects the event, false if a mismatching term does.
+   */
+  private fun emit(visitor: MethodVisitor, className: String, term: Term, slot: Int, reject: Label,
+      blacklist: Boolean) {
+    visitor.visitFieldInsn(Opcodes.GETSTATIC, className, "c$slot",
+        if (term is Term.CustomTerm) predicateType.descriptor else handleType.descriptor)
+    visitor.visitVarInsn(Opcodes.ALOAD, 2)
+
+    if (term is Term.CustomTerm) {
+      visitor.visitMethodInsn(Opcodes.INVOKEINTERFACE, predicateType.internalName, "test",
+          Type.getMethodDescriptor(Type.BOOLEAN_TYPE, objectType), true)
+      visitor.visitJumpInsn(if (blacklist) Opcodes.IFNE else Opcodes.IFEQ, reject)
+      return
+    }
+
+    val valueType = when (term) {
+      is Term.IntTerm -> Type.INT_TYPE
+      is Term.DoubleTerm -> Type.DOUBLE_TYPE
+      is Term.BooleanTerm -> Type.BOOLEAN_TYPE
+      else -> objectType
+    }
+    visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, handleType.internalName, "invokeExact",
+        Type.getMethodDescriptor(valueType, eventType), false)
+
+    when (term) {
+      is Term.IntTerm -> {
+        visitor.visitLdcInsn(term.expected)
+        visitor.visitJumpInsn(if (blacklist) Opcodes.IF_ICMPEQ else Opcodes.IF_ICMPNE, reject)
+      }
+      is Term.DoubleTerm -> {
+        visitor.visitLdcInsn(term.expected)
+        visitor.visitInsn(Opcodes.DCMPL)
+        visitor.visitJumpInsn(if (blacklist) Opcodes.IFEQ else Opcodes.IFNE, reject)
+      }
+      is Term.BooleanTerm -> {
+        visitor.visitInsn(if (term.expected) Opcodes.ICONST_1 else Opcodes.ICONST_0)
+        visitor.visitJumpInsn(if (blacklist) Opcodes.IF_ICMPEQ else Opcodes.IF_ICMPNE, reject)
+      }
+      is Term.ObjectTerm -> {
+        visitor.visitFieldInsn(Opcodes.GETSTATIC, className, "c${slot + 1}", objectType.descriptor)
+        if (term.identity) {
+          visitor.visitJumpInsn(if (blacklist) Opcodes.IF_ACMPEQ else Opcodes.IF_ACMPNE, reject)
+        } else {
+          visitor.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Objects::class.java),
+              "equals", Type.getMethodDescriptor(Type.BOOLEAN_TYPE, objectType, objectType), false)
+          visitor.visitJumpInsn(if (blacklist) Opcodes.IFNE else Opcodes.IFEQ, reject)
+        }
+      }
+      else -> throw IllegalArgumentException("Illegal term: $term")
+    }
+  }
+
+  /**
+   * Represents a single filter within a compiled chain.
+   */
+  sealed class Term {
+
+    /**
+     * Retrieves the constant which is referenced by the term (e.g. its accessor handle).
+     */
+    abstract val constant: Any
+
+    /**
+     * Compares an `int` field against an expected value.
+     */
+    class IntTerm(accessor: MethodHandle, val expected: Int) : Term() {
+      override val constant: Any = accessor.asType(accessorType(Int::class.javaPrimitiveType!!))
+    }
+
+    /**
+     * Compares a `double` field against an expected value.
+     */
+    class DoubleTerm(accessor: MethodHandle, val expected: Double) : Term() {
+      override val constant: Any = accessor.asType(accessorType(Double::class.javaPrimitiveType!!))
+    }
+
+    /**
+     * Compares a `boolean` field against an expected value.
+     */
+    class BooleanTerm(accessor: MethodHandle, val expected: Boolean) : Term() {
+      override val constant: Any = accessor.asType(accessorType(Boolean::class.javaPrimitiveType!!))
+    }
+
+    /**
+     * Compares an object field against an expected value by equality or identity.
+     */
+    class ObjectTerm(accessor: MethodHandle, val expected: Any?, val identity: Boolean) : Term() {
+      override val constant: Any = accessor.asType(accessorType(Any::class.java))
+    }
+
+    /**
+     * Evaluates an arbitrary predicate (such as a custom [EventFilter]).
+     */
+    class CustomTerm(predicate: Predicate<Event<*>>) : Term() {
+      override val constant: Any = predicate
+    }
+
+    companion object {
+
+      private fun accessorType(type: Class<*>) = MethodType.methodType(type, Event::class.java)
+    }
+  }
+
+  /**
+   * Provides a class loader which defines a single predicate.
+   */
+  private class PredicateClassLoader(parent: ClassLoader?) : ClassLoader(parent) {
+
+    fun define(name: String, bytes: ByteArray): Class<*> =
+        this.defineClass(name, bytes, 0, bytes.size)
+  }
+}
@@ -17,8 +17,10 @@
 package org.basinmc.faucet.event.handler
 
 import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.EventContext
+import org.basinmc.faucet.event.filter.FilterChain
 import org.basinmc.faucet.util.Priority
-import javax.naming.event.EventContext
+import org.basinmc.faucet.util.State
 import kotlin.reflect.KClass
 
 /**
@@ -35,6 +37,42 @@ interface EventHandler : Comparable<EventHandler> {
   val priority: Priority
     get() = Priority.NORMAL
 
+  /**
+   * Identifies the event state in which this handler is interested (as declared via
+   * [Subscribe.receiveState]).
+   *
+   * The bus may skip this handler without consulting [accepts] when the event state does not
+   * match. As such, [accepts] must reject all events whose state does not match this value.
+   */
+  val receiveState: State
+    get() = State.WILDCARD
+
+  /**
+   * Identifies a field filter which is applied by this handler and may be used by the bus in order
+   * to index handlers by the expected field value.
+   *
+   * The bus may skip this handler without consulting [accepts] when the hinted field does not
+   * match. As such, [accepts] must reject all events which do not match this hint.
+   */
+  val indexHint: FilterChain.IndexHint?
+    get() = null
+
+  /**
+   * Indicates whether this handler may be invoked off the posting thread when a stateless event is
+   * posted via [org.basinmc.faucet.event.EventBus.postAsync].
+   */
+  val async: Boolean
+    get() = false
+
+  /**
+   * Identifies the class loader which owns this handler (typically the loader of the extension which
+   * registered it).
+   *
+   * Asynchronous handlers which share an owner are invoked in order with respect to each other.
+   */
+  val owner: ClassLoader?
+    get() = this.javaClass.classLoader
+
   /**
    * Evaluates whether this subscription accepts the given event type.
    *
@@ -54,7 +92,7 @@ interface EventHandler : Comparable<EventHandler> {
    * @param ctx an arbitrary event context.
    * @return true if this event is accepted, false otherwise.
    */
-  fun accepts(ctx: EventContext): Boolean
+  fun accepts(ctx: EventContext<*, *>): Boolean
 
   /**
    * Executes the subscription specific handler logic.
@@ -63,7 +101,7 @@ interface EventHandler : Comparable<EventHandler> {
    *
    * @param ctx an arbitrary event context.
    */
-  operator fun invoke(ctx: EventContext)
+  operator fun invoke(ctx: EventContext<*, *>)
 
   override fun compareTo(other: EventHandler) = this.priority.compareTo(other.priority)
 }
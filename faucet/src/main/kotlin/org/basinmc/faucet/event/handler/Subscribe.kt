@@ -55,7 +55,18 @@ annotation class Subscribe(
      * Note: In addition to [State.ALLOW] and [State.DENY], you may also use [ ][State.DEFAULT] in order to reduce the set of events to events which are currently in their
      * default state as well as [State.WILDCARD] to retrieve events from both sides.
      */
-    val receiveState: State = State.WILDCARD) {
+    val receiveState: State = State.WILDCARD,
+
+    /**
+     * Indicates whether this handler may be invoked on a worker thread when a [StatelessEvent] is
+     * posted asynchronously (see [org.basinmc.faucet.event.EventBus.postAsync]).
+     *
+     * Asynchronous handlers are still invoked in order with respect to other handlers of the same
+     * extension but may run concurrently with the server thread and handlers of other extensions.
+     * Events which are posted synchronously will always invoke their handlers on the posting
+     * thread.
+     */
+    val async: Boolean = false) {
 
   class DefaultEvent private constructor() : StatelessEvent
 }
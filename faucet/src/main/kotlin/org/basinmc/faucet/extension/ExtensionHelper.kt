@@ -55,4 +55,12 @@ interface ExtensionHelper {
    * @return a calling extension or an empty optional.
    */
   val firstCallingExtension: Extension?
+
+  /**
+   * Retrieves the extension which owns a given class loader.
+   *
+   * @param classLoader an arbitrary class loader.
+   * @return an extension or null if the loader is not owned by an extension.
+   */
+  fun getExtension(classLoader: ClassLoader?): Extension?
 }
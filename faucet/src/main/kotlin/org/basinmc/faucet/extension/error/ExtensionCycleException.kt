@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.faucet.extension.error
+
+import org.basinmc.faucet.extension.manifest.ExtensionManifest
+
+/**
+ * Notifies the caller about a circular dependency between two or more extensions which prevents
+ * all of them from starting.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class ExtensionCycleException(
+
+    /**
+     * Retrieves the extensions which form the cycle in dependency order (e.g. each extension
+     * depends on its successor while the last extension depends on the first).
+     */
+    val cycle: List<ExtensionManifest>) : ExtensionContainerException(buildErrorMessage(cycle)) {
+
+  companion object {
+
+    private fun buildErrorMessage(cycle: List<ExtensionManifest>) =
+        (cycle + cycle.first()).joinToString(" -> ",
+            prefix = "Circular dependency between extensions: ") {
+          it.identifier + " v" + it.version
+        }
+  }
+}
@@ -35,7 +35,13 @@ class ExtensionFlags(mask: Int) : BitMask<ExtensionFlags>(mask) {
     // 64 is reserved
     val CI_BUILD = ExtensionFlags(128)
 
-    override val values = listOf(PRIVATE, COMMERCIAL, CI_BUILD)
+    /**
+     * Indicates that the extension is to be started on demand (e.g. when one of its services is
+     * looked up or an event it subscribes to is posted) rather than during server startup.
+     */
+    val LAZY = ExtensionFlags(256)
+
+    override val values = listOf(PRIVATE, COMMERCIAL, CI_BUILD, LAZY)
 
     override fun newInstance(mask: Int) = ExtensionFlags(mask)
   }
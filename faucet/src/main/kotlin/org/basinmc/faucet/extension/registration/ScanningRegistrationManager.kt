@@ -35,7 +35,7 @@ abstract class ScanningRegistrationManager<R : Registration> : RegistrationManag
    */
   @Subscribe
   private fun handleExtensionRun(event: ExtensionRunEvent.Post) {
-    this.scan(event.extension)
+    this.register(this.scan(event.extension))
   }
 
   /**
@@ -152,6 +152,10 @@ class VersionRange(range: String) {
     return !(this.end != null && (this.end < version || !this.endInclusive && this.end == version))
   }
 
+  /**
+   * Converts this range into its string representation (which is accepted by the constructor and
+   * results in an equal range).
+   */
   override fun toString(): String {
     if (this.start === this.end) {
       return this.start!!.toString()
@@ -159,12 +163,7 @@ class VersionRange(range: String) {
 
     val builder = StringBuilder()
     if (this.start != null) {
-      if (this.startInclusive) {
-        builder.append('[')
-      } else if (this.end != null) {
-        builder.append('(')
-      }
-
+      builder.append(if (this.startInclusive) '[' else '(')
       builder.append(this.start)
     }
     if (this.end != null) {
@@ -173,12 +172,7 @@ class VersionRange(range: String) {
       }
 
       builder.append(this.end)
-
-      if (this.endInclusive) {
-        builder.append(']')
-      } else if (this.start != null) {
-        builder.append(')')
-      }
+      builder.append(if (this.endInclusive) ']' else ')')
     }
 
     return builder.toString()
@@ -18,6 +18,7 @@
 package org.basinmc.faucet.world
 
 import org.basinmc.faucet.entity.Entity
+import org.basinmc.faucet.event.EventBus
 import org.basinmc.faucet.math.Vector3
 import org.basinmc.faucet.math.Vector3Double
 import java.util.*
@@ -42,6 +43,16 @@ interface World {
    */
   val random: Random
 
+  /**
+   * Retrieves the event bus which receives all events which concern this world.
+   *
+   * Handlers which are subscribed to the server's global bus will receive the events posted to
+   * this bus as well while handlers which are subscribed to this bus directly will only receive
+   * events of this world. Events of different worlds may be posted and handled concurrently (e.g.
+   * on the respective thread of each world).
+   */
+  val eventBus: EventBus
+
   /**
    * Searches the given spherical area for entities.
    *
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.faucet.event.filter
+
+import org.basinmc.faucet.event.StatelessEvent
+import org.basinmc.faucet.internal.event.FilterExpose
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class FilterChainTest {
+
+  @Test
+  fun testEmpty() {
+    val chain = FilterChain(Handlers::class.java.getMethod("unfiltered"), SampleEvent::class.java)
+
+    assertTrue(chain.isEmpty)
+    assertTrue(chain.matches(SampleEvent(1, "a", String::class.java)))
+  }
+
+  @Test
+  fun testFieldFilters() {
+    val chain = FilterChain(Handlers::class.java.getMethod("filtered"), SampleEvent::class.java)
+
+    assertFalse(chain.isEmpty)
+    assertTrue(chain.matches(SampleEvent(42, "basin", String::class.java)))
+    assertFalse(chain.matches(SampleEvent(41, "basin", String::class.java)))
+    assertFalse(chain.matches(SampleEvent(42, "sink", String::class.java)))
+    assertFalse(chain.matches(SampleEvent(42, "basin", CharSequence::class.java)))
+  }
+
+  @Test
+  fun testBlacklist() {
+    val chain = FilterChain(Handlers::class.java.getMethod("blacklisted"), SampleEvent::class.java)
+
+    assertTrue(chain.matches(SampleEvent(1, "sink", String::class.java)))
+    assertFalse(chain.matches(SampleEvent(42, "sink", String::class.java)))
+    assertFalse(chain.matches(SampleEvent(1, "basin", String::class.java)))
+  }
+
+  @Test
+  fun testPrimitiveFilters() {
+    val chain = FilterChain(Handlers::class.java.getMethod("primitive"), PrimitiveEvent::class.java)
+
+    assertTrue(chain.matches(PrimitiveEvent(0.5, true)))
+    assertFalse(chain.matches(PrimitiveEvent(0.25, true)))
+    assertFalse(chain.matches(PrimitiveEvent(0.5, false)))
+  }
+
+  @Test(expected = IllegalArgumentException::class)
+  fun testUnknownField() {
+    FilterChain(Handlers::class.java.getMethod("unknown"), SampleEvent::class.java)
+  }
+
+  class SampleEvent(
+      @FilterExpose(IntFilter::class)
+      val id: Int,
+      @FilterExpose(StringFilter::class)
+      val name: String,
+      @FilterExpose(ClassFilter::class)
+      val type: Class<*>) : StatelessEvent
+
+  class PrimitiveEvent(
+      @FilterExpose(DoubleFilter::class)
+      val weight: Double,
+      @FilterExpose(BooleanFilter::class)
+      val enabled: Boolean) : StatelessEvent
+
+  class Handlers {
+
+    fun unfiltered() {}
+
+    @IntFilter(42)
+    @StringFilter("basin")
+    @ClassFilter(String::class)
+    fun filtered() {}
+
+    @Blacklist
+    @IntFilter(42)
+    @StringFilter("basin")
+    fun blacklisted() {}
+
+    @DoubleFilter(0.5)
+    @BooleanFilter(true)
+    fun primitive() {}
+
+    @IntFilter(42, field = "unknown")
+    fun unknown() {}
+  }
+}
@@ -17,7 +17,18 @@
 package org.basinmc.sink.command;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.basinmc.faucet.event.EventStatistics;
+import org.basinmc.faucet.event.EventStatistics.HandlerStatistics;
+import org.basinmc.faucet.event.handler.EventHandler;
+import org.basinmc.faucet.extension.Extension;
+import org.basinmc.faucet.extension.ExtensionHelper;
 import org.basinmc.faucet.util.Color;
 import org.basinmc.faucet.command.Communicable;
 import org.basinmc.faucet.command.annotation.Alias;
@@ -27,6 +38,10 @@ import org.basinmc.faucet.command.annotation.Description;
 import org.basinmc.faucet.command.annotation.Option;
 import org.basinmc.faucet.command.annotation.Subcommand;
 import org.basinmc.faucet.command.annotation.Supercommand;
+import org.basinmc.sink.event.EventBusImpl;
+import org.basinmc.sink.event.record.EventRecorder;
+import org.basinmc.sink.event.record.EventReplay;
+import org.basinmc.sink.extension.ExtensionManagerImpl;
 
 // TODO - this class does nothing currently but serve as an example command implementation.
 @Command("basinctl") // all hail our systemd overlords
@@ -34,6 +49,19 @@ import org.basinmc.faucet.command.annotation.Supercommand;
 @Description("Provides userspace access and control to server-specific functions.")
 public class BasinCommand {
 
+  private final EventBusImpl eventBus;
+  private final EventStatistics eventStatistics;
+  private final ExtensionHelper extensionHelper;
+  private final ExtensionManagerImpl extensionManager;
+
+  public BasinCommand(@NonNull EventBusImpl eventBus, @NonNull EventStatistics eventStatistics,
+      @NonNull ExtensionHelper extensionHelper, @NonNull ExtensionManagerImpl extensionManager) {
+    this.eventBus = eventBus;
+    this.eventStatistics = eventStatistics;
+    this.extensionHelper = extensionHelper;
+    this.extensionManager = extensionManager;
+  }
+
   @Supercommand
   public void printServerState(@NonNull Communicable sender) {
     sender.sendMessage(Color.GOLD + "Basin Sink");
@@ -57,4 +85,164 @@ public class BasinCommand {
       @Option(desc = "Notify online players", shortOpt = 'n', longOpt = "notify") boolean notify) {
 
   }
+
+  @Subcommand("events")
+  @Alias("ev")
+  @Description("Display event handler latencies.")
+  public void events(@NonNull Communicable sender,
+      @Option(desc = "Start timing event handlers", shortOpt = 'e', longOpt = "enable") boolean enable,
+      @Option(desc = "Stop timing event handlers", shortOpt = 'd', longOpt = "disable") boolean disable,
+      @Option(desc = "Discard all recorded latencies", shortOpt = 'r', longOpt = "reset") boolean reset,
+      @Option(desc = "Amount of handlers to display", shortOpt = 'n', longOpt = "limit", type = Integer.class) Optional<Integer> limit) {
+    if (reset) {
+      this.eventStatistics.reset();
+    }
+    if (enable || disable) {
+      this.eventStatistics.setEnabled(enable);
+      sender.sendMessage(Color.GOLD + "Event handler timing " + (enable ? "enabled" : "disabled"));
+      return;
+    }
+
+    long rejections = this.eventStatistics.getRejections();
+    if (rejections != 0) {
+      sender.sendMessage(Color.RED + "" + rejections + " event(s) have been rejected by saturated queues");
+    }
+
+    List<HandlerStatistics> handlers = this.eventStatistics.getHandlers();
+    if (handlers.isEmpty()) {
+      sender.sendMessage(Color.GOLD + "No event handler latencies have been recorded" +
+          (this.eventStatistics.getEnabled() ? "" : " (timing is disabled)"));
+      return;
+    }
+
+    sender.sendMessage(Color.GOLD + "Handlers by total time (calls, mean, p99, max in µs):");
+    handlers.stream()
+        .sorted(Comparator.comparingLong(HandlerStatistics::getTotalTime).reversed())
+        .limit(limit.orElse(10))
+        .forEach((stats) -> {
+          Extension extension = stats.getExtension();
+          String owner =
+              extension != null ? extension.getManifest().getIdentifier() : "server";
+
+          sender.sendMessage(Color.YELLOW + owner + Color.WHITE + " " + stats.getHandler() + ": "
+              + stats.getInvocations() + ", " + toMicros(stats.getMeanTime()) + ", "
+              + toMicros(stats.percentile(99)) + ", " + toMicros(stats.getMaximumTime()));
+        });
+  }
+
+  @Subcommand("watchdog")
+  @Alias("wd")
+  @Description("List or release event handlers which have been quarantined by the watchdog.")
+  public void watchdog(@NonNull Communicable sender,
+      @Option(desc = "Handler to re-enable (as listed)", shortOpt = 'r', longOpt = "release", type = Integer.class) Optional<Integer> release,
+      @Option(desc = "Re-enable all handlers", shortOpt = 'a', longOpt = "all") boolean all) {
+    List<EventHandler> handlers = this.eventBus.getQuarantined();
+    if (handlers.isEmpty()) {
+      sender.sendMessage(Color.GOLD + "No event handlers are quarantined");
+      return;
+    }
+
+    if (all) {
+      handlers.forEach(this.eventBus::release);
+      sender.sendMessage(Color.GOLD + "Released " + handlers.size() + " event handler(s)");
+      return;
+    }
+    if (release.isPresent()) {
+      int index = release.get();
+      if (index < 1 || index > handlers.size()) {
+        sender.sendMessage(Color.RED + "No such quarantined handler: " + index);
+        return;
+      }
+
+      EventHandler handler = handlers.get(index - 1);
+      this.eventBus.release(handler);
+      sender.sendMessage(Color.GOLD + "Released " + handler);
+      return;
+    }
+
+    sender.sendMessage(Color.GOLD + "Quarantined event handlers:");
+    for (int i = 0; i < handlers.size(); ++i) {
+      EventHandler handler = handlers.get(i);
+      Extension extension = this.extensionHelper.getExtension(handler.getOwner());
+      String owner = extension != null ? extension.getManifest().getIdentifier() : "server";
+
+      sender.sendMessage(
+          Color.WHITE + "" + (i + 1) + ". " + Color.YELLOW + owner + Color.WHITE + " " + handler);
+    }
+  }
+
+  @Subcommand("record")
+  @Description("Record posted events into a ring file.")
+  public void record(@NonNull Communicable sender,
+      @Option(desc = "File to record to") Optional<String> file,
+      @Option(desc = "Size of the ring in MiB", shortOpt = 's', longOpt = "size", type = Integer.class) Optional<Integer> size,
+      @Option(desc = "Stop recording", shortOpt = 'x', longOpt = "stop") boolean stop) {
+    EventRecorder previous = this.eventBus.getRecorder();
+    if (stop || !file.isPresent()) {
+      this.eventBus.setRecorder(null);
+
+      if (previous == null) {
+        sender.sendMessage(Color.GOLD + "Events are not being recorded");
+        return;
+      }
+
+      previous.close();
+      sender.sendMessage(
+          Color.GOLD + "Recorded " + (previous.getWritten() / 1024) + " KiB of events");
+      return;
+    }
+
+    long capacity = size.orElse(256) * 1024L * 1024L;
+    if (capacity < EventRecorder.MIN_CAPACITY || capacity > EventRecorder.MAX_CAPACITY) {
+      sender.sendMessage(Color.RED + "Illegal ring size: Expected a value between 1 and "
+          + (EventRecorder.MAX_CAPACITY / (1024 * 1024)) + " MiB");
+      return;
+    }
+
+    Path path = Paths.get(file.get());
+    EventRecorder recorder;
+    try {
+      recorder = new EventRecorder(path, (int) capacity);
+    } catch (IOException | IllegalArgumentException ex) {
+      sender.sendMessage(Color.RED + "Cannot record to " + path + ": " + ex.getMessage());
+      return;
+    }
+
+    this.eventBus.setRecorder(recorder);
+    if (previous != null) {
+      previous.close();
+    }
+    sender.sendMessage(Color.GOLD + "Recording events to " + path);
+  }
+
+  @Subcommand("replay")
+  @Description("Replay a previously recorded ring file.")
+  public void replay(@NonNull Communicable sender,
+      @Option(desc = "File to replay") String file,
+      @Option(desc = "Reproduce the original delay between events", shortOpt = 'p', longOpt = "paced") boolean paced) {
+    Path path = Paths.get(file);
+    EventReplay replay;
+    try {
+      replay = EventReplay.open(path);
+    } catch (IOException ex) {
+      sender.sendMessage(Color.RED + "Cannot replay " + path + ": " + ex.getMessage());
+      return;
+    }
+
+    // replays wait for the main thread to accept their events and thus cannot run on it
+    sender.sendMessage(Color.GOLD + "Replaying " + (replay.getSize() / 1024) + " KiB of events");
+    Thread thread = new Thread(() -> {
+      long start = System.nanoTime();
+      int count = replay.replay(this.eventBus, this.extensionManager.getClassLoader(), paced);
+      sender.sendMessage(Color.GOLD + "Replayed " + count + " events within "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }, "basin-event-replay");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @NonNull
+  private static String toMicros(long nanos) {
+    return String.format("%.1f", nanos / (double) TimeUnit.MICROSECONDS.toNanos(1));
+  }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.lang.invoke.MethodHandle;
+import org.basinmc.faucet.event.EventContext;
+
+/**
+ * Provides a base to generated dispatchers which invoke all handlers of a single event type
+ * through a dedicated call site per handler (see {@link FusedDispatcherFactory}).
+ *
+ * Generated dispatchers retrieve their handles through {@link #handles()} during their static
+ * initialization and store them within constant fields.
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+public abstract class FusedDispatcher {
+
+  private static final ThreadLocal<MethodHandle[]> pending = new ThreadLocal<>();
+
+  /**
+   * Passes an event through all handlers of the dispatcher's event type.
+   *
+   * @param ctx an event context.
+   */
+  public abstract void dispatch(@NonNull EventContext<?, ?> ctx);
+
+  /**
+   * Provides a set of handles to the dispatcher which is initialized on the calling thread.
+   *
+   * @param handles an array of handles.
+   */
+  static void offer(@NonNull MethodHandle[] handles) {
+    pending.set(handles);
+  }
+
+  /**
+   * Discards any handles which have not been claimed by a dispatcher on the calling thread.
+   */
+  static void discard() {
+    pending.remove();
+  }
+
+  /**
+   * Retrieves the handles which have been provided to the dispatcher which is being initialized
+   * on the calling thread.
+   *
+   * @return an array of handles.
+   * @throws IllegalStateException when no handles have been provided.
+   */
+  @NonNull
+  public static MethodHandle[] handles() {
+    MethodHandle[] handles = pending.get();
+    if (handles == null) {
+      throw new IllegalStateException("No handles have been provided to the dispatcher");
+    }
+
+    pending.remove();
+    return handles;
+  }
+
+  /**
+   * Identifies the dispatch segment which applies to the current state of an event.
+   *
+   * @param ctx an event context.
+   * @return a segment identifier.
+   */
+  public static int segmentOf(@NonNull EventContext<?, ?> ctx) {
+    return DispatchTable.Companion.segmentOf(ctx.getState(), ctx.getDefaultState());
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.handler;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import org.basinmc.faucet.event.EventContext;
+import org.basinmc.faucet.internal.util.ExactHandles;
+
+/**
+ * Invokes a handler through a pre-adapted method handle.
+ *
+ * This implementation is used as a fallback for handler methods which cannot be called from a
+ * generated class (for instance, because they are private).
+ *
+ * @author <a href="mailto:johannesd@torchmind.com">Johannes Donath</a>
+ */
+final class MethodHandleInvoker implements HandlerInvoker {
+
+  static final MethodType TYPE = MethodType
+      .methodType(void.class, Object.class, EventContext.class);
+
+  final MethodHandle handle;
+
+  MethodHandleInvoker(@NonNull MethodHandle handle) {
+    if (!TYPE.equals(handle.type())) {
+      throw new IllegalArgumentException("Expected handle of type " + TYPE + " but got " + handle.type());
+    }
+
+    this.handle = handle;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void invoke(@NonNull Object listener, @NonNull EventContext<?, ?> ctx) {
+    try {
+      ExactHandles.invoke(this.handle, listener, ctx);
+    } catch (RuntimeException | Error ex) {
+      throw ex;
+    } catch (Throwable ex) {
+      throw new IllegalStateException("Handler raised checked exception", ex);
+    }
+  }
+}
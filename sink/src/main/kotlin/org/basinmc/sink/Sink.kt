@@ -18,6 +18,8 @@ package org.basinmc.sink
 
 import net.minecraft.server.MinecraftServer
 import org.apache.logging.log4j.LogManager
+import org.basinmc.sink.event.EventBusImpl
+import org.basinmc.sink.extension.ExtensionManagerImpl
 import org.springframework.context.annotation.AnnotationConfigApplicationContext
 
 /**
@@ -35,6 +37,9 @@ class Sink(server: MinecraftServer) : AutoCloseable {
     it
   }
 
+  private lateinit var eventBus: EventBusImpl
+  private lateinit var extensionManager: ExtensionManagerImpl
+
   fun onStart() {
     logger.info("Basin Sink v%s entered startup", SinkVersion.version)
 
@@ -42,10 +47,32 @@ class Sink(server: MinecraftServer) : AutoCloseable {
     this.context.refresh()
     this.context.start()
 
+    this.eventBus = this.context.getBean(EventBusImpl::class.java)
+    this.extensionManager = this.context.getBean(ExtensionManagerImpl::class.java)
+
     // TODO: Initialize extension system
     // TODO: Publish startup event
   }
 
+  /**
+   * Performs all pending main thread work at the beginning of a server tick.
+   *
+   * Activation handlers of extensions which have been started on demand during the previous tick
+   * are unsubscribed before any events which have been handed off by other threads are posted.
+   */
+  fun onTick() {
+    this.extensionManager.closeRetiredActivations()
+    this.eventBus.drainMainThreadQueue()
+  }
+
+  /**
+   * Posts all events which have been deferred during the current server tick (including those
+   * deferred by handlers of hand-off events) once the tick has completed.
+   */
+  fun onTickEnd() {
+    this.eventBus.drainDeferred()
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.handler.EventHandler
+import org.basinmc.faucet.util.State
+import org.basinmc.sink.event.handler.ActivationEventHandler
+import java.util.*
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Represents the sorted set of handlers which accept a given event type.
+ *
+ * In addition to the complete handler list, each table provides pre-computed segments which only
+ * contain the handlers whose receive state (see [EventHandler.receiveState]) is compatible with a
+ * given event state. Segments are identified by the kind of state (e.g. [State.ALLOW],
+ * [State.DENY] or an arbitrary non-[State] value) and whether the state is equal to the event's
+ * default state.
+ *
+ * When a sufficient amount of handlers filter on the same event field (see
+ * [EventHandler.indexHint]), these handlers are removed from the segments and are instead indexed
+ * by their expected value (see [lookup]).
+ *
+ * Tables which are frequently posted to may additionally be compiled into a dedicated dispatcher
+ * class (see [FusedDispatcherFactory]) once they have received [FUSE_THRESHOLD] posts.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal class DispatchTable(
+
+    /**
+     * Retrieves the concrete event type to which this table applies.
+     */
+    val eventType: Class<*>,
+
+    /**
+     * Retrieves all handlers within this table in their respective priority order.
+     */
+    val handlers: Array<EventHandler>,
+
+    /**
+     * Retrieves the subscription of each handler (at the same index as the handler).
+     */
+    val subscriptions: Array<SubscriptionImpl>,
+
+    /**
+     * Retrieves the pending activation handlers which accept the event type (see
+     * [ActivationEventHandler]).
+     */
+    val activators: Array<ActivationEventHandler>) {
+
+  private val indexes: Array<ValueIndex>
+  private val segments: Array<IntArray>
+
+  init {
+    val groups = this.handlers.indices
+        .filter { this.handlers[it].indexHint?.let(ValueIndex.Companion::supports) == true }
+        .groupBy { this.handlers[it].indexHint!!.key }
+        .values
+        .filter { it.size >= INDEX_THRESHOLD }
+
+    this.indexes = groups
+        .map { group ->
+          ValueIndex(this.handlers[group.first()].indexHint!!,
+              group.associateWith { this.handlers[it].indexHint!!.value })
+        }
+        .toTypedArray()
+
+    val indexed = groups.flatten().toSet()
+    this.segments = Array(SEGMENT_COUNT) { segment ->
+      this.handlers.indices
+          .filter { it !in indexed && matches(this.handlers[it].receiveState, segment) }
+          .toIntArray()
+    }
+  }
+
+  private var posts = 0
+  private val fuseAttempted = AtomicBoolean()
+
+  /**
+   * Evaluates whether this table contains no handlers at all.
+   */
+  val isEmpty: Boolean
+    get() = this.handlers.isEmpty()
+
+  /**
+   * Evaluates whether at least one group of handlers within this table is indexed by value.
+   */
+  val isIndexed: Boolean
+    get() = this.indexes.isNotEmpty()
+
+  /**
+   * Retrieves the fused dispatcher of this table (if one has been generated).
+   */
+  @Volatile
+  var dispatcher: FusedDispatcher? = null
+
+  /**
+   * Counts a post to this table and evaluates whether a fused dispatcher is to be generated.
+   *
+   * This method returns true at most once per table (even when invoked concurrently). Since posts
+   * are counted without synchronization, concurrent posters may cause the threshold to be reached
+   * slightly later.
+   *
+   * @return true if a dispatcher is to be generated, false otherwise.
+   */
+  fun countPost(): Boolean {
+    if (this.fuseAttempted.get() || ++this.posts < FUSE_THRESHOLD) {
+      return false
+    }
+
+    return this.fuseAttempted.compareAndSet(false, true) && FusedDispatcherFactory.isSupported(this)
+  }
+
+  /**
+   * Retrieves the amount of value indexes within this table.
+   */
+  val indexCount: Int
+    get() = this.indexes.size
+
+  /**
+   * Retrieves the indexed handlers which expect the field values of a given event.
+   *
+   * @param event an event.
+   * @param matches an array of at least [indexCount] elements which receives one ascending array
+   * of handler indices per value index within this table.
+   */
+  fun lookup(event: Event<*>, matches: Array<IntArray>) {
+    for (i in this.indexes.indices) {
+      matches[i] = this.indexes[i].lookup(event)
+    }
+  }
+
+  /**
+   * Retrieves the handlers within a given segment which are not indexed by value.
+   *
+   * @param segment a segment identifier (as returned by [segmentOf]).
+   * @return an ascending array of indices into [handlers].
+   */
+  fun segment(segment: Int) = this.segments[segment]
+
+  /**
+   * Locates the first position within an array of handler indices which refers to a handler at or
+   * past a given index.
+   *
+   * @param indices an ascending array of handler indices.
+   * @param index a handler index.
+   * @return an array position (or the array length if no such handler remains).
+   */
+  fun seek(indices: IntArray, index: Int): Int {
+    if (index == 0) {
+      return 0
+    }
+
+    val position = Arrays.binarySearch(indices, index)
+    return if (position < 0) -(position + 1) else position
+  }
+
+  companion object {
+
+    private const val SEGMENT_COUNT = 6
+
+    /**
+     * Defines the minimum amount of handlers which filter on the same field before an index is
+     * created for them.
+     */
+    private const val INDEX_THRESHOLD = 4
+
+    /**
+     * Defines the amount of posts after which a fused dispatcher is generated for a table.
+     */
+    private const val FUSE_THRESHOLD = 256
+
+    /**
+     * Identifies the segment which applies to a given state.
+     *
+     * The lowest bit indicates whether the state is equal to the default state while the remaining
+     * bits identify [State.ALLOW] (1), [State.DENY] (2) or any other value (0).
+     *
+     * @param state the current event state.
+     * @param defaultState the default event state.
+     * @return a segment identifier.
+     */
+    fun segmentOf(state: Any?, defaultState: Any?): Int {
+      val kind = when (state) {
+        State.ALLOW -> 1
+        State.DENY -> 2
+        else -> 0
+      }
+
+      return (kind shl 1) or (if (state == defaultState) 1 else 0)
+    }
+
+    /**
+     * Evaluates whether a handler with a given receive state may accept events within a segment.
+     *
+     * @param receiveState a handler receive state.
+     * @param segment a segment identifier.
+     * @return true if compatible, false otherwise.
+     */
+    fun matches(receiveState: State, segment: Int): Boolean {
+      val kind = segment shr 1
+
+      return when (receiveState) {
+        State.WILDCARD -> true
+        State.DEFAULT -> segment and 1 != 0
+        State.ALLOW -> kind == 0 || kind == 1
+        State.DENY -> kind == 0 || kind == 2
+      }
+    }
+
+    /**
+     * Computes the set of segments in which a handler with a given receive state may accept
+     * events.
+     *
+     * @param receiveState a handler receive state.
+     * @return a bit mask in which bit n is set when the handler may accept events in segment n.
+     */
+    fun segmentMask(receiveState: State) = (0 until SEGMENT_COUNT)
+        .filter { matches(receiveState, it) }
+        .fold(0) { mask, segment -> mask or (1 shl segment) }
+  }
+}
+
+/**
+ * Provides scratch arrays for a single table walk in order to avoid allocating them for every
+ * post.
+ *
+ * Frames are owned by a single thread and post depth (see [PostTracker.Slot.frame]) as handlers
+ * may post further events while a walk is in progress.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal class DispatchFrame {
+
+  /**
+   * Receives the indexed handlers which expect the field values of the current event (see
+   * [DispatchTable.lookup]).
+   */
+  var matches: Array<IntArray> = emptyArray()
+    private set
+
+  /**
+   * Tracks the walk position within each element of [matches].
+   */
+  var cursors = IntArray(0)
+    private set
+
+  /**
+   * Ensures that this frame provides room for a given amount of value indexes.
+   *
+   * @param size an amount of value indexes.
+   */
+  fun ensureCapacity(size: Int) {
+    if (this.matches.size < size) {
+      this.matches = Array(size) { EMPTY }
+      this.cursors = IntArray(size)
+    }
+  }
+
+  companion object {
+
+    private val EMPTY = IntArray(0)
+  }
+}
@@ -0,0 +1,1042 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.apache.logging.log4j.LogManager
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.EventBus
+import org.basinmc.faucet.event.EventContext
+import org.basinmc.faucet.event.StatelessEvent
+import org.basinmc.faucet.event.Subscription
+import org.basinmc.faucet.event.handler.EventHandler
+import org.basinmc.faucet.event.handler.Subscribe
+import org.basinmc.faucet.internal.util.ExactHandles
+import org.basinmc.sink.event.handler.ActivationEventHandler
+import org.basinmc.sink.event.handler.FunctionalEventHandler
+import org.basinmc.sink.event.handler.InlinableEventHandler
+import org.basinmc.sink.event.handler.MethodEventHandler
+import org.basinmc.sink.event.handler.OffloadedEventHandler
+import org.basinmc.sink.event.record.EventRecorder
+import org.basinmc.sink.event.record.EventReplay
+import org.springframework.beans.factory.DisposableBean
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.core.annotation.AnnotationUtils
+import org.springframework.stereotype.Service
+import org.springframework.util.ReflectionUtils
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import java.util.function.Consumer
+
+/**
+ * Provides an event bus which dispatches events through pre-sorted per-type handler tables.
+ *
+ * Each concrete event type is mapped to an array of handlers which accept the type (including
+ * handlers which subscribed to one of its supertypes or interfaces) in priority order. Tables are
+ * built on first use and are only rebuilt when a subscription which affects them is created or
+ * closed (as permitted by the contract of [EventHandler.accepts]).
+ *
+ * Tables are further split into segments per receive state. While walking the handlers of an
+ * event, only the segment which matches the current event state is visited. When a handler alters
+ * the state, the matching segment is re-selected and the walk resumes past the last visited
+ * handler. Handlers which filter on the same event field are indexed by their expected value
+ * instead (see [DispatchTable]) and are merged into the walk only when the field matches.
+ *
+ * Asynchronous handlers are executed on a bounded worker pool through one lane per owning class
+ * loader (e.g. extension) which guarantees that handlers of the same extension are never reordered
+ * or executed concurrently with each other. Each lane accepts a bounded amount of pending
+ * invocations (`basin.event.async.queue`). When a lane is saturated, its handlers are not invoked
+ * for the event in question (rather than stalling the posting thread). Such rejections are counted
+ * within the bus statistics (see [EventStatisticsImpl.rejections]) and logged periodically.
+ *
+ * Tables which receive a large amount of posts are compiled into dedicated dispatcher classes
+ * which call each handler through its own call site (see [FusedDispatcherFactory]) rather than
+ * walking their segments. This behavior may be disabled via `basin.event.fuse`.
+ *
+ * Events which are raised off the main thread may be handed off through a bounded queue (see
+ * [MainThreadQueue]) which is drained by the server at the beginning of each tick. Events may
+ * furthermore be deferred to the end of a tick in which case events which declare a coalescing
+ * key are collapsed into their most recent instance per key (see [EventCoalescer]). Both queues
+ * are bounded by `basin.event.main.queue` and reject (and count) events once saturated.
+ *
+ * When a time budget is configured, handler invocations are supervised by a [HandlerWatchdog].
+ * Handlers which repeatedly exceed the budget may be quarantined in which case they are either
+ * moved to the asynchronous worker pool or no longer invoked until they are released again (see
+ * [release]).
+ *
+ * Buses may furthermore spawn child buses (see [createChild]) which mirror the subscriptions of
+ * their parent (typically one per world) and may be posted to concurrently with their parent and
+ * siblings without sharing any dispatch state.
+ *
+ * Concurrency: Events may be posted from any thread at any time. Posters never acquire a lock as
+ * they operate on an immutable snapshot of the registered subscriptions (see [HandlerRegistry])
+ * which is replaced atomically whenever a subscription is created or closed. Changes to the set
+ * of subscriptions are serialized with respect to each other but never block posters. Posts which
+ * start after a subscription was created are guaranteed to observe its handlers while a closed
+ * subscription is guaranteed to not be invoked by posts which start after its
+ * [Subscription.close] method returns. Closing a subscription never blocks and thus does not
+ * await invocations which are in progress on other threads at that time while the state of its
+ * handlers is reclaimed once these posts complete (see [PostTracker]).
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+@Service
+class EventBusImpl private constructor(
+    private val parent: EventBusImpl?,
+    private val statistics: EventStatisticsImpl,
+    private val watchdog: HandlerWatchdog,
+    threads: Int,
+    queueCapacity: Int,
+    private val mainQueueCapacity: Int,
+    private val fuse: Boolean) : EventBus, DisposableBean {
+
+  private val lock = ReentrantLock()
+
+  private val tracker: PostTracker = this.parent?.tracker ?: PostTracker()
+
+  @Volatile
+  private var registry = HandlerRegistry(this.parent?.currentRegistry())
+
+  private val executor: ThreadPoolExecutor
+  private val laneCapacity: Int = this.parent?.laneCapacity ?: queueCapacity
+  private val lanes: MutableMap<ClassLoader?, EventLane> = this.parent?.lanes
+      ?: Collections.synchronizedMap(WeakHashMap<ClassLoader?, EventLane>())
+  private val lastRejectionReport = AtomicLong(System.nanoTime() - REJECTION_REPORT_INTERVAL)
+  private val mainQueue = MainThreadQueue<Any>(mainQueueCapacity)
+  private val coalescer = EventCoalescer(mainQueueCapacity)
+  private val children: MutableSet<EventBusImpl> =
+      Collections.newSetFromMap(WeakHashMap<EventBusImpl, Boolean>())
+
+  init {
+    this.executor = this.parent?.executor ?: createExecutor(threads)
+  }
+
+  @Autowired
+  constructor(
+      statistics: EventStatisticsImpl,
+      watchdog: HandlerWatchdog,
+      @Value("\${basin.event.async.threads:0}") threads: Int,
+      @Value("\${basin.event.async.queue:1024}") queueCapacity: Int,
+      @Value("\${basin.event.main.queue:4096}") mainQueueCapacity: Int,
+      @Value("\${basin.event.fuse:true}") fuse: Boolean) :
+      this(null, statistics, watchdog, threads, queueCapacity, mainQueueCapacity, fuse)
+
+  private val timingEnabledHandle = MethodHandles.lookup()
+      .findVirtual(EventBusImpl::class.java, "isTimed",
+          MethodType.methodType(Boolean::class.javaPrimitiveType))
+      .bindTo(this)
+  private val invokeTimedHandle = MethodHandles.lookup()
+      .findVirtual(EventBusImpl::class.java, "invokeTimed", MethodType.methodType(Void.TYPE,
+          SubscriptionImpl::class.java, EventHandler::class.java, MethodHandle::class.java,
+          EventContext::class.java))
+      .bindTo(this)
+  private val reportFailureHandle = MethodHandles.lookup()
+      .findVirtual(EventBusImpl::class.java, "reportFailure", MethodType.methodType(Void.TYPE,
+          EventHandler::class.java, Throwable::class.java, EventContext::class.java))
+      .bindTo(this)
+
+  constructor() : this(null, EventStatisticsImpl(), HandlerWatchdog(), 0, 1024, 4096, true)
+
+  /**
+   * Creates a child bus which mirrors all subscriptions of this bus.
+   *
+   * Events which are posted to the child are received by the handlers of this bus as well as the
+   * handlers which have been subscribed to the child directly. The child maintains its own
+   * dispatch tables and may thus be posted to on a dedicated thread without contending with posts
+   * to this bus or its other children. Changes to the subscriptions of this bus are picked up by
+   * the child upon its next post. The hand-off queues of the child are drained exclusively by
+   * the root bus on the server's main thread (see [drainMainThreadQueue] and [drainDeferred]).
+   *
+   * Children share the asynchronous worker pool, statistics and watchdog of their parent. Handlers
+   * which are quarantined within a child are listed (and may be released) through its parent
+   * (see [getQuarantined]).
+   *
+   * @return a child bus.
+   */
+  fun createChild(): EventBusImpl {
+    val child = EventBusImpl(this, this.statistics, this.watchdog, 0, 0, this.mainQueueCapacity,
+        this.fuse)
+    synchronized(this.children) {
+      this.children += child
+    }
+
+    return child
+  }
+
+  /**
+   * Retrieves a snapshot of the children of this bus which are still referenced.
+   *
+   * @return a list of child buses.
+   */
+  private fun children() = synchronized(this.children) { this.children.toList() }
+
+  /**
+   * Selects a recorder which receives all events which are posted to this bus from outside of
+   * an event handler (or null to disable recording).
+   *
+   * Replayed events (see [replay]) are never recorded. Pending records are published to the
+   * recording at the beginning of each tick (see [drainMainThreadQueue]).
+   */
+  @Volatile
+  var recorder: EventRecorder? = null
+
+  /**
+   * Passes an event to the current recorder (if any) unless it is posted from within a handler
+   * (as it will be posted again by the handler when the recording is replayed).
+   *
+   * @param slot the post slot of the calling thread.
+   * @param event an event.
+   */
+  private fun record(slot: PostTracker.Slot, event: Event<*>) {
+    val recorder = this.recorder
+    if (recorder != null && slot.depth == 1) {
+      recorder.record(event)
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun <E : Event<S>, S : Any> post(event: E): S {
+    val slot = this.tracker.enter()
+    try {
+      this.record(slot, event)
+      return this.post(slot, event, this.getHandlers(event.javaClass))
+    } finally {
+      this.tracker.exit(slot)
+    }
+  }
+
+  /**
+   * Passes an event through the handlers of a given dispatch table.
+   *
+   * @param slot the post slot of the calling thread.
+   * @param event an event.
+   * @param table the dispatch table of the event type.
+   * @return the resulting event state.
+   */
+  private fun <E : Event<S>, S : Any> post(slot: PostTracker.Slot, event: E,
+      table: DispatchTable): S {
+    val ctx = EventContextImpl(event)
+
+    val dispatcher = table.dispatcher ?: this.fuse(table)
+    if (dispatcher != null) {
+      dispatcher.dispatch(ctx)
+      return ctx.state
+    }
+
+    val handlers = table.handlers
+
+    val indexCount = table.indexCount
+    val frame = if (indexCount == 0) NO_FRAME else slot.frame(indexCount)
+    val matches = frame.matches
+    val cursors = frame.cursors
+    table.lookup(event, matches)
+
+    var next = 0
+    var changed: Boolean
+    do {
+      val state = ctx.state
+      val segmentId = DispatchTable.segmentOf(state, ctx.defaultState)
+      val segment = table.segment(segmentId)
+      var position = table.seek(segment, next)
+      for (i in 0 until indexCount) {
+        cursors[i] = table.seek(matches[i], next)
+      }
+      changed = false
+
+      // merge the state segment with the indexed handlers which expect the event's field values
+      // until all are exhausted or a handler alters the state in which case the segment is
+      // re-selected and the walk resumes past the last visited handler
+      while (!changed) {
+        var index = if (position < segment.size) segment[position] else Int.MAX_VALUE
+        var source = -1
+        for (i in 0 until indexCount) {
+          val cursor = cursors[i]
+          if (cursor < matches[i].size && matches[i][cursor] < index) {
+            index = matches[i][cursor]
+            source = i
+          }
+        }
+
+        if (index == Int.MAX_VALUE) {
+          break
+        }
+        if (source == -1) {
+          ++position
+        } else {
+          ++cursors[source]
+        }
+        next = index + 1
+
+        val handler = handlers[index]
+        if (source != -1 && !DispatchTable.matches(handler.receiveState, segmentId)) {
+          continue
+        }
+
+        if (handler.accepts(ctx)) {
+          this.invoke(table.subscriptions[index], handler, ctx)
+          changed = ctx.state != state
+        }
+      }
+    } while (changed)
+
+    return ctx.state
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun <E : Event<S>, S : Any> postAll(events: Collection<E>): List<S> {
+    val states = arrayOfNulls<Any>(events.size)
+    this.postAll(events, states)
+
+    @Suppress("UNCHECKED_CAST")
+    return states.asList() as List<S>
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun <E : Event<S>, S : Any> postAll(events: Collection<E>, states: Array<in S>) {
+    if (states.size < events.size) {
+      throw IllegalArgumentException(
+          "Illegal state array: Expected at least " + events.size + " elements but got "
+              + states.size)
+    }
+
+    val list = if (events is List<E> && events is RandomAccess) events else events.toList()
+    list.forEachIndexed { i, event -> states[i] = event.defaultState }
+
+    val slot = this.tracker.enter()
+    try {
+      list.forEach { this.record(slot, it) }
+
+      var start = 0
+      while (start < list.size) {
+        val eventType = list[start].javaClass
+
+        var end = start + 1
+        while (end < list.size && list[end].javaClass == eventType) {
+          ++end
+        }
+
+        this.postAll(list, states, start, end, this.getHandlers(eventType))
+        start = end
+      }
+    } finally {
+      this.tracker.exit(slot)
+    }
+  }
+
+  /**
+   * Passes a run of events of the same type through their respective handlers.
+   *
+   * @param events a list of events.
+   * @param states an array of current event states.
+   * @param start the index of the first event within the run.
+   * @param end the index of the first event past the run.
+   * @param table the dispatch table of the event type.
+   */
+  private fun <E : Event<S>, S : Any> postAll(events: List<E>, states: Array<in S>, start: Int,
+      end: Int, table: DispatchTable) {
+    val ctx = EventContextImpl(events[start])
+
+    for ((index, handler) in table.handlers.withIndex()) {
+      val subscription = table.subscriptions[index]
+
+      for (i in start until end) {
+        @Suppress("UNCHECKED_CAST")
+        ctx.rebind(events[i], states[i] as S)
+
+        if (handler.accepts(ctx)) {
+          this.invoke(subscription, handler, ctx)
+          states[i] = ctx.state
+        }
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun <E : StatelessEvent> postAsync(event: E): CompletableFuture<Unit> {
+    val ctx = EventContextImpl(event)
+    val table: DispatchTable
+    var pending: MutableMap<EventLane, MutableList<Int>>? = null
+
+    val slot = this.tracker.enter()
+    try {
+      this.record(slot, event)
+      table = this.getHandlers(event.javaClass)
+
+      for ((index, handler) in table.handlers.withIndex()) {
+        if (!handler.accepts(ctx)) {
+          continue
+        }
+
+        val subscription = table.subscriptions[index]
+        val lane = subscription.lane
+        if (!handler.async || lane == null) {
+          this.invoke(subscription, handler, ctx)
+          continue
+        }
+
+        pending = pending ?: LinkedHashMap()
+        pending.computeIfAbsent(lane) { mutableListOf() } += index
+      }
+    } finally {
+      this.tracker.exit(slot)
+    }
+
+    if (pending == null) {
+      return CompletableFuture.completedFuture(Unit)
+    }
+
+    val futures = pending.map { (lane, indices) ->
+      try {
+        CompletableFuture.runAsync(Runnable {
+          val laneSlot = this.tracker.enter()
+          try {
+            indices.forEach { this.invoke(table.subscriptions[it], table.handlers[it], ctx) }
+          } finally {
+            this.tracker.exit(laneSlot)
+          }
+        }, lane)
+      } catch (ex: RejectedExecutionException) {
+        this.reject("Asynchronous event lane", event)
+
+        val future = CompletableFuture<Void>()
+        future.completeExceptionally(ex)
+        future
+      }
+    }
+
+    return CompletableFuture.allOf(*futures.toTypedArray())
+        .thenApply { Unit }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun postOnMainThread(event: Event<*>): Boolean {
+    if (this.mainQueue.offer(event)) {
+      return true
+    }
+
+    this.reject("Main thread event queue", event)
+    return false
+  }
+
+  /**
+   * Records the rejection of an event by a saturated hand-off queue.
+   *
+   * In order to not flood the log while a queue remains saturated, rejections are reported at
+   * most once per [REJECTION_REPORT_INTERVAL].
+   *
+   * @param queue a human readable description of the rejecting queue.
+   * @param event the rejected event.
+   */
+  private fun reject(queue: String, event: Event<*>) {
+    val count = this.statistics.reject()
+
+    val now = System.nanoTime()
+    val last = this.lastRejectionReport.get()
+    if (now - last >= REJECTION_REPORT_INTERVAL &&
+        this.lastRejectionReport.compareAndSet(last, now)) {
+      logger.warn("%s is saturated: Rejected %s (%d rejections in total)", queue,
+          event.javaClass.name, count)
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun postDeferred(event: Event<*>): Boolean {
+    if (this.coalescer.offer(event)) {
+      return true
+    }
+
+    this.reject("Deferred event queue", event)
+    return false
+  }
+
+  /**
+   * Posts all events which have been deferred to the end of the current tick to this bus and its
+   * children (in that order).
+   *
+   * The queues of a child bus are exclusively drained by its root bus as each queue permits only
+   * a single consumer. This method is thus only to be invoked on a root bus and exclusively by
+   * the server's main thread.
+   *
+   * @return the amount of posted events.
+   * @throws IllegalStateException when invoked on a child bus.
+   */
+  fun drainDeferred(): Int {
+    this.checkRoot()
+    return this.drainDeferredTree()
+  }
+
+  /**
+   * Posts all events which have been deferred within this bus and its children.
+   *
+   * @return the amount of posted events.
+   */
+  private fun drainDeferredTree(): Int {
+    @Suppress("UNCHECKED_CAST")
+    val count = this.coalescer.drain(Consumer { this.post(it as Event<Any>) })
+    return count + this.children().sumBy { it.drainDeferredTree() }
+  }
+
+  /**
+   * Posts all events which have been handed off to the main thread of this bus and its children
+   * (in that order) prior to this call.
+   *
+   * The state of closed subscriptions whose grace period has elapsed is additionally released
+   * (see [PostTracker.reclaim]). Like [drainDeferred], this method is only to be invoked on a root
+   * bus and exclusively by the server's main thread.
+   *
+   * @return the amount of posted events.
+   * @throws IllegalStateException when invoked on a child bus.
+   */
+  fun drainMainThreadQueue(): Int {
+    this.checkRoot()
+    this.tracker.reclaim()
+    return this.drainMainThreadQueueTree()
+  }
+
+  /**
+   * Posts all events which have been handed off to the main thread of this bus and its children.
+   *
+   * @return the amount of posted events.
+   */
+  private fun drainMainThreadQueueTree(): Int {
+    this.recorder?.flush()
+
+    @Suppress("UNCHECKED_CAST")
+    val count = if (this.mainQueue.size == 0) 0 else this.mainQueue.drain(Consumer {
+      if (it is ReplayedEvent) {
+        this.postReplayed(it.event as Event<Any>)
+      } else {
+        this.post(it as Event<Any>)
+      }
+    })
+    return count + this.children().sumBy { it.drainMainThreadQueueTree() }
+  }
+
+  /**
+   * Ensures that this bus is a root bus (e.g. the sole consumer of its own and its children's
+   * hand-off queues).
+   *
+   * @throws IllegalStateException when this bus is a child bus.
+   */
+  private fun checkRoot() {
+    if (this.parent != null) {
+      throw IllegalStateException("Child buses are drained by their root bus")
+    }
+  }
+
+  /**
+   * Hands a replayed event off to the server's main thread where it is posted at the beginning
+   * of the next server tick without being passed to the recorder (see [EventReplay]).
+   *
+   * Unlike [postOnMainThread], saturation of the hand-off queue is not counted as a rejection as
+   * replays are expected to retry.
+   *
+   * @param event a replayed event.
+   * @return true if the event has been accepted, false if the hand-off queue is currently full.
+   */
+  fun replay(event: Event<*>) = this.mainQueue.offer(ReplayedEvent(event))
+
+  /**
+   * Posts a replayed event on the calling thread without passing it to the recorder.
+   *
+   * @param event a replayed event.
+   */
+  private fun <S : Any> postReplayed(event: Event<S>) {
+    val slot = this.tracker.enter()
+    try {
+      this.post(slot, event, this.getHandlers(event.javaClass))
+    } finally {
+      this.tracker.exit(slot)
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Pending activation handlers (see [ActivationEventHandler]) are considered subscribers but are
+   * not activated by this method as the activation is only performed when an event is posted.
+   */
+  override fun hasSubscribers(eventType: Class<out Event<*>>): Boolean {
+    val table = this.currentRegistry().getTable(eventType)
+    return !table.isEmpty || table.activators.isNotEmpty()
+  }
+
+  /**
+   * Invokes a handler (unless its subscription has been closed in the meantime) and logs any
+   * failures it may raise.
+   *
+   * When sampling is enabled, the invocation duration is additionally recorded with the bus
+   * statistics and passed to the watchdog.
+   *
+   * @param subscription the subscription which registered the handler.
+   * @param handler an event handler.
+   * @param ctx an event context.
+   */
+  private fun invoke(subscription: SubscriptionImpl, handler: EventHandler,
+      ctx: EventContext<*, *>) {
+    if (subscription.isClosed) {
+      return
+    }
+
+    if (!this.isTimed()) {
+      this.invokeUntimed(handler, ctx)
+      return
+    }
+
+    val start = System.nanoTime()
+    val watch = this.watchdog.takeIf { it.enabled }?.enter(handler, start)
+    try {
+      this.invokeUntimed(handler, ctx)
+    } finally {
+      this.complete(subscription, handler, start, watch)
+    }
+  }
+
+  /**
+   * Evaluates whether handler invocations are currently to be timed.
+   *
+   * @return true if timing is required, false otherwise.
+   */
+  private fun isTimed() = this.statistics.enabled || this.watchdog.enabled
+
+  /**
+   * Records the duration of a completed handler invocation and quarantines the handler when
+   * requested by the watchdog.
+   *
+   * @param subscription the subscription which registered the handler.
+   * @param handler an event handler.
+   * @param start the start time of the invocation (as given by [System.nanoTime]).
+   * @param watch the watch which has been acquired for the invocation (if any).
+   */
+  private fun complete(subscription: SubscriptionImpl, handler: EventHandler, start: Long,
+      watch: HandlerWatchdog.Watch?) {
+    val end = System.nanoTime()
+    if (this.statistics.enabled) {
+      this.statistics.record(handler, end - start)
+    }
+
+    if (watch != null) {
+      this.watchdog.exit(watch, handler, start, end)
+          ?.let { this.quarantine(subscription, handler, it) }
+    }
+  }
+
+  /**
+   * Applies a watchdog policy to a given handler.
+   *
+   * @param subscription the subscription which registered the handler.
+   * @param handler an event handler.
+   * @param policy a policy.
+   */
+  private fun quarantine(subscription: SubscriptionImpl, handler: EventHandler,
+      policy: HandlerWatchdog.Policy) {
+    val substitute = when (policy) {
+      HandlerWatchdog.Policy.LOG -> return
+      HandlerWatchdog.Policy.ASYNC -> OffloadedEventHandler(handler, Consumer { event ->
+        try {
+          this.getLane(handler.owner).execute {
+            val slot = this.tracker.enter()
+            try {
+              this.invoke(subscription, handler, EventContextImpl(event))
+            } finally {
+              this.tracker.exit(slot)
+            }
+          }
+        } catch (ex: RejectedExecutionException) {
+          this.reject("Asynchronous event lane", event)
+        }
+      })
+      HandlerWatchdog.Policy.DISABLE -> null
+    }
+
+    val owner = subscription.bus as EventBusImpl
+    owner.lock.lock()
+    try {
+      if (!subscription.isClosed) {
+        owner.registry = owner.registry.withQuarantine(handler, substitute)
+      }
+    } finally {
+      owner.lock.unlock()
+    }
+  }
+
+  /**
+   * Retrieves the handlers which are currently quarantined by the watchdog within this bus or
+   * any of its children.
+   *
+   * @return a list of handlers.
+   */
+  fun getQuarantined(): List<EventHandler> =
+      this.registry.quarantined.toList() + this.children().flatMap { it.getQuarantined() }
+
+  /**
+   * Releases a handler from quarantine (e.g. it will be invoked on the posting thread again).
+   *
+   * Handlers which have been quarantined within a child of this bus are released from the
+   * respective child.
+   *
+   * @param handler a quarantined handler.
+   * @return true if the handler has been released, false if it was not quarantined.
+   */
+  fun release(handler: EventHandler): Boolean =
+      this.releaseLocal(handler) || this.children().any { it.release(handler) }
+
+  /**
+   * Releases a handler from the quarantine of this bus.
+   *
+   * @param handler a quarantined handler.
+   * @return true if the handler has been released, false if it was not quarantined.
+   */
+  private fun releaseLocal(handler: EventHandler): Boolean {
+    this.lock.lock()
+    try {
+      if (handler !in this.registry.quarantined) {
+        return false
+      }
+
+      this.registry = this.registry.withoutQuarantine(handler)
+    } finally {
+      this.lock.unlock()
+    }
+
+    this.watchdog.reset(handler)
+    return true
+  }
+
+  /**
+   * Wraps the invocation handle of a handler within a fused dispatcher in order to apply the
+   * same semantics as [invoke].
+   *
+   * The resulting handle is composed of method handle combinators (rather than a shared helper
+   * method) as the JIT will only inline the handler into the call site of the dispatcher when
+   * the entire path leading to it is specific to the handler.
+   *
+   * @param subscription the subscription which registered the handler.
+   * @param handler an event handler.
+   * @param target a handle of type `(EventContext)void` which invokes the handler.
+   * @return a handle of type `(EventContext)void`.
+   */
+  private fun bindDirect(subscription: SubscriptionImpl, handler: EventHandler,
+      target: MethodHandle): MethodHandle {
+    val untimed = MethodHandles.catchException(target, Throwable::class.java,
+        MethodHandles.insertArguments(this.reportFailureHandle, 0, handler))
+    val timed = MethodHandles.insertArguments(this.invokeTimedHandle, 0, subscription, handler,
+        target)
+
+    val body = MethodHandles.guardWithTest(
+        MethodHandles.dropArguments(this.timingEnabledHandle, 0, EventContext::class.java),
+        timed, untimed)
+    return MethodHandles.guardWithTest(
+        MethodHandles.dropArguments(isClosedHandle.bindTo(subscription), 0,
+            EventContext::class.java),
+        MethodHandles.empty(InlinableEventHandler.INVOKE_TYPE), body)
+  }
+
+  /**
+   * Invokes a handler handle while recording its invocation duration.
+   *
+   * @param subscription the subscription which registered the handler.
+   * @param handler an event handler.
+   * @param target a handle of type `(EventContext)void` which invokes the handler.
+   * @param ctx an event context.
+   */
+  private fun invokeTimed(subscription: SubscriptionImpl, handler: EventHandler,
+      target: MethodHandle, ctx: EventContext<*, *>) {
+    val start = System.nanoTime()
+    val watch = this.watchdog.takeIf { it.enabled }?.enter(handler, start)
+    try {
+      ExactHandles.invoke(target, ctx)
+    } catch (ex: Throwable) {
+      this.reportFailure(handler, ex, ctx)
+    } finally {
+      this.complete(subscription, handler, start, watch)
+    }
+  }
+
+  /**
+   * Reports the failure of a handler.
+   *
+   * @param handler an event handler.
+   * @param ex the exception which was raised by the handler.
+   * @param ctx an event context.
+   */
+  private fun reportFailure(handler: EventHandler, ex: Throwable, ctx: EventContext<*, *>) {
+    logger.error("Handler " + handler + " failed to handle event " + ctx.event.javaClass.name, ex)
+  }
+
+  /**
+   * Generates a fused dispatcher for a given table once it has received a sufficient amount of
+   * posts.
+   *
+   * @param table a dispatch table.
+   * @return a dispatcher or null if the table is not (yet) to be fused.
+   */
+  private fun fuse(table: DispatchTable): FusedDispatcher? {
+    if (!this.fuse || !table.countPost()) {
+      return null
+    }
+
+    try {
+      val dispatcher = FusedDispatcherFactory.create(table) { index, target ->
+        this.bindDirect(table.subscriptions[index], table.handlers[index], target)
+      }
+
+      table.dispatcher = dispatcher
+      return dispatcher
+    } catch (ex: Throwable) {
+      logger.warn("Cannot generate dispatcher for event %s - Falling back to table walk",
+          table.eventType.name, ex)
+      return null
+    }
+  }
+
+  /**
+   * Invokes a handler without recording its invocation duration.
+   *
+   * @param handler an event handler.
+   * @param ctx an event context.
+   */
+  private fun invokeUntimed(handler: EventHandler, ctx: EventContext<*, *>) {
+    try {
+      handler(ctx)
+    } catch (ex: Throwable) {
+      this.reportFailure(handler, ex, ctx)
+    }
+  }
+
+  /**
+   * Retrieves the asynchronous execution lane for a given handler owner.
+   *
+   * @param owner a class loader.
+   * @return an execution lane.
+   */
+  private fun getLane(owner: ClassLoader?) = this.lanes
+      .computeIfAbsent(owner) { EventLane(this.executor, this.laneCapacity) }
+
+  /**
+   * Shuts down the asynchronous worker pool while permitting already queued handlers to complete.
+   */
+  override fun destroy() {
+    if (this.parent != null) {
+      return
+    }
+
+    this.executor.shutdown()
+
+    try {
+      if (!this.executor.awaitTermination(5, TimeUnit.SECONDS)) {
+        logger.warn("Asynchronous event handlers did not complete within 5 seconds")
+      }
+    } catch (ex: InterruptedException) {
+      Thread.currentThread().interrupt()
+    }
+  }
+
+  /**
+   * Retrieves the handler table for a given concrete event type.
+   *
+   * When the table refers to pending activation handlers (see [ActivationEventHandler]), their
+   * activation is performed first and the table is retrieved again in order to include all
+   * handlers which have been subscribed as part of the activation.
+   *
+   * @param eventType an event type.
+   * @return a dispatch table.
+   */
+  internal fun getHandlers(eventType: Class<out Event<*>>): DispatchTable {
+    val table = this.currentRegistry().getTable(eventType)
+    if (table.activators.isEmpty()) {
+      return table
+    }
+
+    table.activators.forEach(ActivationEventHandler::activate)
+    return this.currentRegistry().getTable(eventType)
+  }
+
+  /**
+   * Retrieves the current registry snapshot of this bus.
+   *
+   * When the registry of the parent bus has been replaced since the snapshot of this bus was
+   * created, the snapshot is re-based on the current parent snapshot.
+   *
+   * @return a registry snapshot.
+   */
+  private fun currentRegistry(): HandlerRegistry {
+    val registry = this.registry
+    val parent = this.parent ?: return registry
+    if (registry.parent === parent.currentRegistry()) {
+      return registry
+    }
+
+    this.lock.lock()
+    try {
+      val current = this.registry
+      val parentRegistry = parent.currentRegistry()
+      if (current.parent !== parentRegistry) {
+        this.registry = current.withParent(parentRegistry)
+      }
+
+      return this.registry
+    } finally {
+      this.lock.unlock()
+    }
+  }
+
+  /**
+   * Registers a set of handlers as a single subscription.
+   *
+   * @param handlers a list of handlers.
+   * @return a subscription.
+   */
+  private fun subscribe(handlers: List<EventHandler>): Subscription {
+    val lane = handlers.firstOrNull(EventHandler::async)?.let { this.getLane(it.owner) }
+    val subscription = SubscriptionImpl(this, handlers, lane)
+
+    this.lock.lock()
+    try {
+      this.registry = this.registry.with(subscription)
+    } finally {
+      this.lock.unlock()
+    }
+
+    return subscription
+  }
+
+  /**
+   * Removes all handlers of a given subscription from this bus.
+   *
+   * This method never blocks. Invocations which are in progress on other threads are not awaited
+   * while the statistics and watchdog state of the handlers are released once all posts which may
+   * still observe them have completed.
+   *
+   * @param subscription a subscription.
+   */
+  internal fun unsubscribe(subscription: SubscriptionImpl) {
+    this.lock.lock()
+    try {
+      this.registry = this.registry.without(subscription)
+    } finally {
+      this.lock.unlock()
+    }
+
+    this.tracker.retire {
+      this.statistics.remove(subscription.handlers)
+      subscription.handlers.forEach(this.watchdog::reset)
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun subscribe(handler: EventHandler) = this.subscribe(listOf(handler))
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun subscribe(listener: Any): Subscription {
+    val handlers = ReflectionUtils.getUniqueDeclaredMethods(listener.javaClass)
+        .filter { !it.isBridge && !it.isSynthetic }
+        .filter { AnnotationUtils.findAnnotation(it, Subscribe::class.java) != null }
+        .map { MethodEventHandler(listener, it) }
+
+    return this.subscribe(handlers)
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun <E : Event<*>> subscribe(eventClass: Class<E>, runnable: Runnable) =
+      this.subscribe(FunctionalEventHandler(eventClass, Consumer { runnable.run() }))
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun <E : Event<*>> subscribe(eventClass: Class<E>, consumer: Consumer<E>) =
+      this.subscribe(FunctionalEventHandler(eventClass, consumer))
+
+  /**
+   * Marks replayed events within the main thread hand-off queue.
+   */
+  private class ReplayedEvent(val event: Event<*>)
+
+  companion object {
+
+    private val NO_FRAME = DispatchFrame()
+
+    /**
+     * Defines the minimum interval (in nanoseconds) between two reports of rejected events.
+     */
+    private val REJECTION_REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(10)
+
+    /**
+     * Creates the asynchronous worker pool of a root bus.
+     *
+     * The work queue of the pool is not bounded as each lane occupies at most a single entry
+     * within it at a time while the lanes themselves are bounded instead (see [EventLane]).
+     *
+     * @param threads the amount of worker threads or zero to select an amount based on the
+     * available processors.
+     * @return an executor.
+     */
+    private fun createExecutor(threads: Int): ThreadPoolExecutor {
+      val poolSize = if (threads > 0) {
+        threads
+      } else {
+        (Runtime.getRuntime().availableProcessors() / 2).coerceAtLeast(1)
+      }
+
+      val threadCount = AtomicInteger()
+      val executor = ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+          LinkedBlockingQueue(),
+          ThreadFactory { r ->
+            val thread = Thread(r, "basin-event-worker-${threadCount.incrementAndGet()}")
+            thread.isDaemon = true
+            thread
+          })
+      executor.allowCoreThreadTimeOut(true)
+      return executor
+    }
+
+    private val isClosedHandle = MethodHandles.publicLookup()
+        .findVirtual(SubscriptionImpl::class.java, "isClosed",
+            MethodType.methodType(Boolean::class.javaPrimitiveType))
+
+    private val logger = LogManager.getFormatterLogger(EventBusImpl::class.java)
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.basinmc.faucet.event.Coalesce
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.internal.util.ExactHandles
+import org.springframework.beans.BeanUtils
+import org.springframework.core.annotation.AnnotationUtils
+import org.springframework.util.ReflectionUtils
+import java.lang.invoke.MethodHandles
+import java.util.function.Consumer
+import java.util.function.Function
+
+/**
+ * Collects the events which are deferred to the end of a tick and collapses events which share
+ * the same coalescing key (see [Coalesce]) into their most recent instance.
+ *
+ * Pending events are kept in insertion order of their respective keys. When an event supersedes a
+ * pending event, it takes over its position within the tick rather than being appended. The
+ * amount of distinct pending keys is bounded by a fixed capacity beyond which new keys are
+ * rejected (superseding events are always accepted as they do not grow the set of pending
+ * events).
+ *
+ * Concurrency: Events may be deferred from any thread while [drain] is only to be invoked by a
+ * single thread at a time.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal class EventCoalescer(
+
+    /**
+     * Retrieves the maximum amount of events which may be pending at once.
+     */
+    val capacity: Int) {
+
+  private var pending = LinkedHashMap<Any, Event<*>>()
+
+  init {
+    if (capacity <= 0) {
+      throw IllegalArgumentException(
+          "Illegal coalescer capacity: Expected a positive value but got " + capacity)
+    }
+  }
+
+  /**
+   * Defers an event until the next call to [drain].
+   *
+   * @param event an event.
+   * @return true if the event has been accepted, false if the maximum amount of pending events
+   * has been reached and the event does not supersede a pending event.
+   * @throws IllegalArgumentException when the event type declares an invalid coalescing key.
+   */
+  fun offer(event: Event<*>): Boolean {
+    val extractor = keyExtractors.get(event.javaClass)
+    val key = if (extractor == null) Any() else Key(event.javaClass, extractor.apply(event))
+
+    synchronized(this) {
+      if (this.pending.size >= this.capacity && !this.pending.containsKey(key)) {
+        return false
+      }
+
+      this.pending[key] = event
+    }
+
+    return true
+  }
+
+  /**
+   * Removes all events which have been deferred prior to this call and passes them to the
+   * specified consumer in their respective order.
+   *
+   * @param consumer a consumer which receives each event.
+   * @return the amount of consumed events.
+   */
+  fun drain(consumer: Consumer<in Event<*>>): Int {
+    val events = synchronized(this) {
+      if (this.pending.isEmpty()) {
+        return 0
+      }
+
+      val events = this.pending
+      this.pending = LinkedHashMap()
+      events
+    }
+
+    events.values.forEach(consumer)
+    return events.size
+  }
+
+  /**
+   * Identifies a set of events which supersede each other.
+   */
+  private data class Key(val type: Class<*>, val value: Any?)
+
+  companion object {
+
+    /**
+     * Caches the key extractor of each event type (or null when a type does not coalesce).
+     *
+     * Extractors invoke an accessor handle through its exact signature (see [ExactHandles]) in
+     * order to permit the JIT to inline the access rather than reflecting on every deferral.
+     */
+    private val keyExtractors = object : ClassValue<Function<Event<*>, Any?>?>() {
+      override fun computeValue(type: Class<*>): Function<Event<*>, Any?>? {
+        val annotation = AnnotationUtils.findAnnotation(type, Coalesce::class.java) ?: return null
+        val lookup = MethodHandles.lookup()
+
+        val getter = BeanUtils.getPropertyDescriptor(type, annotation.key)?.readMethod
+        val accessor = if (getter != null) {
+          ReflectionUtils.makeAccessible(getter)
+          lookup.unreflect(getter)
+        } else {
+          val field = ReflectionUtils.findField(type, annotation.key)
+              ?: throw IllegalArgumentException("Illegal coalescing key: Event ${type.name} " +
+                  "does not declare property \"${annotation.key}\"")
+          ReflectionUtils.makeAccessible(field)
+          lookup.unreflectGetter(field)
+        }
+
+        return ExactHandles.extractor(accessor, "coalescing key")
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.EventContext
+import org.basinmc.faucet.util.State
+
+/**
+ * Provides a mutable execution context which is passed through all handlers of a single post.
+ *
+ * Batch posts may re-use a single context for multiple events (see [rebind]) and as such handlers
+ * must not retain references to a context beyond their invocation.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class EventContextImpl<E : Event<S>, S>(event: E) : EventContext<E, S> {
+
+  /**
+   * {@inheritDoc}
+   */
+  override var event: E = event
+    private set
+
+  /**
+   * {@inheritDoc}
+   */
+  override var defaultState: S = event.defaultState
+    private set
+
+  /**
+   * {@inheritDoc}
+   */
+  override var state: S = this.defaultState
+    set(value) {
+      if (value == State.WILDCARD) {
+        throw IllegalArgumentException("Cannot set event state to WILDCARD")
+      }
+
+      field = if (value == State.DEFAULT) this.defaultState else value
+    }
+
+  /**
+   * Re-targets this context at a different event.
+   *
+   * @param event an event.
+   * @param state the current state of the event.
+   */
+  internal fun rebind(event: E, state: S) {
+    this.event = event
+    this.defaultState = event.defaultState
+    this.state = state
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Provides an executor which serializes its tasks on top of a shared executor.
+ *
+ * Tasks are executed in their submission order and never concurrently with each other while
+ * tasks of distinct lanes may execute in parallel on the backing executor. Each lane accepts a
+ * limited amount of pending tasks beyond which further tasks are rejected (rather than executed
+ * on the submitting thread).
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal class EventLane(private val executor: Executor, private val capacity: Int) : Executor {
+
+  private val tasks = ConcurrentLinkedQueue<Runnable>()
+  private val pending = AtomicInteger()
+  private val scheduled = AtomicBoolean()
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws RejectedExecutionException when the lane is saturated or the backing executor has
+   * been shut down.
+   */
+  override fun execute(command: Runnable) {
+    if (this.pending.incrementAndGet() > this.capacity) {
+      this.pending.decrementAndGet()
+      throw RejectedExecutionException("Event lane is saturated")
+    }
+
+    this.tasks += command
+    try {
+      this.schedule()
+    } catch (ex: RejectedExecutionException) {
+      if (this.tasks.remove(command)) {
+        this.pending.decrementAndGet()
+      }
+      throw ex
+    }
+  }
+
+  /**
+   * Schedules the execution of this lane on the backing executor (unless it is already scheduled
+   * or running).
+   */
+  private fun schedule() {
+    if (!this.scheduled.compareAndSet(false, true)) {
+      return
+    }
+
+    try {
+      this.executor.execute(this::drain)
+    } catch (ex: RejectedExecutionException) {
+      this.scheduled.set(false)
+      throw ex
+    }
+  }
+
+  /**
+   * Executes a batch of queued tasks and reschedules this lane if further tasks remain (thus
+   * permitting other lanes to make progress in the meantime).
+   */
+  private fun drain() {
+    try {
+      for (i in 0 until BATCH_SIZE) {
+        val task = this.tasks.poll() ?: break
+        this.pending.decrementAndGet()
+        task.run()
+      }
+    } finally {
+      this.scheduled.set(false)
+      if (!this.tasks.isEmpty()) {
+        this.schedule()
+      }
+    }
+  }
+
+  companion object {
+
+    /**
+     * Defines the maximum amount of tasks which are executed before a lane yields its thread.
+     */
+    private const val BATCH_SIZE = 64
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.basinmc.faucet.event.EventStatistics
+import org.basinmc.faucet.event.EventStatistics.HandlerStatistics
+import org.basinmc.faucet.event.handler.EventHandler
+import org.basinmc.faucet.extension.Extension
+import org.basinmc.faucet.extension.ExtensionHelper
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Service
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Records per-handler invocation latencies for the event bus.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+@Service
+class EventStatisticsImpl @Autowired constructor(
+    private val extensionHelper: ExtensionHelper?) : EventStatistics {
+
+  private val histograms = ConcurrentHashMap<EventHandler, LatencyHistogram>()
+  private val rejected = AtomicLong()
+
+  constructor() : this(null)
+
+  /**
+   * {@inheritDoc}
+   */
+  @Volatile
+  override var enabled: Boolean = false
+
+  /**
+   * {@inheritDoc}
+   */
+  override val handlers: List<HandlerStatistics>
+    get() = this.histograms.map { (handler, histogram) ->
+      HandlerStatisticsImpl(handler, this.extensionHelper?.getExtension(handler.owner), histogram)
+    }
+
+  /**
+   * {@inheritDoc}
+   */
+  override val rejections: Long
+    get() = this.rejected.get()
+
+  /**
+   * Records the rejection of an event (or asynchronous handler invocation).
+   *
+   * @return the total amount of rejections.
+   */
+  fun reject() = this.rejected.incrementAndGet()
+
+  /**
+   * Records the duration of a single handler invocation.
+   *
+   * @param handler an event handler.
+   * @param nanos an invocation duration in nanoseconds.
+   */
+  fun record(handler: EventHandler, nanos: Long) {
+    this.histograms.computeIfAbsent(handler) { LatencyHistogram() }
+        .record(nanos)
+  }
+
+  /**
+   * Discards the statistics of a set of handlers (typically as they are unsubscribed).
+   *
+   * @param handlers a collection of handlers.
+   */
+  fun remove(handlers: Collection<EventHandler>) {
+    this.histograms.keys.removeAll(handlers)
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun reset() {
+    this.histograms.clear()
+    this.rejected.set(0)
+  }
+
+  /**
+   * Provides a view of the statistics of a single handler.
+   */
+  private class HandlerStatisticsImpl(
+      override val handler: EventHandler,
+      override val extension: Extension?,
+      private val histogram: LatencyHistogram) : HandlerStatistics {
+
+    /**
+     * {@inheritDoc}
+     */
+    override val invocations: Long
+      get() = this.histogram.count
+
+    /**
+     * {@inheritDoc}
+     */
+    override val totalTime: Long
+      get() = this.histogram.totalTime
+
+    /**
+     * {@inheritDoc}
+     */
+    override val maximumTime: Long
+      get() = this.histogram.maximumTime
+
+    /**
+     * {@inheritDoc}
+     */
+    override fun percentile(percentile: Double) = this.histogram.percentile(percentile)
+
+    override fun toString() = "HandlerStatistics{handler=${this.handler}}"
+  }
+}
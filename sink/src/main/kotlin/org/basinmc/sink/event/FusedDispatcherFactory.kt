@@ -0,0 +1,260 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.basinmc.faucet.event.EventContext
+import org.basinmc.faucet.event.handler.EventHandler
+import org.basinmc.sink.event.handler.InlinableEventHandler
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Label
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.Type
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Generates dispatchers which invoke all handlers of a dispatch table in their respective
+ * priority order.
+ *
+ * When many handlers share a single call site (as is the case when walking the handler array of
+ * a table), the call site quickly becomes megamorphic and the JIT ceases to inline the handlers.
+ * Generated dispatchers instead provide a separate call site per handler of which the target is
+ * a constant method handle that calls the handler implementation directly (see
+ * [InlinableEventHandler]). As a result, each call site remains monomorphic and may be inlined.
+ *
+ * Each dispatcher is defined within its own class loader in order to permit it to be unloaded
+ * once its table has been replaced.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal object FusedDispatcherFactory {
+
+  /**
+   * Defines the maximum amount of handlers within a fused dispatcher (larger dispatchers would
+   * exceed the size up to which the JIT is willing to compile a method).
+   */
+  const val MAX_HANDLERS = 64
+
+  /**
+   * Defines the amount of handlers which are invoked by a single generated method.
+   */
+  private const val CHUNK_SIZE = 16
+
+  private const val ALL_SEGMENTS = 0b111111
+
+  private val dispatcherType = Type.getType(FusedDispatcher::class.java)
+  private val handleType = Type.getType(MethodHandle::class.java)
+  private val contextType = Type.getType(EventContext::class.java)
+
+  private val acceptsHandle = MethodHandles.publicLookup()
+      .findVirtual(EventHandler::class.java, "accepts", InlinableEventHandler.FILTER_TYPE)
+  private val invokeHandle = MethodHandles.publicLookup()
+      .findVirtual(EventHandler::class.java, "invoke", InlinableEventHandler.INVOKE_TYPE)
+
+  private val counter = AtomicInteger()
+
+  /**
+   * Evaluates whether a dispatcher may be generated for a given table.
+   *
+   * @param table a dispatch table.
+   * @return true if supported, false otherwise.
+   */
+  fun isSupported(table: DispatchTable) =
+      !table.isEmpty && !table.isIndexed && table.handlers.size <= MAX_HANDLERS
+
+  /**
+   * Generates a dispatcher for a given table.
+   *
+   * @param table a dispatch table.
+   * @param bind a function which wraps the invocation handle of the handler at a given index
+   * within the table (for instance, in order to apply error handling).
+   * @return a dispatcher.
+   */
+  fun create(table: DispatchTable, bind: (Int, MethodHandle) -> MethodHandle): FusedDispatcher {
+    val handles = mutableListOf<MethodHandle>()
+    val sites = table.handlers.mapIndexed { index, handler ->
+      val filter = if (handler is InlinableEventHandler) {
+        handler.createFilterHandle()
+      } else {
+        acceptsHandle.bindTo(handler)
+      }
+      val target = if (handler is InlinableEventHandler) {
+        handler.createInvokeHandle()
+      } else {
+        invokeHandle.bindTo(handler)
+      }
+
+      val site = Site(
+          DispatchTable.segmentMask(handler.receiveState),
+          filter?.let { handles += it.asType(InlinableEventHandler.FILTER_TYPE); handles.size - 1 },
+          handles.size)
+      handles += bind(index, target.asType(InlinableEventHandler.INVOKE_TYPE))
+      site
+    }
+
+    val className = "${dispatcherType.internalName}\$\$${table.eventType.simpleName}\$${counter.incrementAndGet()}"
+    val bytes = this.generate(className, sites, handles.size)
+
+    FusedDispatcher.offer(handles.toTypedArray())
+    try {
+      val loader = DispatcherClassLoader(FusedDispatcher::class.java.classLoader)
+      return loader.define(className.replace('/', '.'), bytes)
+          .getDeclaredConstructor()
+          .newInstance() as FusedDispatcher
+    } finally {
+      // the handles are claimed during class initialization and thus will only remain when the
+      // class failed to initialize
+      FusedDispatcher.discard()
+    }
+  }
+
+  /**
+   * Generates the bytecode of a dispatcher.
+   */
+  private fun generate(className: String, sites: List<Site>, handleCount: Int): ByteArray {
+    val writer = ClassWriter(ClassWriter.COMPUTE_MAXS or ClassWriter.COMPUTE_FRAMES)
+    writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC or Opcodes.ACC_FINAL or Opcodes.ACC_SYNTHETIC,
+        className, null, dispatcherType.internalName, null)
+
+    for (i in 0 until handleCount) {
+      writer.visitField(Opcodes.ACC_PRIVATE or Opcodes.ACC_STATIC or Opcodes.ACC_FINAL, "h$i",
+          handleType.descriptor, null, null).visitEnd()
+    }
+
+    writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null).apply {
+      visitCode()
+      visitMethodInsn(Opcodes.INVOKESTATIC, dispatcherType.internalName, "handles",
+          "()[${handleType.descriptor}", false)
+      visitVarInsn(Opcodes.ASTORE, 0)
+      for (i in 0 until handleCount) {
+        visitVarInsn(Opcodes.ALOAD, 0)
+        visitLdcInsn(i)
+        visitInsn(Opcodes.AALOAD)
+        visitFieldInsn(Opcodes.PUTSTATIC, className, "h$i", handleType.descriptor)
+      }
+      visitInsn(Opcodes.RETURN)
+      visitMaxs(0, 0)
+      visitEnd()
+    }
+
+    writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null).apply {
+      visitCode()
+      visitVarInsn(Opcodes.ALOAD, 0)
+      visitMethodInsn(Opcodes.INVOKESPECIAL, dispatcherType.internalName, "<init>", "()V", false)
+      visitInsn(Opcodes.RETURN)
+      visitMaxs(0, 0)
+      visitEnd()
+    }
+
+    val segmentOfDescriptor = Type.getMethodDescriptor(Type.INT_TYPE, contextType)
+    val chunkDescriptor = Type.getMethodDescriptor(Type.INT_TYPE, contextType, Type.INT_TYPE)
+    val chunks = sites.withIndex().chunked(CHUNK_SIZE)
+
+    writer.visitMethod(Opcodes.ACC_PUBLIC, "dispatch",
+        Type.getMethodDescriptor(Type.VOID_TYPE, contextType), null, null).apply {
+      visitCode()
+
+      visitVarInsn(Opcodes.ALOAD, 1)
+      visitMethodInsn(Opcodes.INVOKESTATIC, dispatcherType.internalName, "segmentOf",
+          segmentOfDescriptor, false)
+      for (chunk in chunks.indices) {
+        visitVarInsn(Opcodes.ISTORE, 2)
+        visitVarInsn(Opcodes.ALOAD, 1)
+        visitVarInsn(Opcodes.ILOAD, 2)
+        visitMethodInsn(Opcodes.INVOKESTATIC, className, "dispatch$chunk", chunkDescriptor, false)
+      }
+      visitInsn(Opcodes.POP)
+
+      visitInsn(Opcodes.RETURN)
+      visitMaxs(0, 0)
+      visitEnd()
+    }
+
+    // handlers are split across multiple methods as the JIT will otherwise exhaust its inlining
+    // budget within the first few handlers of large tables
+    chunks.forEachIndexed { chunk, chunkSites ->
+      writer.visitMethod(Opcodes.ACC_PRIVATE or Opcodes.ACC_STATIC, "dispatch$chunk",
+          chunkDescriptor, null, null).apply {
+        visitCode()
+
+        // the segment of the current event state is kept in local 1 and is only re-evaluated
+        // when a subsequent handler depends on it
+        for ((index, site) in chunkSites) {
+          val skip = Label()
+
+          if (site.mask != ALL_SEGMENTS) {
+            visitLdcInsn(site.mask)
+            visitVarInsn(Opcodes.ILOAD, 1)
+            visitInsn(Opcodes.ISHR)
+            visitInsn(Opcodes.ICONST_1)
+            visitInsn(Opcodes.IAND)
+            visitJumpInsn(Opcodes.IFEQ, skip)
+          }
+
+          if (site.filter != null) {
+            visitFieldInsn(Opcodes.GETSTATIC, className, "h${site.filter}", handleType.descriptor)
+            visitVarInsn(Opcodes.ALOAD, 0)
+            visitMethodInsn(Opcodes.INVOKEVIRTUAL, handleType.internalName, "invokeExact",
+                InlinableEventHandler.FILTER_TYPE.toMethodDescriptorString(), false)
+            visitJumpInsn(Opcodes.IFEQ, skip)
+          }
+
+          visitFieldInsn(Opcodes.GETSTATIC, className, "h${site.target}", handleType.descriptor)
+          visitVarInsn(Opcodes.ALOAD, 0)
+          visitMethodInsn(Opcodes.INVOKEVIRTUAL, handleType.internalName, "invokeExact",
+              InlinableEventHandler.INVOKE_TYPE.toMethodDescriptorString(), false)
+
+          if (sites.subList(index + 1, sites.size).any { it.mask != ALL_SEGMENTS }) {
+            visitVarInsn(Opcodes.ALOAD, 0)
+            visitMethodInsn(Opcodes.INVOKESTATIC, dispatcherType.internalName, "segmentOf",
+                segmentOfDescriptor, false)
+            visitVarInsn(Opcodes.ISTORE, 1)
+          }
+
+          visitLabel(skip)
+        }
+
+        visitVarInsn(Opcodes.ILOAD, 1)
+        visitInsn(Opcodes.IRETURN)
+        visitMaxs(0, 0)
+        visitEnd()
+      }
+    }
+
+    writer.visitEnd()
+    return writer.toByteArray()
+  }
+
+  /**
+   * Describes the call site of a single handler within a dispatcher.
+   *
+   * @param mask a bit mask of the segments in which the handler receives events.
+   * @param filter the index of the filter handle (if any).
+   * @param target the index of the invocation handle.
+   */
+  private class Site(val mask: Int, val filter: Int?, val target: Int)
+
+  /**
+   * Provides a class loader which defines a single dispatcher.
+   */
+  private class DispatcherClassLoader(parent: ClassLoader?) : ClassLoader(parent) {
+
+    fun define(name: String, bytes: ByteArray): Class<*> =
+        this.defineClass(name, bytes, 0, bytes.size)
+  }
+}
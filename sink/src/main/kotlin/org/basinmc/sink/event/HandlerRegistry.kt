@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.handler.EventHandler
+import org.basinmc.sink.event.handler.ActivationEventHandler
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Represents an immutable snapshot of the subscriptions within a bus.
+ *
+ * Dispatch tables are derived from the snapshot on demand and are published through an atomic
+ * copy-on-write map. Concurrent posters may thus race to build the same table but will never
+ * block each other.
+ *
+ * Handlers which have been quarantined (see [HandlerWatchdog]) are either omitted from the tables
+ * or replaced with a substitute handler until they are released. Activation handlers (see
+ * [ActivationEventHandler]) are kept separate from the regular handlers of a table.
+ *
+ * Registries of child buses additionally refer to a snapshot of their parent registry whose
+ * handlers are mirrored into their tables. Since the parent snapshot is immutable, child registries
+ * are replaced (see [withParent]) when the parent registry changes.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal class HandlerRegistry private constructor(
+    private val subscriptions: List<SubscriptionImpl>,
+    private val quarantine: Map<EventHandler, EventHandler?>,
+    tables: Map<Class<*>, DispatchTable>,
+
+    /**
+     * Retrieves the parent snapshot whose handlers are mirrored into this registry (if any).
+     */
+    val parent: HandlerRegistry?) {
+
+  private val tables = AtomicReference(tables)
+
+  constructor(parent: HandlerRegistry? = null) : this(emptyList(), emptyMap(), emptyMap(), parent)
+
+  /**
+   * Retrieves the handlers which are currently quarantined.
+   */
+  val quarantined: Set<EventHandler>
+    get() = this.quarantine.keys
+
+  /**
+   * Retrieves the dispatch table for a given concrete event type.
+   *
+   * @param eventType an event type.
+   * @return a dispatch table.
+   */
+  fun getTable(eventType: Class<out Event<*>>): DispatchTable {
+    this.tables.get()[eventType]?.let { return it }
+
+    val table = this.buildTable(eventType)
+    while (true) {
+      val current = this.tables.get()
+      current[eventType]?.let { return it }
+
+      val updated = HashMap(current)
+      updated[eventType] = table
+      if (this.tables.compareAndSet(current, updated)) {
+        return table
+      }
+    }
+  }
+
+  /**
+   * Collects all handlers which accept a given event type in their respective priority order.
+   *
+   * @param eventType an event type.
+   * @return a dispatch table.
+   */
+  private fun buildTable(eventType: Class<out Event<*>>): DispatchTable {
+    val (activators, entries) = this.collect(eventType)
+        .sortedWith(Comparator { a, b -> a.first.compareTo(b.first) })
+        .partition { it.first is ActivationEventHandler }
+
+    return DispatchTable(eventType,
+        entries.map { it.first }.toTypedArray(),
+        entries.map { it.second }.toTypedArray(),
+        activators
+            .map { it.first as ActivationEventHandler }
+            .filter { !it.isSpent }
+            .toTypedArray())
+  }
+
+  /**
+   * Collects all handlers which accept a given event type along with their respective
+   * subscriptions (starting with the handlers of the parent registry).
+   *
+   * @param eventType an event type.
+   * @return a list of handlers and subscriptions.
+   */
+  private fun collect(eventType: Class<out Event<*>>): List<Pair<EventHandler, SubscriptionImpl>> {
+    val type = eventType.kotlin
+    val entries = this.subscriptions
+        .flatMap { subscription ->
+          subscription.handlers
+              .filter { it.accepts(type) }
+              .mapNotNull { handler ->
+                val substitute = if (handler in this.quarantine) {
+                  this.quarantine[handler]
+                } else {
+                  handler
+                }
+
+                substitute?.let { it to subscription }
+              }
+        }
+
+    return this.parent?.collect(eventType)?.plus(entries) ?: entries
+  }
+
+  /**
+   * Creates a new snapshot which additionally contains a given subscription.
+   *
+   * @param subscription a subscription.
+   * @return a snapshot.
+   */
+  fun with(subscription: SubscriptionImpl) =
+      HandlerRegistry(this.subscriptions + subscription, this.quarantine,
+          this.retainTables(subscription.handlers), this.parent)
+
+  /**
+   * Creates a new snapshot which no longer contains a given subscription.
+   *
+   * @param subscription a subscription.
+   * @return a snapshot.
+   */
+  fun without(subscription: SubscriptionImpl) =
+      HandlerRegistry(this.subscriptions - subscription, this.quarantine - subscription.handlers,
+          this.retainTables(subscription.handlers), this.parent)
+
+  /**
+   * Creates a new snapshot in which a given handler is quarantined.
+   *
+   * @param handler a handler.
+   * @param substitute a handler which is invoked in place of the quarantined handler or null to
+   * omit it entirely.
+   * @return a snapshot.
+   */
+  fun withQuarantine(handler: EventHandler, substitute: EventHandler?) =
+      HandlerRegistry(this.subscriptions, this.quarantine + (handler to substitute),
+          this.retainTables(listOf(handler)), this.parent)
+
+  /**
+   * Creates a new snapshot in which a given handler is no longer quarantined.
+   *
+   * @param handler a handler.
+   * @return a snapshot.
+   */
+  fun withoutQuarantine(handler: EventHandler) =
+      HandlerRegistry(this.subscriptions, this.quarantine - handler,
+          this.retainTables(listOf(handler)), this.parent)
+
+  /**
+   * Creates a new snapshot which mirrors the handlers of a given parent snapshot.
+   *
+   * As the changes between both parent snapshots are unknown, no tables are retained.
+   *
+   * @param parent a parent snapshot.
+   * @return a snapshot.
+   */
+  fun withParent(parent: HandlerRegistry) =
+      HandlerRegistry(this.subscriptions, this.quarantine, emptyMap(), parent)
+
+  /**
+   * Selects all cached tables which are unaffected by a change to the given handlers (as
+   * permitted by the contract of [EventHandler.accepts]).
+   *
+   * @param changed a collection of added or removed handlers.
+   * @return a map of retained tables.
+   */
+  private fun retainTables(changed: Collection<EventHandler>) = this.tables.get()
+      .filterKeys { eventType ->
+        @Suppress("UNCHECKED_CAST")
+        val type = (eventType as Class<out Event<*>>).kotlin
+        changed.none { it.accepts(type) }
+      }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.apache.logging.log4j.LogManager
+import org.basinmc.faucet.event.handler.EventHandler
+import org.basinmc.faucet.extension.ExtensionHelper
+import org.springframework.beans.factory.DisposableBean
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Enforces a per-invocation time budget on event handlers.
+ *
+ * While enabled, the bus reports the start and completion of each handler invocation to the
+ * watchdog. A background thread periodically inspects the invocations which are in progress and
+ * samples the stack of every thread which has exceeded the budget. Once a handler has exceeded the
+ * budget a configurable amount of times, it is reported along with its owning extension and the
+ * most recently sampled stack and the configured [Policy] is applied to it.
+ *
+ * The watchdog is disabled unless a budget has been configured via `basin.event.watchdog.budget`
+ * (in milliseconds).
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+@Service
+class HandlerWatchdog @Autowired constructor(
+    private val extensionHelper: ExtensionHelper?,
+    @Value("\${basin.event.watchdog.budget:0}") budget: Long,
+    @Value("\${basin.event.watchdog.strikes:3}") private val strikes: Int,
+    @Value("\${basin.event.watchdog.policy:LOG}") private val policy: Policy) : DisposableBean {
+
+  private val budget = TimeUnit.MILLISECONDS.toNanos(budget)
+  private val records = ConcurrentHashMap<EventHandler, Record>()
+
+  private val watches = WeakHashMap<Thread, Watch>()
+  private val localWatch = ThreadLocal.withInitial {
+    val watch = Watch()
+    synchronized(this.watches) {
+      this.watches[Thread.currentThread()] = watch
+    }
+    watch
+  }
+
+  private val sampler: ScheduledExecutorService?
+
+  /**
+   * Indicates whether handler invocations are to be reported to this watchdog.
+   */
+  val enabled = this.budget > 0
+
+  init {
+    if (this.strikes < 1) {
+      throw IllegalArgumentException("Illegal strike limit: Expected at least 1 but got $strikes")
+    }
+
+    this.sampler = if (this.enabled) {
+      val interval = (this.budget / 2).coerceAtLeast(TimeUnit.MILLISECONDS.toNanos(1))
+      val executor = Executors.newSingleThreadScheduledExecutor(ThreadFactory { r ->
+        val thread = Thread(r, "basin-event-watchdog")
+        thread.isDaemon = true
+        thread
+      })
+      executor.scheduleAtFixedRate(this::sample, interval, interval, TimeUnit.NANOSECONDS)
+      executor
+    } else {
+      null
+    }
+  }
+
+  constructor() : this(null, 0, 3, Policy.LOG)
+
+  /**
+   * Marks the start of a handler invocation on the calling thread.
+   *
+   * Only the outermost invocation of each thread is sampled as nested invocations (e.g. handlers
+   * of events which are posted from within a handler) are covered by its samples. The budget is
+   * however enforced for each invocation individually (see [exit]).
+   *
+   * @param handler an event handler.
+   * @param start the start time of the invocation (as given by [System.nanoTime]).
+   * @return the watch of the calling thread (which is to be passed to [exit]).
+   */
+  internal fun enter(handler: EventHandler, start: Long): Watch {
+    val watch = this.localWatch.get()
+    if (watch.depth == 0) {
+      watch.start = start
+      watch.handler = handler
+    }
+
+    watch.push()
+    return watch
+  }
+
+  /**
+   * Marks the completion of a handler invocation on the calling thread.
+   *
+   * Only the exclusive time of the invocation is checked against the budget. The time spent
+   * within nested invocations (e.g. handlers of events which are posted from within the handler)
+   * is accounted to the nested handlers instead.
+   *
+   * @param watch the watch which was previously returned by [enter].
+   * @param handler an event handler.
+   * @param start the start time of the invocation.
+   * @param end the completion time of the invocation.
+   * @return a policy which is to be applied to the handler or null if no action is required.
+   */
+  internal fun exit(watch: Watch, handler: EventHandler, start: Long, end: Long): Policy? {
+    val sample = if (watch.sampledAt == watch.start) watch.sample else null
+    val elapsed = watch.pop(end - start)
+    if (watch.depth == 0) {
+      watch.handler = null
+    }
+
+    if (elapsed <= this.budget) {
+      return null
+    }
+
+    val record = this.records.computeIfAbsent(handler) { Record() }
+    if (sample != null) {
+      record.sample = sample
+    }
+    if (record.quarantined) {
+      return null
+    }
+
+    val strike = record.strikes.incrementAndGet()
+    logger.debug("Handler %s exceeded its budget: %d ms (strike %d of %d)", handler,
+        TimeUnit.NANOSECONDS.toMillis(elapsed), strike, this.strikes)
+    if (strike < this.strikes) {
+      return null
+    }
+
+    record.strikes.set(0)
+    record.quarantined = this.policy != Policy.LOG
+    this.report(handler, elapsed, record.sample)
+    return this.policy
+  }
+
+  /**
+   * Logs a handler which repeatedly exceeded its budget.
+   *
+   * @param handler an event handler.
+   * @param elapsed the duration of its most recent invocation.
+   * @param sample a sampled stack or null if none has been captured.
+   */
+  private fun report(handler: EventHandler, elapsed: Long, sample: Array<StackTraceElement>?) {
+    val extension = this.extensionHelper?.getExtension(handler.owner)
+    val owner = extension?.manifest?.identifier ?: "server"
+    val trace = sample?.let { SampledStack(it) }
+
+    logger.warn("Handler %s of %s exceeded its budget of %d ms %d times (last invocation took " +
+        "%d ms) - Applying policy %s", handler, owner, TimeUnit.NANOSECONDS.toMillis(this.budget),
+        this.strikes, TimeUnit.NANOSECONDS.toMillis(elapsed), this.policy, trace)
+  }
+
+  /**
+   * Resets the state of a handler (typically as it is re-enabled by an operator).
+   *
+   * @param handler an event handler.
+   */
+  fun reset(handler: EventHandler) {
+    this.records.remove(handler)
+  }
+
+  /**
+   * Captures the stack of all threads which are currently executing an invocation which has
+   * exceeded the budget (unless the invocation has been sampled before).
+   */
+  private fun sample() {
+    val now = System.nanoTime()
+    val watches = synchronized(this.watches) { this.watches.toList() }
+
+    for ((thread, watch) in watches) {
+      val start = watch.start
+      if (watch.handler == null || watch.sampledAt == start || now - start <= this.budget) {
+        continue
+      }
+
+      val sample = thread.stackTrace
+      if (watch.handler != null && watch.start == start) {
+        watch.sample = sample
+        watch.sampledAt = start
+      }
+    }
+  }
+
+  /**
+   * Stops the sampling thread.
+   */
+  override fun destroy() {
+    this.sampler?.shutdownNow()
+  }
+
+  /**
+   * Defines the actions which may be applied to a handler which repeatedly exceeds its budget.
+   */
+  enum class Policy {
+
+    /**
+     * The handler is reported but continues to be invoked as usual.
+     */
+    LOG,
+
+    /**
+     * The handler is moved to the asynchronous worker pool for all stateless events (handlers of
+     * stateful events continue to be invoked on the posting thread as their result is observed by
+     * the poster).
+     */
+    ASYNC,
+
+    /**
+     * The handler is no longer invoked until it is re-enabled by an operator.
+     */
+    DISABLE
+  }
+
+  /**
+   * Represents the invocation state of a single thread.
+   */
+  internal class Watch {
+
+    @Volatile
+    var handler: EventHandler? = null
+    @Volatile
+    var start = 0L
+    @Volatile
+    var sample: Array<StackTraceElement>? = null
+    @Volatile
+    var sampledAt = -1L
+    var depth = 0
+
+    /**
+     * Tracks the total time spent within nested invocations per depth.
+     */
+    private var nested = LongArray(4)
+
+    /**
+     * Starts tracking the nested time of a new invocation.
+     */
+    fun push() {
+      if (this.depth == this.nested.size) {
+        this.nested = this.nested.copyOf(this.depth * 2)
+      }
+
+      this.nested[this.depth++] = 0
+    }
+
+    /**
+     * Completes the innermost invocation and accounts its duration to its parent invocation.
+     *
+     * @param elapsed the total duration of the invocation.
+     * @return the exclusive duration of the invocation (e.g. excluding nested invocations).
+     */
+    fun pop(elapsed: Long): Long {
+      val exclusive = elapsed - this.nested[--this.depth]
+      if (this.depth != 0) {
+        this.nested[this.depth - 1] += elapsed
+      }
+
+      return exclusive
+    }
+  }
+
+  /**
+   * Represents the budget violations of a single handler.
+   */
+  private class Record {
+
+    val strikes = AtomicInteger()
+    @Volatile
+    var sample: Array<StackTraceElement>? = null
+    @Volatile
+    var quarantined = false
+  }
+
+  /**
+   * Carries a sampled stack into the log output.
+   */
+  private class SampledStack(stack: Array<StackTraceElement>) :
+      Throwable("Sampled stack", null, false, true) {
+
+    init {
+      this.stackTrace = stack
+    }
+  }
+
+  companion object {
+
+    private val logger = LogManager.getFormatterLogger(HandlerWatchdog::class.java)
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Provides a lock-free histogram which records durations into logarithmic buckets of linear
+ * sub-buckets (similar to HDR histograms).
+ *
+ * Durations below [SUB_BUCKET_COUNT] nanoseconds are recorded exactly while larger durations are
+ * recorded with a relative error of at most 1/16th. Durations beyond 2^37 - 1 nanoseconds (roughly
+ * 137 seconds) are clamped.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal class LatencyHistogram {
+
+  private val counts = AtomicLongArray(BUCKET_COUNT)
+  private val total = LongAdder()
+  private val sum = LongAdder()
+  private val max = AtomicLong()
+
+  /**
+   * Retrieves the amount of recorded durations.
+   */
+  val count: Long
+    get() = this.total.sum()
+
+  /**
+   * Retrieves the sum of all recorded durations.
+   */
+  val totalTime: Long
+    get() = this.sum.sum()
+
+  /**
+   * Retrieves the largest recorded duration.
+   */
+  val maximumTime: Long
+    get() = this.max.get()
+
+  /**
+   * Records a single duration.
+   *
+   * @param nanos a duration in nanoseconds.
+   */
+  fun record(nanos: Long) {
+    val value = nanos.coerceIn(0, MAX_VALUE)
+
+    this.counts.incrementAndGet(indexOf(value))
+    this.total.increment()
+    this.sum.add(value)
+
+    var current = this.max.get()
+    while (value > current && !this.max.compareAndSet(current, value)) {
+      current = this.max.get()
+    }
+  }
+
+  /**
+   * Estimates the duration below which a given percentage of all recorded durations lie.
+   *
+   * @param percentile a percentile between 0 and 100.
+   * @return an estimated duration (the upper bound of the matching bucket).
+   */
+  fun percentile(percentile: Double): Long {
+    if (percentile < 0 || percentile > 100) {
+      throw IllegalArgumentException("Illegal percentile: $percentile")
+    }
+
+    val snapshot = LongArray(BUCKET_COUNT) { this.counts.get(it) }
+    val count = snapshot.sum()
+    if (count == 0L) {
+      return 0
+    }
+
+    val threshold = Math.ceil(count * (percentile / 100)).toLong().coerceAtLeast(1)
+    var seen = 0L
+    for (i in 0 until BUCKET_COUNT) {
+      seen += snapshot[i]
+
+      if (seen >= threshold) {
+        return Math.min(upperBoundOf(i), this.maximumTime)
+      }
+    }
+
+    return this.maximumTime
+  }
+
+  companion object {
+
+    private const val SUB_BUCKET_BITS = 5
+    private const val SUB_BUCKET_COUNT = 1 shl SUB_BUCKET_BITS
+    private const val SUB_BUCKET_HALF = SUB_BUCKET_COUNT shr 1
+    private const val MAX_SHIFT = 32
+    private const val MAX_VALUE = (1L shl (MAX_SHIFT + SUB_BUCKET_BITS)) - 1
+    private const val BUCKET_COUNT = (MAX_SHIFT + 2) * SUB_BUCKET_HALF
+
+    /**
+     * Calculates the bucket index for a given value.
+     */
+    private fun indexOf(value: Long): Int {
+      if (value < SUB_BUCKET_COUNT) {
+        return value.toInt()
+      }
+
+      val shift = 63 - java.lang.Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1)
+      return shift * SUB_BUCKET_HALF + (value ushr shift).toInt()
+    }
+
+    /**
+     * Calculates the largest value which is mapped to a given bucket.
+     */
+    private fun upperBoundOf(index: Int): Long {
+      if (index < SUB_BUCKET_COUNT) {
+        return index.toLong()
+      }
+
+      val shift = index / SUB_BUCKET_HALF - 1
+      val mantissa = index % SUB_BUCKET_HALF + SUB_BUCKET_HALF
+      return ((mantissa + 1L) shl shift) - 1
+    }
+  }
+}
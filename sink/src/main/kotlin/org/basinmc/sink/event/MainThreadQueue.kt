@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+import java.util.function.Consumer
+
+/**
+ * Provides a bounded queue which hands events off from arbitrary producer threads to a single
+ * consumer (e.g. the server's main thread).
+ *
+ * Elements are stored within a pre-allocated ring of slots. Producers claim a slot by advancing
+ * the shared producer index and subsequently publish their element into the slot while the
+ * consumer waits for claimed slots to be published before advancing past them. As a result,
+ * offering an element never allocates nor blocks and only fails when the ring is full.
+ *
+ * Concurrency: [offer] may be invoked from any thread while [drain] is only to be invoked by a
+ * single thread at a time.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal class MainThreadQueue<E : Any>(capacity: Int) {
+
+  private val mask: Int
+  private val buffer: AtomicReferenceArray<E?>
+  private val producerIndex = AtomicLong()
+  private val consumerIndex = AtomicLong()
+
+  init {
+    if (capacity <= 0) {
+      throw IllegalArgumentException(
+          "Illegal queue capacity: Expected a positive value but got " + capacity)
+    }
+
+    // round up to the next power of two in order to permit the use of a mask
+    val size = if (capacity == 1) 1 else Integer.highestOneBit(capacity - 1) shl 1
+    this.mask = size - 1
+    this.buffer = AtomicReferenceArray(size)
+  }
+
+  /**
+   * Retrieves the total amount of elements which may be held by this queue at once.
+   */
+  val capacity: Int
+    get() = this.buffer.length()
+
+  /**
+   * Retrieves the approximate amount of elements which are currently awaiting consumption.
+   */
+  val size: Int
+    get() = (this.producerIndex.get() - this.consumerIndex.get()).toInt().coerceIn(0, this.capacity)
+
+  /**
+   * Appends an element to the end of this queue.
+   *
+   * @param element an arbitrary element.
+   * @return true if the element has been accepted, false if the queue is full.
+   */
+  fun offer(element: E): Boolean {
+    val capacity = this.buffer.length()
+
+    var index: Long
+    do {
+      index = this.producerIndex.get()
+      if (index - this.consumerIndex.get() >= capacity) {
+        return false
+      }
+    } while (!this.producerIndex.compareAndSet(index, index + 1))
+
+    this.buffer.lazySet((index and this.mask.toLong()).toInt(), element)
+    return true
+  }
+
+  /**
+   * Removes all elements which have been accepted prior to this call from the queue and passes
+   * them to the specified consumer in their original order.
+   *
+   * Elements which are offered while this method is executing (including elements which are
+   * offered by the consumer itself) are retained until the next call.
+   *
+   * @param consumer a consumer which receives each element.
+   * @return the amount of consumed elements.
+   */
+  fun drain(consumer: Consumer<in E>): Int {
+    val limit = this.producerIndex.get()
+    var index = this.consumerIndex.get()
+    val start = index
+
+    while (index < limit) {
+      val offset = (index and this.mask.toLong()).toInt()
+
+      // a producer may have claimed the slot without having published its element yet in which
+      // case we'll spin until it becomes visible as elements must be consumed in order
+      var element = this.buffer.get(offset)
+      while (element == null) {
+        Thread.onSpinWait()
+        element = this.buffer.get(offset)
+      }
+
+      this.buffer.lazySet(offset, null)
+      this.consumerIndex.lazySet(++index)
+      consumer.accept(element)
+    }
+
+    return (index - start).toInt()
+  }
+}
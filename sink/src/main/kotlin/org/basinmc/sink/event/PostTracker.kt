@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.apache.logging.log4j.LogManager
+import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Tracks the posts which are in progress on all threads in order to permit writers to defer the
+ * release of state which may still be observed by posts which started before a subscription
+ * snapshot has been replaced.
+ *
+ * Each thread announces the global epoch at the start of its outermost post within a
+ * thread-local slot. Writers advance the epoch after publishing a new snapshot and subsequently
+ * retire the outdated state (similar to the grace periods of read-copy-update schemes). Retired
+ * actions are executed once all slots have announced a newer epoch which is checked whenever an
+ * action is retired as well as at the beginning of each server tick (see [reclaim]). As a result,
+ * posters only read the epoch and write their slot (apart from registering their slot once per
+ * thread with a lock-free queue) and never wait for writers, take a lock or inspect the slots of
+ * other threads.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal class PostTracker {
+
+  private val epoch = AtomicLong()
+  private val retired = ConcurrentLinkedQueue<Retirement>()
+  private val slots = ConcurrentLinkedQueue<Registration>()
+  private val localSlot = ThreadLocal.withInitial {
+    val slot = Slot()
+    this.slots.add(Registration(WeakReference(Thread.currentThread()), slot))
+    slot
+  }
+
+  /**
+   * Marks the start of a post on the calling thread.
+   *
+   * @return the slot of the calling thread (which is to be passed to [exit]).
+   */
+  fun enter(): Slot {
+    val slot = this.localSlot.get()
+    if (slot.depth++ == 0) {
+      slot.epoch = this.epoch.get()
+    }
+
+    return slot
+  }
+
+  /**
+   * Marks the completion of a post on the calling thread.
+   *
+   * @param slot the slot which was previously returned by [enter].
+   */
+  fun exit(slot: Slot) {
+    if (--slot.depth == 0) {
+      slot.epoch = IDLE
+    }
+  }
+
+  /**
+   * Schedules an action for execution once all posts which started before this call have
+   * completed.
+   *
+   * The action is executed immediately when no such post remains (e.g. when invoked outside of
+   * any post while the bus is idle) or otherwise by the first call to [reclaim] after these posts
+   * have completed. This method never blocks.
+   *
+   * @param action an arbitrary action.
+   */
+  fun retire(action: () -> Unit) {
+    val target = this.epoch.incrementAndGet()
+    this.retired.add(Retirement(target, action))
+
+    this.reclaim()
+  }
+
+  /**
+   * Executes all retired actions whose grace period has elapsed.
+   *
+   * This method inspects the slots of all threads and is thus not to be invoked by posters.
+   * Instead, it is invoked when actions are retired and at the beginning of each server tick.
+   */
+  fun reclaim() {
+    if (this.retired.isEmpty()) {
+      return
+    }
+
+    var oldest = IDLE
+    val iterator = this.slots.iterator()
+    while (iterator.hasNext()) {
+      val registration = iterator.next()
+      val epoch = registration.slot.epoch
+      if (epoch == IDLE && registration.thread.get()?.isAlive != true) {
+        iterator.remove()
+        continue
+      }
+
+      oldest = minOf(oldest, epoch)
+    }
+
+    val retirements = this.retired.iterator()
+    while (retirements.hasNext()) {
+      val retirement = retirements.next()
+      if (retirement.epoch > oldest || !this.retired.remove(retirement)) {
+        continue
+      }
+
+      try {
+        retirement.action()
+      } catch (ex: Throwable) {
+        logger.error("Retired action failed: %s", ex.message, ex)
+      }
+    }
+  }
+
+  /**
+   * Associates the slot of a thread with the thread itself in order to permit the removal of
+   * slots once their thread has terminated.
+   */
+  private class Registration(val thread: WeakReference<Thread>, val slot: Slot)
+
+  /**
+   * Represents an action which is executed once the posts of older epochs have completed.
+   */
+  private class Retirement(val epoch: Long, val action: () -> Unit)
+
+  /**
+   * Represents the post state of a single thread.
+   */
+  internal class Slot {
+
+    @Volatile
+    var epoch = IDLE
+    var depth = 0
+
+    private var frames = arrayOfNulls<DispatchFrame>(0)
+
+    /**
+     * Retrieves the dispatch scratch arrays for the current post depth of this thread.
+     *
+     * @param size the amount of value indexes which are to be walked.
+     * @return a frame.
+     */
+    fun frame(size: Int): DispatchFrame {
+      val index = this.depth - 1
+      if (index >= this.frames.size) {
+        this.frames = this.frames.copyOf(index + 1)
+      }
+
+      val frame = this.frames[index] ?: DispatchFrame().also { this.frames[index] = it }
+      frame.ensureCapacity(size)
+      return frame
+    }
+  }
+
+  companion object {
+
+    private val logger = LogManager.getFormatterLogger(PostTracker::class.java)
+
+    private const val IDLE = Long.MAX_VALUE
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.basinmc.faucet.event.EventBus
+import org.basinmc.faucet.event.Subscription
+import org.basinmc.faucet.event.handler.EventHandler
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Represents a set of handlers which have been registered with a bus in a single call.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class SubscriptionImpl internal constructor(
+    private val owner: EventBusImpl,
+
+    /**
+     * Retrieves the handlers which are covered by this subscription.
+     */
+    val handlers: List<EventHandler>,
+
+    /**
+     * Identifies the lane on which asynchronous handlers of this subscription are invoked (if
+     * any).
+     */
+    internal val lane: EventLane?) : Subscription {
+
+  private val closed = AtomicBoolean()
+
+  /**
+   * Indicates whether this subscription has been closed (e.g. its handlers are no longer to be
+   * invoked).
+   */
+  val isClosed: Boolean
+    get() = this.closed.get()
+
+  /**
+   * {@inheritDoc}
+   */
+  override val bus: EventBus
+    get() = this.owner
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun close() {
+    if (this.closed.compareAndSet(false, true)) {
+      this.owner.unsubscribe(this)
+    }
+  }
+}
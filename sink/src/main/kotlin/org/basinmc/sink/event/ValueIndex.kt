@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.filter.FilterChain.IndexHint
+import java.util.*
+
+/**
+ * Maps the values of a single event field to the handlers which expect the respective value.
+ *
+ * `int` fields are indexed through a primitive map while fields which are compared by identity
+ * (such as the types of a [org.basinmc.faucet.event.filter.ClassFilter]) are indexed through an
+ * identity map.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal class ValueIndex(
+
+    /**
+     * Provides the field accessor for this index.
+     */
+    private val hint: IndexHint,
+
+    /**
+     * Identifies the handlers within this index along with the value they expect.
+     */
+    entries: Map<Int, Any?>) {
+
+  private val intIndex: Int2ObjectMap<IntArray>?
+  private val objectIndex: MutableMap<Any?, IntArray>?
+
+  init {
+    val grouped = entries.entries
+        .groupBy({ it.value }, { it.key })
+        .mapValues { (_, indices) -> indices.sorted().toIntArray() }
+
+    if (this.hint.isInt) {
+      this.intIndex = Int2ObjectOpenHashMap<IntArray>(grouped.size)
+      this.intIndex.defaultReturnValue(EMPTY)
+      grouped.forEach { (value, indices) -> this.intIndex.put(value as Int, indices) }
+      this.objectIndex = null
+    } else {
+      this.intIndex = null
+      this.objectIndex = if (this.hint.identity) IdentityHashMap(grouped) else HashMap(grouped)
+    }
+  }
+
+  /**
+   * Retrieves the indices of all handlers which expect the field value of a given event.
+   *
+   * @param event an event.
+   * @return an ascending array of handler indices.
+   */
+  fun lookup(event: Event<*>): IntArray {
+    if (this.intIndex != null) {
+      return this.intIndex.get(this.hint.extractInt(event))
+    }
+
+    return this.objectIndex!![this.hint.extract(event)] ?: EMPTY
+  }
+
+  companion object {
+
+    private val EMPTY = IntArray(0)
+
+    /**
+     * Evaluates whether a given hint may be indexed.
+     *
+     * Hints which expect a value of a different type than their field (for instance, when an
+     * `int` field is filtered through a [org.basinmc.faucet.event.filter.StringFilter] without a
+     * mapper) are evaluated through their filter chain instead.
+     *
+     * @param hint an index hint.
+     * @return true if supported, false otherwise.
+     */
+    fun supports(hint: IndexHint) = !hint.isInt || hint.value is Int
+  }
+}
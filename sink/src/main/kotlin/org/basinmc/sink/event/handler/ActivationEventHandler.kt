@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.handler
+
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.EventContext
+import org.basinmc.faucet.event.handler.EventHandler
+import kotlin.reflect.KClass
+
+/**
+ * Provides a placeholder handler which activates a deferred component (such as a lazily started
+ * extension) before the first event of an accepted type is dispatched.
+ *
+ * Activation handlers are never invoked. Instead, the bus extracts them from its dispatch tables
+ * and triggers their activation before it resolves the handlers of a post (thus permitting the
+ * component to subscribe handlers which will observe the triggering event). Once the activator
+ * returns, the handler is considered spent and is omitted from subsequently built tables. Callers
+ * are expected to close the respective subscription once the activation has completed but must not
+ * do so from within the activator as it is invoked while the bus dispatches an event.
+ *
+ * Note that the activator may be invoked concurrently or recursively and is thus expected to
+ * provide its own synchronization.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class ActivationEventHandler(
+    private val eventTypes: Collection<Class<out Event<*>>>,
+    override val owner: ClassLoader?,
+    private val activator: Runnable) : EventHandler {
+
+  /**
+   * Evaluates whether the activation has been performed.
+   */
+  @Volatile
+  var isSpent = false
+    private set
+
+  /**
+   * Performs the activation unless it has been performed before.
+   */
+  fun activate() {
+    if (this.isSpent) {
+      return
+    }
+
+    this.activator.run()
+    this.isSpent = true
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun accepts(eventType: KClass<out Event<*>>) = this.eventTypes
+      .any { it.isAssignableFrom(eventType.java) }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun accepts(ctx: EventContext<*, *>) = false
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun invoke(ctx: EventContext<*, *>) {
+  }
+
+  override fun toString() =
+      "ActivationEventHandler{eventTypes=${this.eventTypes.map(Class<*>::getName)}}"
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.handler
+
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.EventContext
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.util.function.Consumer
+import kotlin.reflect.KClass
+
+/**
+ * Provides an event handler which passes all events of a given type to an arbitrary consumer.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class FunctionalEventHandler<E : Event<*>>(
+    private val eventType: Class<E>,
+    private val consumer: Consumer<E>) : InlinableEventHandler {
+
+  /**
+   * {@inheritDoc}
+   */
+  override val owner: ClassLoader?
+    get() = this.consumer.javaClass.classLoader
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun accepts(eventType: KClass<out Event<*>>) = this.eventType
+      .isAssignableFrom(eventType.java)
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun accepts(ctx: EventContext<*, *>) = true
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun invoke(ctx: EventContext<*, *>) {
+    this.consumer.accept(this.eventType.cast(ctx.event))
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun createFilterHandle(): MethodHandle? = null
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun createInvokeHandle(): MethodHandle {
+    val cast = classCast.bindTo(this.eventType)
+        .asType(MethodType.methodType(Any::class.java, Event::class.java))
+
+    return MethodHandles.filterArguments(consumerAccept.bindTo(this.consumer), 0,
+        MethodHandles.filterReturnValue(InlinableEventHandler.GET_EVENT, cast))
+  }
+
+  override fun toString() = "FunctionalEventHandler{eventType=${this.eventType.name}}"
+
+  companion object {
+
+    private val consumerAccept = MethodHandles.publicLookup()
+        .findVirtual(Consumer::class.java, "accept",
+            MethodType.methodType(Void.TYPE, Any::class.java))
+    private val classCast = MethodHandles.publicLookup()
+        .findVirtual(Class::class.java, "cast",
+            MethodType.methodType(Any::class.java, Any::class.java))
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.handler
+
+import org.basinmc.faucet.event.EventContext
+
+/**
+ * Invokes a single handler method on behalf of a [MethodEventHandler].
+ *
+ * Implementations of this interface are typically generated at runtime (see
+ * [HandlerInvokerFactory]) in order to call their target method directly instead of relying on
+ * reflection.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+interface HandlerInvoker {
+
+  /**
+   * Invokes the target method on the given listener.
+   *
+   * @param listener a listener instance (ignored when the target method is static).
+   * @param ctx an event context from which all method parameters are extracted.
+   */
+  fun invoke(listener: Any, ctx: EventContext<*, *>)
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.handler
+
+import org.apache.logging.log4j.LogManager
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.EventContext
+import org.basinmc.faucet.event.ExecutionContext
+import org.basinmc.faucet.event.handler.Bind
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.Type
+import org.springframework.beans.BeanUtils
+import org.springframework.util.ClassUtils
+import org.springframework.util.ReflectionUtils
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.lang.reflect.Field
+import java.lang.reflect.Member
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+import java.lang.reflect.Parameter
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Generates invokers for handler methods.
+ *
+ * Wherever possible, a small class which calls the handler method (and all of its parameter
+ * bindings) directly is generated within the package of the listener. Methods which cannot be
+ * accessed from such a class (for instance, because they are private) are invoked through a single
+ * pre-adapted method handle instead. Neither strategy relies on reflection or argument arrays at
+ * dispatch time.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+object HandlerInvokerFactory {
+
+  private val logger = LogManager.getFormatterLogger(HandlerInvokerFactory::class.java)
+
+  private val invokerType = Type.getType(HandlerInvoker::class.java)
+  private val contextType = Type.getType(EventContext::class.java)
+  private val getEventMethod = EventContext::class.java.getMethod("getEvent")
+  private val getEventHandle = MethodHandles.publicLookup()
+      .unreflect(getEventMethod)
+
+  private val counter = AtomicInteger()
+
+  /**
+   * Creates an invoker for the given handler method.
+   *
+   * @param method a handler method.
+   * @param eventType the event type against which [Bind] parameters are resolved.
+   * @return an invoker.
+   * @throws IllegalArgumentException when the method declares an unsupported parameter.
+   */
+  fun create(method: Method, eventType: Class<*>): HandlerInvoker {
+    val bindings = method.parameters.map { createBinding(method, it, eventType) }
+
+    if (isAccessible(method, method.declaringClass) && bindings.all { it.isAccessible(method.declaringClass) }) {
+      try {
+        return generate(method, bindings)
+      } catch (ex: Throwable) {
+        logger.debug("Cannot generate invoker for method %s - Falling back to method handle",
+            method, ex)
+      }
+    }
+
+    return MethodHandleInvoker(createHandle(method, bindings))
+  }
+
+  /**
+   * Resolves the source of a given handler parameter.
+   */
+  private fun createBinding(method: Method, parameter: Parameter, eventType: Class<*>): Binding {
+    val binding = parameter.getAnnotation(Bind::class.java)
+
+    return when {
+      binding != null -> {
+        val getter: Member? = BeanUtils.getPropertyDescriptor(eventType, binding.value)?.readMethod
+        val member: Member = getter
+            ?: ReflectionUtils.findField(eventType, binding.value)
+            ?: throw IllegalArgumentException(
+                "Illegal binding: No such property ${binding.value} in event type ${eventType.name}")
+        val valueType = (member as? Method)?.returnType ?: (member as Field).type
+
+        if (valueType.isPrimitive && parameter.type.isPrimitive && valueType != parameter.type ||
+            !ClassUtils.isAssignable(parameter.type, valueType) &&
+            !ClassUtils.isAssignable(valueType, parameter.type)) {
+          throw IllegalArgumentException(
+              "Illegal binding: Property ${binding.value} of type ${valueType.name} cannot be passed to parameter ${parameter.name} in $method")
+        }
+
+        Binding.Property(parameter.type, member, valueType)
+      }
+      EventContext::class.java.isAssignableFrom(parameter.type) ||
+          ExecutionContext::class.java == parameter.type -> Binding.Context(parameter.type)
+      Event::class.java.isAssignableFrom(parameter.type) -> Binding.Event(parameter.type)
+      else -> throw IllegalArgumentException(
+          "Illegal handler method: Unsupported parameter ${parameter.name} in $method")
+    }
+  }
+
+  /**
+   * Generates a class which directly invokes the given method.
+   */
+  private fun generate(method: Method, bindings: List<Binding>): HandlerInvoker {
+    val host = method.declaringClass
+    val className = "${Type.getInternalName(host)}\$\$BasinInvoker\$${counter.incrementAndGet()}"
+
+    val writer = ClassWriter(ClassWriter.COMPUTE_MAXS)
+    writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC or Opcodes.ACC_FINAL or Opcodes.ACC_SYNTHETIC,
+        className, null, "java/lang/Object", arrayOf(invokerType.internalName))
+
+    writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null).apply {
+      visitCode()
+      visitVarInsn(Opcodes.ALOAD, 0)
+      visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false)
+      visitInsn(Opcodes.RETURN)
+      visitMaxs(0, 0)
+      visitEnd()
+    }
+
+    writer.visitMethod(Opcodes.ACC_PUBLIC, "invoke",
+        Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(Any::class.java), contextType), null,
+        null).apply {
+      visitCode()
+
+      val static = Modifier.isStatic(method.modifiers)
+      if (!static) {
+        visitVarInsn(Opcodes.ALOAD, 1)
+        visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(host))
+      }
+
+      bindings.forEach { it.emit(this) }
+
+      when {
+        static -> visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(host), method.name,
+            Type.getMethodDescriptor(method), host.isInterface)
+        host.isInterface -> visitMethodInsn(Opcodes.INVOKEINTERFACE, Type.getInternalName(host),
+            method.name, Type.getMethodDescriptor(method), true)
+        else -> visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(host), method.name,
+            Type.getMethodDescriptor(method), false)
+      }
+
+      when (Type.getReturnType(method).size) {
+        1 -> visitInsn(Opcodes.POP)
+        2 -> visitInsn(Opcodes.POP2)
+      }
+
+      visitInsn(Opcodes.RETURN)
+      visitMaxs(0, 0)
+      visitEnd()
+    }
+
+    writer.visitEnd()
+
+    val invokerClass = MethodHandles.privateLookupIn(host, MethodHandles.lookup())
+        .defineClass(writer.toByteArray())
+    return invokerClass.getDeclaredConstructor().newInstance() as HandlerInvoker
+  }
+
+  /**
+   * Creates a method handle of type `(Object, EventContext)void` which extracts all parameters
+   * from the context and invokes the given method.
+   */
+  private fun createHandle(method: Method, bindings: List<Binding>): MethodHandle {
+    ReflectionUtils.makeAccessible(method)
+    val lookup = MethodHandles.privateLookupIn(method.declaringClass, MethodHandles.lookup())
+
+    var handle = lookup.unreflect(method)
+    if (Modifier.isStatic(method.modifiers)) {
+      handle = MethodHandles.dropArguments(handle, 0, Any::class.java)
+    }
+    handle = handle.asType(handle.type()
+        .changeParameterType(0, Any::class.java)
+        .changeReturnType(Void.TYPE))
+
+    if (bindings.isNotEmpty()) {
+      handle = MethodHandles.filterArguments(handle, 1,
+          *bindings.map { it.createHandle(lookup) }.toTypedArray())
+    }
+
+    return MethodHandles.permuteArguments(handle,
+        MethodHandleInvoker.TYPE,
+        0, *IntArray(bindings.size) { 1 })
+  }
+
+  /**
+   * Evaluates whether a given member may be accessed from a class within the package of the
+   * indicated host class.
+   */
+  private fun isAccessible(member: Member, host: Class<*>): Boolean {
+    val modifiers = member.modifiers
+
+    if (Modifier.isPrivate(modifiers) || !isAccessible(member.declaringClass, host)) {
+      return false
+    }
+
+    return Modifier.isPublic(modifiers) && Modifier.isPublic(member.declaringClass.modifiers) ||
+        isSamePackage(member.declaringClass, host)
+  }
+
+  /**
+   * Evaluates whether a given type may be referenced from a class within the package of the
+   * indicated host class.
+   */
+  private fun isAccessible(type: Class<*>, host: Class<*>): Boolean {
+    var component = type
+    while (component.isArray) {
+      component = component.componentType
+    }
+
+    if (component.isPrimitive || Modifier.isPublic(component.modifiers)) {
+      return true
+    }
+
+    return !Modifier.isPrivate(component.modifiers) && isSamePackage(component, host)
+  }
+
+  private fun isSamePackage(a: Class<*>, b: Class<*>) =
+      a.classLoader == b.classLoader && a.packageName == b.packageName
+
+  /**
+   * Represents the source of a single handler parameter.
+   */
+  private sealed class Binding(val type: Class<*>) {
+
+    /**
+     * Evaluates whether this binding may be generated within the package of a given host class.
+     */
+    open fun isAccessible(host: Class<*>) = isAccessible(this.type, host)
+
+    /**
+     * Emits the instructions necessary to push the parameter value onto the stack (the context is
+     * available as local variable 2).
+     */
+    abstract fun emit(visitor: MethodVisitor)
+
+    /**
+     * Creates a method handle of type `(EventContext)T` which extracts the parameter value.
+     */
+    abstract fun createHandle(lookup: MethodHandles.Lookup): MethodHandle
+
+    class Event(type: Class<*>) : Binding(type) {
+
+      override fun emit(visitor: MethodVisitor) {
+        emitGetEvent(visitor, this.type)
+      }
+
+      override fun createHandle(lookup: MethodHandles.Lookup): MethodHandle =
+          getEventHandle.asType(MethodType.methodType(this.type, EventContext::class.java))
+    }
+
+    class Context(type: Class<*>) : Binding(type) {
+
+      override fun emit(visitor: MethodVisitor) {
+        visitor.visitVarInsn(Opcodes.ALOAD, 2)
+        if (this.type != EventContext::class.java) {
+          visitor.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(this.type))
+        }
+      }
+
+      override fun createHandle(lookup: MethodHandles.Lookup): MethodHandle =
+          MethodHandles.identity(EventContext::class.java)
+              .asType(MethodType.methodType(this.type, EventContext::class.java))
+    }
+
+    class Property(type: Class<*>, private val member: Member, private val valueType: Class<*>) :
+        Binding(type) {
+
+      override fun isAccessible(host: Class<*>) = super.isAccessible(host) &&
+          isAccessible(this.valueType, host) && isAccessible(this.member, host)
+
+      override fun emit(visitor: MethodVisitor) {
+        val owner = this.member.declaringClass
+        emitGetEvent(visitor, owner)
+
+        if (this.member is Method) {
+          visitor.visitMethodInsn(
+              if (owner.isInterface) Opcodes.INVOKEINTERFACE else Opcodes.INVOKEVIRTUAL,
+              Type.getInternalName(owner), this.member.name, Type.getMethodDescriptor(this.member),
+              owner.isInterface)
+        } else {
+          visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(owner), this.member.name,
+              Type.getDescriptor(this.valueType))
+        }
+
+        emitConversion(visitor, this.valueType, this.type)
+      }
+
+      override fun createHandle(lookup: MethodHandles.Lookup): MethodHandle {
+        val accessor = if (this.member is Method) {
+          ReflectionUtils.makeAccessible(this.member)
+          lookup.unreflect(this.member)
+        } else {
+          ReflectionUtils.makeAccessible(this.member as Field)
+          lookup.unreflectGetter(this.member)
+        }
+
+        return MethodHandles.filterReturnValue(
+            getEventHandle.asType(
+                MethodType.methodType(this.member.declaringClass, EventContext::class.java)),
+            accessor)
+            .asType(MethodType.methodType(this.type, EventContext::class.java))
+      }
+    }
+
+    companion object {
+
+      /**
+       * Pushes the context's event onto the stack and casts it to the given type.
+       */
+      private fun emitGetEvent(visitor: MethodVisitor, type: Class<*>) {
+        visitor.visitVarInsn(Opcodes.ALOAD, 2)
+        visitor.visitMethodInsn(Opcodes.INVOKEINTERFACE, contextType.internalName, "getEvent",
+            Type.getMethodDescriptor(getEventMethod), true)
+        if (type != Event::class.java) {
+          visitor.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(type))
+        }
+      }
+
+      /**
+       * Converts the value on top of the stack from one type to another (boxing or unboxing it
+       * where necessary).
+       */
+      private fun emitConversion(visitor: MethodVisitor, from: Class<*>, to: Class<*>) {
+        when {
+          from == to -> Unit
+          from.isPrimitive -> {
+            val wrapper = ClassUtils.resolvePrimitiveIfNecessary(from)
+            visitor.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(wrapper),
+                "valueOf", Type.getMethodDescriptor(Type.getType(wrapper), Type.getType(from)),
+                false)
+            if (!to.isAssignableFrom(wrapper)) {
+              visitor.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(to))
+            }
+          }
+          to.isPrimitive -> {
+            val wrapper = ClassUtils.resolvePrimitiveIfNecessary(to)
+            visitor.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(wrapper))
+            visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(wrapper),
+                "${to.name}Value", Type.getMethodDescriptor(Type.getType(to)), false)
+          }
+          !to.isAssignableFrom(from) ->
+            visitor.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(to))
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.handler
+
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.EventContext
+import org.basinmc.faucet.event.handler.EventHandler
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+
+/**
+ * Exposes the filters and target of an event handler as method handles which call their
+ * respective implementation directly (e.g. without passing through call sites that are shared
+ * with other handlers).
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+interface InlinableEventHandler : EventHandler {
+
+  /**
+   * Creates a handle of type `(EventContext)boolean` which evaluates the filters of this handler.
+   *
+   * Unlike [EventHandler.accepts], the handle does not evaluate the receive state of the handler
+   * as it is expected to be checked by the caller.
+   *
+   * @return a filter handle or null if this handler accepts all events regardless of their
+   * contents.
+   */
+  fun createFilterHandle(): MethodHandle?
+
+  /**
+   * Creates a handle of type `(EventContext)void` which invokes this handler.
+   *
+   * @return an invocation handle.
+   */
+  fun createInvokeHandle(): MethodHandle
+
+  companion object {
+
+    /**
+     * Defines the type of handles returned by [createFilterHandle].
+     */
+    val FILTER_TYPE: MethodType = MethodType
+        .methodType(Boolean::class.javaPrimitiveType, EventContext::class.java)
+
+    /**
+     * Defines the type of handles returned by [createInvokeHandle].
+     */
+    val INVOKE_TYPE: MethodType = MethodType
+        .methodType(Void.TYPE, EventContext::class.java)
+
+    /**
+     * Provides a handle of type `(EventContext)Event` which retrieves the event of a context.
+     */
+    val GET_EVENT: MethodHandle = MethodHandles.publicLookup()
+        .findVirtual(EventContext::class.java, "getEvent", MethodType.methodType(Event::class.java))
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.handler
+
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.EventContext
+import org.basinmc.faucet.event.filter.FilterChain
+import org.basinmc.faucet.event.handler.Bind
+import org.basinmc.faucet.event.handler.Subscribe
+import org.basinmc.faucet.util.Priority
+import org.basinmc.faucet.util.State
+import org.springframework.core.annotation.AnnotationUtils
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.lang.reflect.Method
+import java.util.function.Predicate
+import kotlin.reflect.KClass
+
+/**
+ * Provides an event handler which delegates to a method annotated with [Subscribe].
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class MethodEventHandler(private val listener: Any, private val method: Method) :
+    InlinableEventHandler {
+
+  private val annotation = AnnotationUtils.findAnnotation(this.method, Subscribe::class.java)
+      ?: throw IllegalArgumentException(
+          "Illegal handler method: ${this.method} is not annotated with @Subscribe")
+
+  /**
+   * Retrieves the list of event types which are handled by this method.
+   */
+  val eventTypes: List<Class<out Event<*>>>
+
+  /**
+   * {@inheritDoc}
+   */
+  override val priority: Priority
+    get() = this.annotation.priority
+
+  /**
+   * {@inheritDoc}
+   */
+  override val async: Boolean = this.annotation.async
+
+  /**
+   * {@inheritDoc}
+   */
+  override val owner: ClassLoader?
+    get() = this.listener.javaClass.classLoader
+
+  /**
+   * {@inheritDoc}
+   */
+  override val receiveState: State = this.annotation.receiveState
+  private val filter: Predicate<Event<*>>
+  private val filtered: Boolean
+
+  /**
+   * {@inheritDoc}
+   */
+  override val indexHint: FilterChain.IndexHint?
+  private val invoker: HandlerInvoker
+
+  init {
+    val declaredTypes = this.annotation.eventType
+        .map(KClass<out Event<*>>::java)
+        .filter { it != Subscribe.DefaultEvent::class.java }
+    val parameterType = this.method.parameters
+        .firstOrNull {
+          !it.isAnnotationPresent(Bind::class.java) && Event::class.java.isAssignableFrom(it.type)
+        }
+        ?.type
+    @Suppress("UNCHECKED_CAST")
+    this.eventTypes = if (declaredTypes.isEmpty()) {
+      listOfNotNull(parameterType as Class<out Event<*>>?)
+    } else {
+      declaredTypes
+    }
+
+    if (this.eventTypes.isEmpty()) {
+      throw IllegalArgumentException(
+          "Illegal handler method: ${this.method} does not declare an event type")
+    }
+
+    val filterChain = FilterChain(this.method,
+        parameterType ?: this.eventTypes.singleOrNull() ?: Event::class.java)
+    this.filter = filterChain.predicate
+    this.filtered = !filterChain.isEmpty
+    this.indexHint = filterChain.indexHint
+    this.invoker = HandlerInvokerFactory.create(this.method,
+        parameterType ?: this.eventTypes.first())
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun accepts(eventType: KClass<out Event<*>>) = this.eventTypes
+      .any { it.isAssignableFrom(eventType.java) }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun accepts(ctx: EventContext<*, *>): Boolean {
+    val state = ctx.state
+    val stateMatches = when (this.receiveState) {
+      State.WILDCARD -> true
+      State.DEFAULT -> state == ctx.defaultState
+      else -> state !is State || state == this.receiveState
+    }
+
+    return stateMatches && this.filter.test(ctx.event)
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun invoke(ctx: EventContext<*, *>) {
+    this.invoker.invoke(this.listener, ctx)
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun createFilterHandle(): MethodHandle? {
+    if (!this.filtered) {
+      return null
+    }
+
+    return MethodHandles.filterArguments(
+        predicateTest.bindTo(this.filter)
+            .asType(MethodType.methodType(Boolean::class.javaPrimitiveType, Event::class.java)),
+        0, InlinableEventHandler.GET_EVENT)
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun createInvokeHandle(): MethodHandle {
+    val invoker = this.invoker
+    val target = if (invoker is MethodHandleInvoker) {
+      invoker.handle
+    } else {
+      invokerInvoke.bindTo(invoker)
+    }
+
+    return MethodHandles.insertArguments(target, 0, this.listener)
+  }
+
+  override fun toString() = "MethodEventHandler{method=${this.method}}"
+
+  companion object {
+
+    private val predicateTest = MethodHandles.publicLookup()
+        .findVirtual(Predicate::class.java, "test",
+            MethodType.methodType(Boolean::class.javaPrimitiveType, Any::class.java))
+    private val invokerInvoke = MethodHandles.publicLookup()
+        .findVirtual(HandlerInvoker::class.java, "invoke", MethodHandleInvoker.TYPE)
+  }
+}
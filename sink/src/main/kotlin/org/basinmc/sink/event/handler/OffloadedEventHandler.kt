@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.handler
+
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.EventContext
+import org.basinmc.faucet.event.StatelessEvent
+import org.basinmc.faucet.event.handler.EventHandler
+import java.util.function.Consumer
+
+/**
+ * Provides an event handler which hands stateless events off to an arbitrary consumer (typically
+ * in order to invoke the wrapped handler off the posting thread) while stateful events are passed
+ * to the wrapped handler directly.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class OffloadedEventHandler(
+
+    /**
+     * Retrieves the handler which is wrapped by this handler.
+     */
+    val delegate: EventHandler,
+    private val offload: Consumer<Event<*>>) : EventHandler by delegate {
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun invoke(ctx: EventContext<*, *>) {
+    val event = ctx.event
+    if (event is StatelessEvent) {
+      this.offload.accept(event)
+    } else {
+      this.delegate(ctx)
+    }
+  }
+
+  override fun toString() = this.delegate.toString()
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.record
+
+import org.basinmc.faucet.event.AbstractEvent
+import org.basinmc.faucet.internal.event.FilterExpose
+import org.springframework.util.ReflectionUtils
+import java.lang.reflect.Field
+import java.lang.reflect.Modifier
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+
+/**
+ * Describes the binary layout of event recordings.
+ *
+ * A recording consists of a fixed size header, a type dictionary and a ring of event records:
+ *
+ * ```
+ * header:     int magic, short version, short typeCount, int dictionaryLength, int reserved,
+ *             long ringCapacity, long head, long tail, long startTime
+ * dictionary: (short typeId, string typeName, short fieldCount, string[fieldCount] fieldNames)*
+ * ring:       (int length, long timestamp, short typeId, value[fieldCount] values)*
+ * ```
+ *
+ * `head` and `tail` refer to logical (e.g. ever increasing) positions within the ring of which
+ * the physical position is derived by wrapping them at the ring capacity. Records never wrap
+ * around the end of the ring. Instead, the remaining bytes are skipped (and marked with a
+ * [PADDING] length when sufficient space remains).
+ *
+ * Values are prefixed with a tag which identifies their encoding. Values which cannot be
+ * encoded are recorded as [TAG_UNSUPPORTED] and left at their default value upon replay.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal object EventRecordFormat {
+
+  const val MAGIC = 0x42534552 // BSER
+  const val VERSION: Short = 1
+
+  const val OFFSET_TYPE_COUNT = 6
+  const val OFFSET_DICTIONARY_LENGTH = 8
+  const val OFFSET_RING_CAPACITY = 16
+  const val OFFSET_HEAD = 24
+  const val OFFSET_TAIL = 32
+  const val OFFSET_START_TIME = 40
+
+  const val HEADER_SIZE = 64
+  const val DICTIONARY_SIZE = 64 * 1024
+  const val RING_OFFSET = HEADER_SIZE + DICTIONARY_SIZE
+
+  const val PADDING = -1
+  const val RECORD_HEADER_SIZE = 14
+
+  const val TAG_NULL: Byte = 0
+  const val TAG_BOOLEAN: Byte = 1
+  const val TAG_BYTE: Byte = 2
+  const val TAG_SHORT: Byte = 3
+  const val TAG_CHAR: Byte = 4
+  const val TAG_INT: Byte = 5
+  const val TAG_LONG: Byte = 6
+  const val TAG_FLOAT: Byte = 7
+  const val TAG_DOUBLE: Byte = 8
+  const val TAG_STRING: Byte = 9
+  const val TAG_ENUM: Byte = 10
+  const val TAG_CLASS: Byte = 11
+  const val TAG_OBJECT: Byte = 12
+  const val TAG_UNSUPPORTED: Byte = 13
+
+  /**
+   * Selects the fields of an event type which are included within a recording.
+   *
+   * This includes all fields which are exposed to filters (see [FilterExpose]) as well as the
+   * state fields of [AbstractEvent] implementations.
+   *
+   * @param type an event type.
+   * @return a list of accessible fields.
+   */
+  fun selectFields(type: Class<*>): List<Field> {
+    val fields = mutableListOf<Field>()
+    ReflectionUtils.doWithFields(type, { fields += it }) {
+      !Modifier.isStatic(it.modifiers) && (it.isAnnotationPresent(FilterExpose::class.java)
+          || it.declaringClass == AbstractEvent::class.java)
+    }
+
+    fields.forEach(ReflectionUtils::makeAccessible)
+    return fields
+  }
+
+  /**
+   * Writes a length prefixed UTF-8 string.
+   */
+  fun writeString(buffer: ByteBuffer, value: String) {
+    val encoded = value.toByteArray(StandardCharsets.UTF_8)
+    buffer.putShort(encoded.size.toShort())
+    buffer.put(encoded)
+  }
+
+  /**
+   * Reads a length prefixed UTF-8 string.
+   */
+  fun readString(buffer: ByteBuffer): String {
+    val encoded = ByteArray(java.lang.Short.toUnsignedInt(buffer.short))
+    buffer.get(encoded)
+    return String(encoded, StandardCharsets.UTF_8)
+  }
+
+  /**
+   * Writes an arbitrary tagged value.
+   *
+   * Strings which exceed the maximum encodable length are recorded as unsupported values.
+   */
+  fun writeValue(buffer: ByteBuffer, value: Any?) {
+    when (value) {
+      null -> buffer.put(TAG_NULL)
+      is Boolean -> buffer.put(TAG_BOOLEAN).put((if (value) 1 else 0).toByte())
+      is Byte -> buffer.put(TAG_BYTE).put(value)
+      is Short -> buffer.put(TAG_SHORT).putShort(value)
+      is Char -> buffer.put(TAG_CHAR).putChar(value)
+      is Int -> buffer.put(TAG_INT).putInt(value)
+      is Long -> buffer.put(TAG_LONG).putLong(value)
+      is Float -> buffer.put(TAG_FLOAT).putFloat(value)
+      is Double -> buffer.put(TAG_DOUBLE).putDouble(value)
+      is String -> if (value.length <= MAX_STRING_LENGTH) {
+        buffer.put(TAG_STRING)
+        writeString(buffer, value)
+      } else {
+        buffer.put(TAG_UNSUPPORTED)
+      }
+      is Enum<*> -> {
+        buffer.put(TAG_ENUM)
+        // constants with a body are represented by an anonymous subtype of their enum
+        val type = if (value.javaClass.isEnum) value.javaClass else value.javaClass.superclass
+        writeString(buffer, type.name)
+        writeString(buffer, value.name)
+      }
+      is Class<*> -> {
+        buffer.put(TAG_CLASS)
+        writeString(buffer, value.name)
+      }
+      else -> if (singletons.get(value.javaClass)) {
+        buffer.put(TAG_OBJECT)
+        writeString(buffer, value.javaClass.name)
+      } else {
+        buffer.put(TAG_UNSUPPORTED)
+      }
+    }
+  }
+
+  /**
+   * Reads an arbitrary tagged value.
+   *
+   * @return a decoded value or [Unsupported] when the value was not recorded.
+   * @throws ClassNotFoundException when a referenced type is not visible to the class loader (in
+   * which case the value has been consumed regardless).
+   */
+  fun readValue(buffer: ByteBuffer, classLoader: ClassLoader): Any? =
+      when (val tag = buffer.get()) {
+        TAG_NULL -> null
+        TAG_BOOLEAN -> buffer.get() != 0.toByte()
+        TAG_BYTE -> buffer.get()
+        TAG_SHORT -> buffer.short
+        TAG_CHAR -> buffer.char
+        TAG_INT -> buffer.int
+        TAG_LONG -> buffer.long
+        TAG_FLOAT -> buffer.float
+        TAG_DOUBLE -> buffer.double
+        TAG_STRING -> readString(buffer)
+        TAG_ENUM -> {
+          val typeName = readString(buffer)
+          val name = readString(buffer)
+          Class.forName(typeName, false, classLoader).enumConstants
+              .firstOrNull { (it as Enum<*>).name == name } ?: Unsupported
+        }
+        TAG_CLASS -> Class.forName(readString(buffer), false, classLoader)
+        TAG_OBJECT -> Class.forName(readString(buffer), true, classLoader)
+            .getField(SINGLETON_FIELD)
+            .get(null)
+        TAG_UNSUPPORTED -> Unsupported
+        else -> throw IllegalStateException("Illegal value tag: $tag")
+      }
+
+  private const val MAX_STRING_LENGTH = 16384
+  private const val SINGLETON_FIELD = "INSTANCE"
+
+  /**
+   * Caches whether a given type is a singleton (e.g. a Kotlin object declaration).
+   */
+  private val singletons = object : ClassValue<Boolean>() {
+    override fun computeValue(type: Class<*>) = try {
+      val field = type.getField(SINGLETON_FIELD)
+      Modifier.isStatic(field.modifiers) && field.type == type
+    } catch (ex: NoSuchFieldException) {
+      false
+    }
+  }
+
+  /**
+   * Marks values which were not recorded.
+   */
+  object Unsupported
+}
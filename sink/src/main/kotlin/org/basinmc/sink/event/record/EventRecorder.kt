@@ -0,0 +1,387 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.record
+
+import org.apache.logging.log4j.LogManager
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.internal.util.ExactHandles
+import org.basinmc.sink.event.record.EventRecordFormat.DICTIONARY_SIZE
+import org.basinmc.sink.event.record.EventRecordFormat.HEADER_SIZE
+import org.basinmc.sink.event.record.EventRecordFormat.OFFSET_DICTIONARY_LENGTH
+import org.basinmc.sink.event.record.EventRecordFormat.OFFSET_HEAD
+import org.basinmc.sink.event.record.EventRecordFormat.OFFSET_RING_CAPACITY
+import org.basinmc.sink.event.record.EventRecordFormat.OFFSET_START_TIME
+import org.basinmc.sink.event.record.EventRecordFormat.OFFSET_TAIL
+import org.basinmc.sink.event.record.EventRecordFormat.OFFSET_TYPE_COUNT
+import org.basinmc.sink.event.record.EventRecordFormat.PADDING
+import org.basinmc.sink.event.record.EventRecordFormat.RING_OFFSET
+import java.io.IOException
+import java.lang.invoke.MethodHandles
+import java.lang.ref.WeakReference
+import java.nio.BufferOverflowException
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.function.Function
+
+/**
+ * Records posted events into a memory mapped ring file.
+ *
+ * Only the fields which are exposed to filters (as well as the event state) are recorded (see
+ * [EventRecordFormat.selectFields]) in order to keep records compact. Once the ring is full, the
+ * oldest records are overwritten. As a result, a recording always covers the most recent events
+ * up to the ring capacity.
+ *
+ * Concurrency: Events may be recorded from any thread. Each thread encodes its records into a
+ * thread-local batch which is published to the ring once it fills up, once it has been pending
+ * for [PUBLISH_INTERVAL] or when [flush] is invoked (e.g. at the beginning of each tick). As a
+ * result, posters never contend with each other while records of different threads may appear
+ * out of order relative to each other (by at most one publication interval).
+ *
+ * @throws IOException when creating or mapping the file fails.
+ * @throws IllegalArgumentException when the capacity is out of range.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class EventRecorder @Throws(IOException::class) constructor(path: Path, capacity: Int) :
+    AutoCloseable {
+
+  private val channel: FileChannel
+  private val buffer: MappedByteBuffer
+  private val ring: ByteBuffer
+  private val capacity: Long = capacity.toLong()
+
+  private val startTime = System.nanoTime()
+  private val types = ConcurrentHashMap<Class<*>, RecordedType>()
+  private val batches = ConcurrentLinkedQueue<Batch>()
+  private val localBatch = ThreadLocal.withInitial {
+    Batch(WeakReference(Thread.currentThread())).also { this.batches += it }
+  }
+  private var typeCount = 0
+  private var dictionaryLength = 0
+  private var head = 0L
+  private var tail = 0L
+
+  @Volatile
+  private var closed = false
+
+  init {
+    if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY) {
+      throw IllegalArgumentException(
+          "Illegal ring capacity: Expected a value between " + MIN_CAPACITY + " and "
+              + MAX_CAPACITY + " but got " + capacity)
+    }
+
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+    this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+        RING_OFFSET.toLong() + capacity)
+
+    this.buffer.putInt(0, EventRecordFormat.MAGIC)
+    this.buffer.putShort(4, EventRecordFormat.VERSION)
+    this.buffer.putLong(OFFSET_RING_CAPACITY, this.capacity)
+    this.buffer.putLong(OFFSET_START_TIME, System.currentTimeMillis())
+
+    this.ring = this.buffer.duplicate().position(RING_OFFSET).slice()
+  }
+
+  /**
+   * Retrieves the total amount of bytes which have been published to the ring so far.
+   */
+  val written: Long
+    @Synchronized get() = this.head
+
+  /**
+   * Appends an event to the recording.
+   *
+   * Events of types which cannot be registered within the type dictionary (e.g. as the
+   * dictionary is exhausted) as well as events which exceed the ring capacity are silently
+   * discarded.
+   *
+   * @param event an event.
+   */
+  fun record(event: Event<*>) {
+    if (this.closed) {
+      return
+    }
+
+    val type = this.types.computeIfAbsent(event.javaClass, this::register)
+    if (type === UNRECORDABLE) {
+      return
+    }
+
+    val timestamp = System.nanoTime() - this.startTime
+    val batch = this.localBatch.get()
+    synchronized(batch) {
+      if (!this.encode(batch, timestamp, type, event)) {
+        return
+      }
+
+      if (batch.buffer.position() >= PUBLISH_SIZE || timestamp - batch.origin >= PUBLISH_INTERVAL) {
+        this.publish(batch)
+      }
+    }
+  }
+
+  /**
+   * Encodes a record into the given batch.
+   *
+   * When the batch is exhausted, it is published and the record is encoded into the now empty
+   * batch instead. Batches grow up to the ring capacity in order to fit large records.
+   *
+   * @return true if the record has been encoded, false if it exceeds the ring capacity.
+   */
+  private fun encode(batch: Batch, timestamp: Long, type: RecordedType, event: Event<*>): Boolean {
+    while (true) {
+      val start = batch.buffer.position()
+      try {
+        batch.buffer.putInt(0)
+        batch.buffer.putLong(timestamp)
+        batch.buffer.putShort(type.id)
+        type.readers.forEach { EventRecordFormat.writeValue(batch.buffer, it.apply(event)) }
+
+        batch.buffer.putInt(start, batch.buffer.position() - start)
+        if (start == 0) {
+          batch.origin = timestamp
+        }
+        return true
+      } catch (ex: BufferOverflowException) {
+        batch.buffer.position(start)
+
+        if (start != 0) {
+          this.publish(batch)
+          continue
+        }
+        if (batch.buffer.capacity() >= this.capacity) {
+          return false
+        }
+
+        batch.buffer = ByteBuffer.allocate((batch.buffer.capacity() * 2)
+            .coerceAtMost(this.capacity.toInt()))
+      }
+    }
+  }
+
+  /**
+   * Publishes all records of a batch to the ring and resets the batch.
+   *
+   * The caller is expected to hold the monitor of the batch.
+   *
+   * @param batch a batch.
+   */
+  private fun publish(batch: Batch) {
+    val records = batch.buffer
+    if (records.position() == 0) {
+      return
+    }
+
+    records.flip()
+    synchronized(this) {
+      if (this.closed) {
+        records.clear()
+        return
+      }
+
+      while (records.hasRemaining()) {
+        val length = records.getInt(records.position())
+
+        // records never wrap around the end of the ring so we'll skip the remaining bytes when
+        // the record does not fit
+        val remaining = this.capacity - this.head % this.capacity
+        if (remaining < length) {
+          this.reclaim(this.head + remaining)
+          if (remaining >= 4) {
+            this.ring.putInt((this.head % this.capacity).toInt(), PADDING)
+          }
+          this.head += remaining
+        }
+
+        this.reclaim(this.head + length)
+        val end = records.limit()
+        records.limit(records.position() + length)
+        this.ring.position((this.head % this.capacity).toInt())
+        this.ring.put(records)
+        records.limit(end)
+        this.head += length
+      }
+
+      this.buffer.putLong(OFFSET_TAIL, this.tail)
+      this.buffer.putLong(OFFSET_HEAD, this.head)
+    }
+
+    records.clear()
+  }
+
+  /**
+   * Publishes the pending records of all threads to the ring.
+   *
+   * Batches of threads which have terminated are released once their records have been
+   * published.
+   */
+  fun flush() {
+    val iterator = this.batches.iterator()
+    while (iterator.hasNext()) {
+      val batch = iterator.next()
+      synchronized(batch) { this.publish(batch) }
+
+      if (batch.thread.get()?.isAlive != true) {
+        iterator.remove()
+      }
+    }
+  }
+
+  /**
+   * Advances the tail past all records which would be overwritten when writing up to the given
+   * logical position.
+   *
+   * @param end a logical ring position.
+   */
+  private fun reclaim(end: Long) {
+    while (end - this.tail > this.capacity) {
+      val position = (this.tail % this.capacity).toInt()
+      val remaining = this.capacity - position
+
+      this.tail += if (remaining < 4) {
+        remaining
+      } else {
+        val length = this.ring.getInt(position)
+        if (length == PADDING) remaining else length.toLong()
+      }
+    }
+  }
+
+  /**
+   * Appends a new event type to the type dictionary.
+   *
+   * @param type an event type.
+   * @return a type descriptor or [UNRECORDABLE] if the dictionary has been exhausted.
+   */
+  @Synchronized
+  private fun register(type: Class<*>): RecordedType {
+    val fields = EventRecordFormat.selectFields(type)
+    val id = this.typeCount.toShort()
+
+    val entry = ByteBuffer.allocate(DICTIONARY_SIZE)
+    try {
+      entry.putShort(id)
+      EventRecordFormat.writeString(entry, type.name)
+      entry.putShort(fields.size.toShort())
+      fields.forEach { EventRecordFormat.writeString(entry, it.name) }
+    } catch (ex: BufferOverflowException) {
+      logger.warn("Cannot record events of type %s: Type descriptor exceeds dictionary size",
+          type.name)
+      return UNRECORDABLE
+    }
+
+    entry.flip()
+    if (id == Short.MAX_VALUE || entry.remaining() > DICTIONARY_SIZE - this.dictionaryLength) {
+      logger.warn("Cannot record events of type %s: Type dictionary is exhausted", type.name)
+      return UNRECORDABLE
+    }
+
+    val readers = fields.map {
+      ExactHandles.extractor(MethodHandles.lookup().unreflectGetter(it), "recorded event field")
+    }
+
+    val dictionary = this.buffer.duplicate()
+    dictionary.position(HEADER_SIZE + this.dictionaryLength)
+    dictionary.put(entry)
+
+    this.typeCount++
+    this.dictionaryLength += entry.limit()
+    this.buffer.putShort(OFFSET_TYPE_COUNT, this.typeCount.toShort())
+    this.buffer.putInt(OFFSET_DICTIONARY_LENGTH, this.dictionaryLength)
+
+    return RecordedType(id, readers)
+  }
+
+  /**
+   * Flushes all pending records to disk and releases the underlying file.
+   */
+  override fun close() {
+    if (this.closed) {
+      return
+    }
+
+    this.flush()
+    synchronized(this) {
+      if (this.closed) {
+        return
+      }
+
+      this.closed = true
+      this.buffer.force()
+      this.channel.close()
+    }
+  }
+
+  /**
+   * Describes a type which has been written to the type dictionary.
+   */
+  private class RecordedType(val id: Short, val readers: List<Function<Event<*>, Any?>>)
+
+  /**
+   * Buffers the records of a single thread until they are published to the ring.
+   */
+  private class Batch(val thread: WeakReference<Thread>) {
+
+    var buffer: ByteBuffer = ByteBuffer.allocate(BATCH_SIZE)
+
+    /**
+     * Identifies the timestamp of the first record within this batch.
+     */
+    var origin = 0L
+  }
+
+  companion object {
+
+    /**
+     * Defines the smallest permitted ring capacity.
+     */
+    const val MIN_CAPACITY = 4096
+
+    /**
+     * Defines the largest permitted ring capacity.
+     */
+    const val MAX_CAPACITY = Int.MAX_VALUE - RING_OFFSET
+
+    /**
+     * Defines the initial size of a thread-local batch as well as the size beyond which batches
+     * are published.
+     */
+    private const val BATCH_SIZE = 16384
+    private const val PUBLISH_SIZE = BATCH_SIZE / 2
+
+    /**
+     * Defines the maximum duration (in nanoseconds) for which a record remains pending within a
+     * batch (as long as its thread keeps recording).
+     */
+    private val PUBLISH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(50)
+
+    /**
+     * Marks types which cannot be recorded.
+     */
+    private val UNRECORDABLE = RecordedType(-1, emptyList())
+
+    private val logger = LogManager.getFormatterLogger(EventRecorder::class.java)
+  }
+}
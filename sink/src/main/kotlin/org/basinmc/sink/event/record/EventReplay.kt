@@ -0,0 +1,256 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.record
+
+import org.apache.logging.log4j.LogManager
+import org.basinmc.faucet.event.Event
+import org.basinmc.sink.event.EventBusImpl
+import org.basinmc.sink.event.record.EventRecordFormat.HEADER_SIZE
+import org.basinmc.sink.event.record.EventRecordFormat.OFFSET_DICTIONARY_LENGTH
+import org.basinmc.sink.event.record.EventRecordFormat.OFFSET_HEAD
+import org.basinmc.sink.event.record.EventRecordFormat.OFFSET_RING_CAPACITY
+import org.basinmc.sink.event.record.EventRecordFormat.OFFSET_TAIL
+import org.basinmc.sink.event.record.EventRecordFormat.OFFSET_TYPE_COUNT
+import org.basinmc.sink.event.record.EventRecordFormat.PADDING
+import org.basinmc.sink.event.record.EventRecordFormat.RING_OFFSET
+import org.springframework.objenesis.ObjenesisStd
+import org.springframework.objenesis.instantiator.ObjectInstantiator
+import org.springframework.util.ClassUtils
+import org.springframework.util.ReflectionUtils
+import java.io.IOException
+import java.lang.reflect.Field
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Feeds a recording which was previously captured by an [EventRecorder] back into an event bus.
+ *
+ * Events are re-constructed without invoking their constructors and only their recorded fields
+ * are restored (see [EventRecordFormat.selectFields]). Handlers which rely on any other state of
+ * an event may thus fail or behave differently during replay. Event types which are no longer
+ * visible to the given class loader are skipped.
+ *
+ * Replayed events are handed off to the server's main thread (see [EventBusImpl.replay]) where
+ * they are posted like any other event but are not recorded again. Replays are thus expected to
+ * run on a dedicated thread as they wait for the main thread whenever its hand-off queue is
+ * saturated.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class EventReplay private constructor(private val buffer: ByteBuffer) {
+
+  private val capacity = this.buffer.getLong(OFFSET_RING_CAPACITY)
+  private val head = this.buffer.getLong(OFFSET_HEAD)
+  private val tail = this.buffer.getLong(OFFSET_TAIL)
+  private val ring = this.buffer.duplicate().position(RING_OFFSET).slice()
+  private val typeDescriptors: List<TypeDescriptor>
+
+  init {
+    val typeCount = java.lang.Short.toUnsignedInt(this.buffer.getShort(OFFSET_TYPE_COUNT))
+    val dictionary = this.buffer.duplicate()
+    dictionary.position(HEADER_SIZE)
+    dictionary.limit(HEADER_SIZE + this.buffer.getInt(OFFSET_DICTIONARY_LENGTH))
+
+    this.typeDescriptors = (0 until typeCount).map {
+      val id = dictionary.short.toInt()
+      if (id != it) {
+        throw IOException("Illegal recording: Expected type $it but got $id")
+      }
+
+      val name = EventRecordFormat.readString(dictionary)
+      val fieldCount = java.lang.Short.toUnsignedInt(dictionary.short)
+      TypeDescriptor(name, (0 until fieldCount).map { EventRecordFormat.readString(dictionary) })
+    }
+  }
+
+  /**
+   * Retrieves the amount of bytes which are covered by this recording.
+   */
+  val size: Long
+    get() = this.head - this.tail
+
+  /**
+   * Hands all recorded events off to the main thread of the given event bus in their original
+   * order.
+   *
+   * This method blocks until all events have been accepted by the bus (but not necessarily
+   * posted) and must thus not be invoked on the server's main thread.
+   *
+   * @param bus an event bus.
+   * @param classLoader a class loader which is used to resolve recorded event types (typically
+   * one which also resolves the types of all loaded extensions).
+   * @param paced true if the original delay between events is to be reproduced, false if events
+   * are to be replayed as fast as possible.
+   * @return the amount of replayed events.
+   */
+  fun replay(bus: EventBusImpl, classLoader: ClassLoader, paced: Boolean): Int {
+    val types = arrayOfNulls<ReplayType>(this.typeDescriptors.size)
+    val resolved = BooleanArray(this.typeDescriptors.size)
+    val record = this.ring.duplicate()
+
+    var count = 0
+    var origin = -1L
+    var position = this.tail
+    while (position < this.head) {
+      val offset = (position % this.capacity).toInt()
+      val remaining = this.capacity - offset
+      if (remaining < 4) {
+        position += remaining
+        continue
+      }
+
+      val length = this.ring.getInt(offset)
+      if (length == PADDING) {
+        position += remaining
+        continue
+      }
+      position += length
+
+      record.limit(offset + length)
+      record.position(offset + 4)
+      val timestamp = record.long
+      val id = record.short.toInt()
+
+      if (!resolved[id]) {
+        resolved[id] = true
+        types[id] = this.resolve(this.typeDescriptors[id], classLoader)
+      }
+      val type = types[id] ?: continue
+
+      if (paced) {
+        if (origin == -1L) {
+          origin = System.nanoTime() - timestamp
+        }
+
+        var delay = origin + timestamp - System.nanoTime()
+        while (delay > 0) {
+          LockSupport.parkNanos(delay)
+          delay = origin + timestamp - System.nanoTime()
+        }
+      }
+
+      val event = type.decode(record, classLoader)
+      while (!bus.replay(event)) {
+        LockSupport.parkNanos(RETRY_INTERVAL)
+      }
+      ++count
+    }
+
+    return count
+  }
+
+  /**
+   * Resolves a recorded type within the given class loader.
+   *
+   * @return a resolved type or null if the type is not visible to the class loader.
+   */
+  private fun resolve(descriptor: TypeDescriptor, classLoader: ClassLoader): ReplayType? {
+    val type = try {
+      Class.forName(descriptor.name, true, classLoader)
+    } catch (ex: ClassNotFoundException) {
+      logger.warn("Skipping events of type %s: Type is not visible", descriptor.name)
+      return null
+    }
+
+    if (!Event::class.java.isAssignableFrom(type)) {
+      logger.warn("Skipping events of type %s: Type is not an event", descriptor.name)
+      return null
+    }
+
+    val fields = descriptor.fields.map { name ->
+      ReflectionUtils.findField(type, name)?.also(ReflectionUtils::makeAccessible)
+    }
+
+    return ReplayType(objenesis.getInstantiatorOf(type), fields)
+  }
+
+  /**
+   * Describes a type as it is declared within the type dictionary.
+   */
+  private class TypeDescriptor(val name: String, val fields: List<String>)
+
+  /**
+   * Describes a recorded type which has been resolved for replay.
+   */
+  private class ReplayType(
+      private val instantiator: ObjectInstantiator<*>,
+      private val fields: List<Field?>) {
+
+    /**
+     * Re-constructs an event from its recorded fields.
+     */
+    fun decode(buffer: ByteBuffer, classLoader: ClassLoader): Event<Any> {
+      @Suppress("UNCHECKED_CAST")
+      val event = this.instantiator.newInstance() as Event<Any>
+
+      for (field in this.fields) {
+        val value = try {
+          EventRecordFormat.readValue(buffer, classLoader)
+        } catch (ex: ClassNotFoundException) {
+          EventRecordFormat.Unsupported
+        }
+        if (field == null || value === EventRecordFormat.Unsupported
+            || !ClassUtils.isAssignableValue(field.type, value)) {
+          continue
+        }
+
+        field.set(event, value)
+      }
+
+      return event
+    }
+  }
+
+  companion object {
+
+    private val logger = LogManager.getFormatterLogger(EventReplay::class.java)
+    private val objenesis = ObjenesisStd(true)
+
+    /**
+     * Defines the interval (in nanoseconds) in which a saturated main thread queue is re-tried.
+     */
+    private val RETRY_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1)
+
+    /**
+     * Reads a recording from the given file.
+     *
+     * @param path a recording file.
+     * @return a replay of the recording.
+     * @throws IOException when reading the file fails or the file is not a valid recording.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun open(path: Path): EventReplay {
+      val buffer = FileChannel.open(path, StandardOpenOption.READ).use {
+        it.map(FileChannel.MapMode.READ_ONLY, 0, it.size())
+      }
+
+      if (buffer.limit() < RING_OFFSET || buffer.getInt(0) != EventRecordFormat.MAGIC) {
+        throw IOException("Illegal recording: File $path is not an event recording")
+      }
+      if (buffer.getShort(4) != EventRecordFormat.VERSION) {
+        throw IOException("Illegal recording: Unsupported version ${buffer.getShort(4)}")
+      }
+
+      return EventReplay(buffer)
+    }
+  }
+}
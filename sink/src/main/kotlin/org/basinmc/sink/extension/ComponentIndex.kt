@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.util.*
+
+/**
+ * Represents the component index of an extension container.
+ *
+ * The index is generated at compile time by `spring-context-indexer` (which extension builds
+ * register as an annotation processor) and lists all types within the container which carry a
+ * stereotype annotation. When present, components are registered directly from the index rather
+ * than locating them through classpath scanning which needs to read every class within the
+ * scanned packages.
+ *
+ * Contrary to Spring's own index support, only the index of the respective container is
+ * considered (e.g. indices provided by the server or other extensions are ignored).
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ * @since 1.0
+ */
+internal class ComponentIndex private constructor(private val entries: Properties) {
+
+  /**
+   * Retrieves the names of all components within a given package or its sub-packages.
+   *
+   * @param basePackage a package name.
+   * @return a sorted list of class names.
+   */
+  fun getComponents(basePackage: String) = this.entries.stringPropertyNames()
+      .filter { it == basePackage || it.startsWith("$basePackage.") }
+      .filter { name ->
+        this.entries.getProperty(name).split(',').any { it.trim() == COMPONENT_STEREOTYPE }
+      }
+      .sorted()
+
+  companion object {
+
+    /**
+     * Defines the location of the component index within a container.
+     */
+    const val LOCATION = "META-INF/spring.components"
+
+    /**
+     * Defines the stereotype which identifies components within the index.
+     */
+    private const val COMPONENT_STEREOTYPE = "org.springframework.stereotype.Component"
+
+    /**
+     * Reads the component index of a container.
+     *
+     * @param container an extension container.
+     * @return an index or null if the container does not provide an index.
+     * @throws IOException when the index cannot be read.
+     */
+    @Throws(IOException::class)
+    fun read(container: ExtensionContainer): ComponentIndex? {
+      val buffer = container.read(LOCATION) ?: return null
+
+      val bytes = ByteArray(buffer.remaining())
+      buffer.get(bytes)
+
+      val entries = Properties()
+      ByteArrayInputStream(bytes).use(entries::load)
+      return ComponentIndex(entries)
+    }
+  }
+}
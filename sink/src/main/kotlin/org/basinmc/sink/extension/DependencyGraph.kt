@@ -0,0 +1,239 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import org.basinmc.faucet.extension.dependency.ExtensionDependency
+import java.util.*
+
+/**
+ * Represents the dependency graph of a set of extensions.
+ *
+ * Each extension dependency is resolved to the highest version of the referenced extension which
+ * matches its version range. The resulting graph is partitioned into topological layers where each
+ * layer exclusively depends on the extensions of previous layers and may thus be processed in
+ * parallel once all previous layers have been processed.
+ *
+ * Optional dependencies order the layers where possible but never prevent an extension from being
+ * placed. When the remaining extensions cannot be placed otherwise (e.g. as two extensions
+ * optionally depend on each other), the optional dependencies of one extension at a time are
+ * ignored until the graph can be layered again.
+ *
+ * Extensions which are part of a cycle of required dependencies (or depend on such an extension)
+ * are excluded from all layers.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal class DependencyGraph(extensions: Collection<ExtensionImpl>) {
+
+  /**
+   * Retrieves the resolved dependencies of each extension along with the dependency declaration
+   * which they satisfy.
+   */
+  val edges: Map<ExtensionImpl, Map<ExtensionImpl, ExtensionDependency>>
+
+  /**
+   * Retrieves the topological layers of this graph.
+   */
+  val layers: List<List<ExtensionImpl>>
+
+  /**
+   * Retrieves the cycles of required dependencies within this graph (in dependency order).
+   *
+   * Every extension which is part of such a cycle is covered by at least one of the returned
+   * cycles.
+   */
+  val cycles: List<List<ExtensionImpl>>
+
+  /**
+   * Retrieves the extensions which have been excluded from all layers as they transitively
+   * depend on a cycle.
+   */
+  val blocked: List<ExtensionImpl>
+
+  init {
+    val candidates = extensions.groupBy { it.manifest.identifier.toLowerCase() }
+
+    this.edges = extensions.associateWith { extension ->
+      extension.manifest.extensionDependencies
+          .mapNotNull { dependency ->
+            candidates[dependency.identifier.toLowerCase()]
+                ?.filter { it !== extension && dependency.matches(it.manifest) }
+                ?.maxBy { it.manifest.version }
+                ?.let { it to dependency }
+          }
+          .toMap()
+    }
+
+    // Kahn's algorithm in rounds: each round consumes all extensions whose dependencies have been
+    // consumed in previous rounds
+    val pending = this.edges.mapValuesTo(LinkedHashMap()) { (_, deps) -> deps.keys.toMutableSet() }
+    val layers = mutableListOf<List<ExtensionImpl>>()
+    while (pending.isNotEmpty()) {
+      val layer = pending.filterValues { it.isEmpty() }.keys
+          .sortedBy { it.manifest.identifier }
+      if (layer.isEmpty()) {
+        // the remaining extensions wait for each other - ignore the optional dependencies of a
+        // single extension (if any) in order to break the cycle while retaining as much of the
+        // optional ordering as possible
+        val relaxed = pending.entries
+            .filter { (e, deps) -> deps.all { this.edges.getValue(e).getValue(it).optional } }
+            .minBy { (e, _) -> e.manifest.identifier }
+            ?: break
+
+        relaxed.value.clear()
+        continue
+      }
+
+      layer.forEach { pending.remove(it) }
+      pending.values.forEach { it.removeAll(layer) }
+      layers += layer
+    }
+
+    // only required dependencies remain relevant as optional dependencies never block
+    val required = pending.mapValues { (e, deps) ->
+      deps.filter { !this.edges.getValue(e).getValue(it).optional }.toSet()
+    }
+
+    this.layers = layers
+    this.cycles = findCycles(required)
+    this.blocked = pending.keys.filter { e -> this.cycles.none { e in it } }
+  }
+
+  companion object {
+
+    /**
+     * Locates the cycles within a set of extensions which could not be placed into a layer.
+     *
+     * Every such extension is either part of a cycle or (transitively) depends on one. Cycles are
+     * located by computing the strongly connected components of the remaining graph. For each
+     * member of a component which is not yet covered by a previously located cycle, the shortest
+     * cycle through the member is reported.
+     *
+     * @param pending a map of extensions and their unprocessed required dependencies.
+     * @return a list of cycles.
+     */
+    private fun findCycles(
+        pending: Map<ExtensionImpl, Set<ExtensionImpl>>): List<List<ExtensionImpl>> {
+      val cycles = mutableListOf<List<ExtensionImpl>>()
+
+      for (component in findComponents(pending)) {
+        if (component.size < 2) {
+          continue
+        }
+
+        val covered = mutableSetOf<ExtensionImpl>()
+        for (start in component.sortedBy { it.manifest.identifier }) {
+          if (start in covered) {
+            continue
+          }
+
+          val cycle = shortestCycle(pending, component, start)
+          covered += cycle
+          cycles += cycle
+        }
+      }
+
+      return cycles
+    }
+
+    /**
+     * Computes the strongly connected components of a graph (using Tarjan's algorithm).
+     *
+     * @param graph a map of nodes and their successors.
+     * @return a list of components in reverse topological order.
+     */
+    private fun findComponents(
+        graph: Map<ExtensionImpl, Set<ExtensionImpl>>): List<Set<ExtensionImpl>> {
+      val components = mutableListOf<Set<ExtensionImpl>>()
+      val indices = HashMap<ExtensionImpl, Int>()
+      val lowLinks = HashMap<ExtensionImpl, Int>()
+      val stack = ArrayDeque<ExtensionImpl>()
+      val onStack = mutableSetOf<ExtensionImpl>()
+
+      fun connect(node: ExtensionImpl) {
+        indices[node] = indices.size
+        lowLinks[node] = indices.getValue(node)
+        stack.push(node)
+        onStack += node
+
+        for (successor in graph[node].orEmpty().sortedBy { it.manifest.identifier }) {
+          if (successor !in graph) {
+            continue
+          }
+
+          if (successor !in indices) {
+            connect(successor)
+            lowLinks[node] = minOf(lowLinks.getValue(node), lowLinks.getValue(successor))
+          } else if (successor in onStack) {
+            lowLinks[node] = minOf(lowLinks.getValue(node), indices.getValue(successor))
+          }
+        }
+
+        if (lowLinks[node] == indices[node]) {
+          val component = mutableSetOf<ExtensionImpl>()
+          do {
+            val member = stack.pop()
+            onStack -= member
+            component += member
+          } while (member !== node)
+
+          components += component
+        }
+      }
+
+      graph.keys.sortedBy { it.manifest.identifier }
+          .filter { it !in indices }
+          .forEach(::connect)
+      return components
+    }
+
+    /**
+     * Locates the shortest cycle through a given node within its strongly connected component.
+     *
+     * @param graph a map of nodes and their successors.
+     * @param component the component of the node.
+     * @param start a node.
+     * @return a cycle which starts with the given node (in dependency order).
+     */
+    private fun shortestCycle(graph: Map<ExtensionImpl, Set<ExtensionImpl>>,
+        component: Set<ExtensionImpl>, start: ExtensionImpl): List<ExtensionImpl> {
+      val predecessors = HashMap<ExtensionImpl, ExtensionImpl>()
+      val queue = ArrayDeque<ExtensionImpl>()
+      queue += start
+
+      // breadth first search within the component until an edge leads back to the start
+      while (queue.isNotEmpty()) {
+        val node = queue.poll()
+        for (successor in graph.getValue(node).sortedBy { it.manifest.identifier }) {
+          if (successor === start) {
+            val cycle = generateSequence(node) { if (it === start) null else predecessors[it] }
+                .toMutableList()
+            cycle.reverse()
+            return cycle
+          }
+
+          if (successor in component && successor !in predecessors) {
+            predecessors[successor] = node
+            queue += successor
+          }
+        }
+      }
+
+      throw IllegalStateException("No cycle through ${start.manifest.identifier}")
+    }
+  }
+}
@@ -16,43 +16,247 @@
  */
 package org.basinmc.sink.extension
 
-import java.net.MalformedURLException
-import java.net.URLClassLoader
+import org.basinmc.sink.util.ByteBufferInputStream
+import java.io.Closeable
+import java.io.IOException
+import java.net.URL
+import java.security.CodeSigner
+import java.security.CodeSource
+import java.security.SecureClassLoader
+import java.util.*
+import java.util.jar.Attributes
+import java.util.jar.JarFile
+import java.util.jar.Manifest
 
 /**
+ * Provides a class loader which loads classes from an extension container and falls back to the
+ * containers of its resolved dependencies.
+ *
+ * The container is memory mapped and indexed once when the loader is created (see
+ * [ExtensionContainer]) and classes are defined directly from the buffers which are handed out
+ * by the container. Resources are exposed through `basin-ext:` URLs (see
+ * [ExtensionURLStreamHandler]).
+ *
+ * Classes which are not part of the own container are located through an index which maps each
+ * package to the dependency loaders which provide it (including transitive dependencies) while
+ * names which have been found to be absent are retained within a bounded negative cache. As a
+ * result, dependency lookups consist of a map probe and never raise an exception when a class is
+ * absent.
+ *
  * @author [Johannes Donath](mailto:johannesd@torchmind.com)
  * @since 1.0
  */
-class ExtensionClassLoader @Throws(MalformedURLException::class)
+class ExtensionClassLoader @Throws(IOException::class)
 constructor(val extension: ExtensionImpl) :
-    URLClassLoader(arrayOf(extension.containerPath.toUri().toURL()),
-        ExtensionClassLoader::class.java.classLoader) {
+    SecureClassLoader(ExtensionClassLoader::class.java.classLoader), Closeable {
+
+  /**
+   * Provides access to the entries of the extension container.
+   */
+  internal val container = ExtensionContainer(extension.containerPath)
+
+  /**
+   * Resolves the resource URLs which are handed out by this loader.
+   */
+  internal val urlHandler = ExtensionURLStreamHandler(this.container,
+      "${extension.manifest.identifier}@${extension.manifest.version}")
+
+  private val codeSource = CodeSource(this.urlHandler.rootUrl, null as Array<CodeSigner>?)
+
+  /**
+   * Identifies the binary names of all classes within the container.
+   */
+  internal val classNames: Set<String> = this.container.names.asSequence()
+      .filter { it.endsWith(".class") }
+      .mapTo(HashSet()) { it.removeSuffix(".class").replace('/', '.') }
+
+  /**
+   * Retrieves the packages which are provided by the container.
+   */
+  val packages: Set<String> = this.classNames.mapTo(HashSet()) { packageOf(it) }
+
+  private val manifest by lazy(this::readManifest)
+
+  private val dependencyIndex by lazy(this::buildDependencyIndex)
+
+  private val absentNames = Collections.synchronizedMap(
+      object : LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Boolean>) =
+            this.size > NEGATIVE_CACHE_SIZE
+      })
 
   /**
    * {@inheritDoc}
    */
   @Throws(ClassNotFoundException::class)
-  override fun findClass(name: String): Class<*>? = try {
-    super.findClass(name)
-  } catch (ex: ClassNotFoundException) {
-    this.findDependencyClass(name) ?: throw ex
+  override fun findClass(name: String): Class<*> {
+    if (name in this.classNames) {
+      return this.defineLocalClass(name)
+    }
+
+    return this.findDependencyClass(name) ?: throw ClassNotFoundException(name)
+  }
+
+  /**
+   * Defines a class from the container of this loader.
+   *
+   * @param name a class name.
+   * @return a class.
+   * @throws ClassNotFoundException when the class cannot be read from the container.
+   */
+  @Throws(ClassNotFoundException::class)
+  private fun defineLocalClass(name: String): Class<*> {
+    val buffer = try {
+      this.container.read(name.replace('.', '/') + ".class")
+    } catch (ex: IOException) {
+      throw ClassNotFoundException(name, ex)
+    } ?: throw ClassNotFoundException(name)
+
+    this.definePackage(packageOf(name))
+    return this.defineClass(name, buffer, this.codeSource)
+  }
+
+  /**
+   * Defines a package (unless it has previously been defined) using the specification and
+   * implementation attributes of the container manifest.
+   *
+   * @param name a package name.
+   */
+  @Suppress("DEPRECATION")
+  private fun definePackage(name: String) {
+    if (name.isEmpty() || this.getPackage(name) != null) {
+      return
+    }
+
+    val attributes = this.manifest?.mainAttributes
+    try {
+      this.definePackage(name,
+          attributes?.getValue(Attributes.Name.SPECIFICATION_TITLE),
+          attributes?.getValue(Attributes.Name.SPECIFICATION_VERSION),
+          attributes?.getValue(Attributes.Name.SPECIFICATION_VENDOR),
+          attributes?.getValue(Attributes.Name.IMPLEMENTATION_TITLE),
+          attributes?.getValue(Attributes.Name.IMPLEMENTATION_VERSION),
+          attributes?.getValue(Attributes.Name.IMPLEMENTATION_VENDOR),
+          null)
+    } catch (ex: IllegalArgumentException) {
+      // another thread has defined the package in the meantime
+    }
+  }
+
+  /**
+   * Locates a class within the container of this loader without consulting its dependencies.
+   *
+   * @param name a class name.
+   * @return a class or null if the container does not provide the class.
+   */
+  private fun findLocalClass(name: String): Class<*>? {
+    if (name !in this.classNames) {
+      return null
+    }
+
+    return synchronized(this.getClassLoadingLock(name)) {
+      this.findLoadedClass(name) ?: this.defineLocalClass(name)
+    }
   }
 
   /**
    * Locates a class within the extension's resolved dependencies.
    *
    * @param name a class name.
-   * @return a resolved class or, if none was found, an empty optional.
+   * @return a resolved class or, if none was found, null.
+   */
+  private fun findDependencyClass(name: String): Class<*>? {
+    if (this.absentNames.containsKey(name)) {
+      return null
+    }
+
+    val candidates = this.dependencyIndex[packageOf(name)] ?: emptyList<ExtensionClassLoader>()
+    for (loader in candidates) {
+      loader.findLocalClass(name)?.let { return it }
+    }
+
+    this.absentNames[name] = true
+    return null
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun findResource(name: String): URL? {
+    if (name !in this.container) {
+      return null
+    }
+
+    return this.urlHandler.createURL(name)
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Throws(IOException::class)
+  override fun findResources(name: String): Enumeration<URL> =
+      Collections.enumeration(listOfNotNull(this.findResource(name)))
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun close() {
+    this.container.close()
+  }
+
+  /**
+   * Reads the manifest of the container (if any).
+   *
+   * @return a manifest or null if the container does not provide a readable manifest.
    */
-  private fun findDependencyClass(name: String): Class<*>? = this.extension.resolvedDependencies
-      .mapNotNull {
-        val classLoader = it.classLoader ?: return@mapNotNull null
+  private fun readManifest(): Manifest? = try {
+    this.container.read(JarFile.MANIFEST_NAME)
+        ?.let { ByteBufferInputStream(it).use(::Manifest) }
+  } catch (ex: IOException) {
+    null
+  }
 
-        try {
-          classLoader.findClass(name)
-        } catch (ex: ClassNotFoundException) {
-          return@mapNotNull null
-        }
+  /**
+   * Indexes the packages of all (transitive) dependencies of the extension.
+   *
+   * @return a map of packages and the dependency loaders which provide them.
+   */
+  private fun buildDependencyIndex(): Map<String, List<ExtensionClassLoader>> {
+    val packages = HashMap<String, MutableList<ExtensionClassLoader>>()
+
+    val visited = mutableSetOf<ExtensionImpl>(this.extension)
+    val queue = ArrayDeque<ExtensionImpl>(this.extension.resolvedDependencies)
+    while (!queue.isEmpty()) {
+      val dependency = queue.poll()
+      if (!visited.add(dependency)) {
+        continue
       }
-      .firstOrNull()
+      queue += dependency.resolvedDependencies
+
+      val loader = dependency.classLoader ?: continue
+      loader.packages.forEach { packages.computeIfAbsent(it) { mutableListOf() } += loader }
+    }
+
+    return packages
+  }
+
+  companion object {
+
+    /**
+     * Defines the maximum amount of absent class names which are retained per loader.
+     */
+    private const val NEGATIVE_CACHE_SIZE = 4096
+
+    init {
+      ClassLoader.registerAsParallelCapable()
+    }
+
+    /**
+     * Extracts the package name from a binary class name.
+     *
+     * @param name a class name.
+     * @return a package name (empty for the default package).
+     */
+    private fun packageOf(name: String) = name.substringBeforeLast('.', "")
+  }
 }
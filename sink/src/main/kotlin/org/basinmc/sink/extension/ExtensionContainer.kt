@@ -0,0 +1,321 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.charset.Charset
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.zip.DataFormatException
+import java.util.zip.Inflater
+import java.util.zip.ZipException
+
+/**
+ * Provides read access to the entries of an extension container.
+ *
+ * The container is memory mapped once when it is opened and its central directory is indexed
+ * ahead of time. Stored entries are exposed as slices of the mapped region while compressed
+ * entries are inflated into a heap buffer when they are read. As a result, lookups do not access
+ * the file system and may be performed concurrently without any synchronization.
+ *
+ * Since accessing a mapped region fails fatally when its file is truncated or rewritten (e.g. when
+ * an updated container is copied over the original file while the server is running), the
+ * container is copied to a private temporary file which is mapped instead. The copy is unlinked
+ * as soon as it has been mapped (or when the VM exits on platforms which do not permit the removal
+ * of mapped files) and thus remains unaffected by any later modification of the original file.
+ *
+ * Note that the mapped region is released by the garbage collector once all buffers which have
+ * been handed out by the container become unreachable rather than when the container is closed.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ * @since 1.0
+ */
+class ExtensionContainer @Throws(IOException::class) constructor(val path: Path) :
+    AutoCloseable {
+
+  @Volatile
+  private var buffer: ByteBuffer? = null
+  private val entries: Map<String, Entry>
+
+  /**
+   * Identifies the time at which the container has last been modified (in milliseconds since the
+   * epoch).
+   */
+  val lastModified = Files.getLastModifiedTime(path).toMillis()
+
+  /**
+   * Retrieves the names of all file entries within the container.
+   */
+  val names: Set<String>
+    get() = this.entries.keys
+
+  /**
+   * Retrieves the names of all directories within the container (including those which are only
+   * implied by the names of their children). Directory names always end in a slash.
+   */
+  val directories: Set<String>
+
+  init {
+    val buffer = map(path)
+
+    this.buffer = buffer
+    this.entries = readCentralDirectory(buffer)
+    this.directories = this.entries.keys.flatMapTo(HashSet()) { name ->
+      generateSequence(name.lastIndexOf('/')) { name.lastIndexOf('/', it - 1) }
+          .takeWhile { it > 0 }
+          .map { name.substring(0, it + 1) }
+          .asIterable()
+    }
+  }
+
+  /**
+   * Evaluates whether the container provides a file or directory of the given name.
+   *
+   * @param name an entry name.
+   * @return true if the entry exists, false otherwise.
+   */
+  operator fun contains(name: String) = name in this.entries || name in this.directories
+
+  /**
+   * Reads the contents of a file entry.
+   *
+   * The resulting buffer is either a read-only slice of the mapped container or, when the entry
+   * is compressed, a newly allocated heap buffer.
+   *
+   * @param name an entry name.
+   * @return a buffer or null if no such file exists within the container.
+   * @throws IOException when the container has been closed or the entry is malformed.
+   */
+  @Throws(IOException::class)
+  fun read(name: String): ByteBuffer? {
+    val entry = this.entries[name] ?: return null
+    val data = (this.buffer ?: throw IOException("Container has been closed: $path"))
+        .duplicate()
+        .order(ByteOrder.LITTLE_ENDIAN)
+
+    val header = entry.headerOffset
+    if (header > data.capacity() - LOCAL_HEADER_SIZE
+        || data.getInt(header) != LOCAL_HEADER_SIGNATURE) {
+      throw ZipException("Malformed local header for entry $name")
+    }
+
+    val start = header + LOCAL_HEADER_SIZE + data.getUnsignedShort(header + 26) +
+        data.getUnsignedShort(header + 28)
+    if (start.toLong() + entry.compressedSize > data.capacity()) {
+      throw ZipException("Truncated entry $name")
+    }
+
+    data.limit(start + entry.compressedSize)
+    data.position(start)
+
+    return when (entry.method) {
+      METHOD_STORED -> data.slice()
+      METHOD_DEFLATED -> inflate(name, data, entry.size)
+      else -> throw ZipException("Unsupported compression method ${entry.method} for entry $name")
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun close() {
+    this.buffer = null
+  }
+
+  /**
+   * Represents a single file entry within the central directory.
+   */
+  private class Entry(
+      val method: Int,
+      val compressedSize: Int,
+      val size: Int,
+      val headerOffset: Int)
+
+  companion object {
+
+    private const val END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50
+    private const val END_OF_CENTRAL_DIRECTORY_SIZE = 22
+    private const val CENTRAL_HEADER_SIGNATURE = 0x02014b50
+    private const val CENTRAL_HEADER_SIZE = 46
+    private const val LOCAL_HEADER_SIGNATURE = 0x04034b50
+    private const val LOCAL_HEADER_SIZE = 30
+    private const val MAXIMUM_COMMENT_LENGTH = 0xFFFF
+
+    private const val FLAG_ENCRYPTED = 0x01
+    private const val FLAG_UTF8 = 0x800
+    private const val METHOD_STORED = 0
+    private const val METHOD_DEFLATED = 8
+
+    private val legacyCharset = Charset.forName("IBM437")
+
+    /**
+     * Maps a private copy of a container into memory.
+     *
+     * @param path a container path.
+     * @return a buffer which spans the entire container.
+     * @throws IOException when the container cannot be copied or mapped.
+     */
+    @Throws(IOException::class)
+    private fun map(path: Path): ByteBuffer {
+      val copy = Files.createTempFile("basin-ext", ".bec")
+      try {
+        Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING)
+
+        return FileChannel.open(copy, StandardOpenOption.READ).use { channel ->
+          val size = channel.size()
+          if (size > Int.MAX_VALUE) {
+            throw IOException("Container exceeds maximum size of ${Int.MAX_VALUE} bytes: $size")
+          }
+
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+              .order(ByteOrder.LITTLE_ENDIAN)
+        }
+      } finally {
+        try {
+          Files.delete(copy)
+        } catch (ex: IOException) {
+          copy.toFile().deleteOnExit()
+        }
+      }
+    }
+
+    /**
+     * Indexes all file entries within the central directory of a container.
+     *
+     * @param buffer a buffer which spans the entire container.
+     * @return a map of entry names and their respective central directory records.
+     * @throws ZipException when the container is malformed or uses unsupported features.
+     */
+    @Throws(ZipException::class)
+    private fun readCentralDirectory(buffer: ByteBuffer): Map<String, Entry> {
+      val end = locateEndOfCentralDirectory(buffer)
+      val count = buffer.getUnsignedShort(end + 10)
+      val offset = buffer.getInt(end + 16)
+      if (count == 0xFFFF || offset == -1) {
+        throw ZipException("ZIP64 containers are not supported")
+      }
+
+      val entries = HashMap<String, Entry>()
+      var position = offset
+      for (i in 0 until count) {
+        if (position < 0 || position > buffer.capacity() - CENTRAL_HEADER_SIZE
+            || buffer.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+          throw ZipException("Malformed central directory record at offset $position")
+        }
+
+        // names are encoded in CP437 unless the language encoding flag has been set
+        val flags = buffer.getUnsignedShort(position + 8)
+        val nameLength = buffer.getUnsignedShort(position + 28)
+        val name = buffer.getString(position + CENTRAL_HEADER_SIZE, nameLength,
+            if (flags and FLAG_UTF8 != 0) StandardCharsets.UTF_8 else legacyCharset)
+        if (flags and FLAG_ENCRYPTED != 0) {
+          throw ZipException("Encrypted entries are not supported: $name")
+        }
+
+        if (!name.endsWith('/')) {
+          entries[name] = Entry(
+              buffer.getUnsignedShort(position + 10),
+              buffer.getInt(position + 20),
+              buffer.getInt(position + 24),
+              buffer.getInt(position + 42))
+        }
+
+        position += CENTRAL_HEADER_SIZE + nameLength + buffer.getUnsignedShort(position + 30) +
+            buffer.getUnsignedShort(position + 32)
+      }
+
+      return entries
+    }
+
+    /**
+     * Locates the end of central directory record by scanning backwards from the end of the
+     * container (as the record may be followed by an arbitrarily sized comment).
+     *
+     * @param buffer a buffer which spans the entire container.
+     * @return the offset of the record.
+     * @throws ZipException when no such record exists.
+     */
+    @Throws(ZipException::class)
+    private fun locateEndOfCentralDirectory(buffer: ByteBuffer): Int {
+      val last = buffer.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE
+      val first = maxOf(0, last - MAXIMUM_COMMENT_LENGTH)
+
+      for (position in last downTo first) {
+        if (buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+          return position
+        }
+      }
+
+      throw ZipException("Not a valid extension container: Missing central directory")
+    }
+
+    /**
+     * Inflates a compressed entry into a newly allocated heap buffer.
+     *
+     * @param name an entry name.
+     * @param data a buffer which spans the compressed data.
+     * @param size the uncompressed size of the entry.
+     * @return a buffer which contains the uncompressed data.
+     * @throws ZipException when the compressed data is malformed.
+     */
+    @Throws(ZipException::class)
+    private fun inflate(name: String, data: ByteBuffer, size: Int): ByteBuffer {
+      // zlib may require an additional dummy byte when no header is present
+      val input = ByteArray(data.remaining() + 1)
+      data.get(input, 0, input.size - 1)
+
+      val output = ByteArray(size)
+      val inflater = Inflater(true)
+      try {
+        inflater.setInput(input)
+
+        var offset = 0
+        while (offset < size) {
+          val length = inflater.inflate(output, offset, size - offset)
+          if (length == 0 && (inflater.finished() || inflater.needsInput())) {
+            throw ZipException("Truncated entry $name")
+          }
+
+          offset += length
+        }
+      } catch (ex: DataFormatException) {
+        throw ZipException("Malformed entry $name: ${ex.message}")
+      } finally {
+        inflater.end()
+      }
+
+      return ByteBuffer.wrap(output)
+    }
+
+    private fun ByteBuffer.getUnsignedShort(index: Int) = this.getShort(index).toInt() and 0xFFFF
+
+    private fun ByteBuffer.getString(index: Int, length: Int, charset: Charset): String {
+      val bytes = ByteArray(length)
+      for (i in 0 until length) {
+        bytes[i] = this.get(index + i)
+      }
+
+      return String(bytes, charset)
+    }
+  }
+}
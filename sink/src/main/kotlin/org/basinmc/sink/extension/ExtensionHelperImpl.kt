@@ -35,6 +35,9 @@ class ExtensionHelperImpl : ExtensionHelper {
   override val firstCallingExtension: Extension?
     get() = this.extensionFrames.lastOrNull()
 
+  override fun getExtension(classLoader: ClassLoader?) =
+      (classLoader as? ExtensionClassLoader)?.extension
+
   private val extensionFrames: List<ExtensionImpl>
     get() = this.stackWalker
         .walk { stream ->
@@ -20,17 +20,15 @@ import org.apache.logging.log4j.LogManager
 import org.apache.logging.log4j.Logger
 import org.basinmc.faucet.extension.Extension
 import org.basinmc.faucet.extension.dependency.ExtensionDependency
-import org.basinmc.faucet.extension.dependency.ServiceDependency
+import org.basinmc.faucet.extension.dependency.ServiceVersion
 import org.basinmc.faucet.extension.error.ExtensionAccessException
 import org.basinmc.faucet.extension.error.ExtensionContainerException
 import org.basinmc.faucet.extension.error.ExtensionException
 import org.basinmc.faucet.extension.error.ExtensionResolverException
 import org.basinmc.sink.extension.manifest.ExtensionManifestImpl
-import org.springframework.beans.factory.config.ConfigurableBeanFactory
 import org.springframework.context.ApplicationContext
 import org.springframework.context.annotation.AnnotationConfigApplicationContext
 import java.io.IOException
-import java.net.MalformedURLException
 import java.nio.channels.FileChannel
 import java.nio.file.Path
 import java.nio.file.StandardOpenOption
@@ -40,20 +38,17 @@ import java.util.*
  * @author [Johannes Donath](mailto:johannesd@torchmind.com)
  * @since 1.0
  */
-class ExtensionImpl @Throws(ExtensionException::class) internal constructor(
+class ExtensionImpl internal constructor(
     /**
      * Retrieves the path to the container file from which this extension definition originates.
      *
      * @return a container file path.
      */
-    val containerPath: Path) : AutoCloseable, Extension {
+    val containerPath: Path,
+    override val manifest: ExtensionManifestImpl) : AutoCloseable, Extension {
 
-  override val manifest: ExtensionManifestImpl = try {
-    FileChannel.open(containerPath, StandardOpenOption.READ)
-        .use(::ExtensionManifestImpl)
-  } catch (ex: IOException) {
-    throw ExtensionAccessException("Cannot read container file", ex)
-  }
+  @Throws(ExtensionException::class)
+  internal constructor(containerPath: Path) : this(containerPath, readManifest(containerPath))
 
   private var _phase: Extension.Phase = Extension.Phase.REGISTERED
   override val phase: Extension.Phase
@@ -87,6 +82,9 @@ class ExtensionImpl @Throws(ExtensionException::class) internal constructor(
     if (this.phase != Extension.Phase.REGISTERED) {
       throw IllegalStateException("Cannot wire dependency in " + this.phase + " phase")
     }
+    if (extension in this._resolvedDependencies) {
+      return
+    }
 
     this._resolvedDependencies += extension
 
@@ -95,14 +93,23 @@ class ExtensionImpl @Throws(ExtensionException::class) internal constructor(
     }
   }
 
+  /**
+   * Verifies that all required extension and service dependencies are available.
+   *
+   * @param services the services which are declared by all registered extensions.
+   * @throws ExtensionContainerException when one or more dependencies are unavailable.
+   */
   @Throws(ExtensionContainerException::class)
-  internal fun resolve() {
+  internal fun resolve(services: Collection<ServiceVersion>) {
     val unresolvedExtensions = this.manifest.extensionDependencies
         .filter { dep -> !dep.optional }
         .filter { dep -> this.resolvedDependencies.none { dep.matches(it.manifest) } }
 
-    // TODO: Resolve services
-    val unresolvedServices = emptyList<ServiceDependency>()
+    val unresolvedServices = this.manifest.serviceDependencies
+        .filter { dep -> !dep.optional }
+        .filter { dep ->
+          services.none { it.identifier == dep.baseClassName && it.version in dep.versionRange }
+        }
 
     if (!unresolvedExtensions.isEmpty() || !unresolvedServices.isEmpty()) {
       throw ExtensionResolverException(this.manifest, unresolvedExtensions,
@@ -151,8 +158,8 @@ class ExtensionImpl @Throws(ExtensionException::class) internal constructor(
     // TODO: Check for package overlaps
 
     try {
-      this._classLoader = ExtensionClassLoader(this) // TODO: Custom URL scheme for extensions?
-    } catch (ex: MalformedURLException) {
+      this._classLoader = ExtensionClassLoader(this)
+    } catch (ex: IOException) {
       throw ExtensionContainerException("Failed to open extension container", ex)
     }
 
@@ -182,12 +189,12 @@ class ExtensionImpl @Throws(ExtensionException::class) internal constructor(
     this._context = AnnotationConfigApplicationContext().let { ctx ->
       ctx.parent = parentContext
       ctx.classLoader = this.classLoader
+      ctx.setResourceLoader(ExtensionResourcePatternResolver(this.classLoader!!))
 
-      ctx.getBean(ConfigurableBeanFactory::class.java)
-          .registerSingleton("logger", this.logger)
+      ctx.beanFactory.registerSingleton("logger", this.logger)
 
       try {
-        ctx.scan(this.manifest.identifier)
+        this.registerComponents(ctx)
         ctx.refresh()
         ctx.start()
       } catch (ex: Throwable) {
@@ -200,6 +207,31 @@ class ExtensionImpl @Throws(ExtensionException::class) internal constructor(
     }
   }
 
+  /**
+   * Registers the components of the extension with its context.
+   *
+   * Components are registered directly from the component index of the container when present
+   * and are otherwise located by scanning the base package of the extension.
+   *
+   * @param ctx an extension context.
+   * @throws IOException when the component index cannot be read.
+   * @throws ClassNotFoundException when an indexed component cannot be loaded.
+   */
+  @Throws(IOException::class, ClassNotFoundException::class)
+  private fun registerComponents(ctx: AnnotationConfigApplicationContext) {
+    val classLoader = this.classLoader!!
+    val index = ComponentIndex.read(classLoader.container)
+    if (index == null) {
+      this.logger.debug("No component index present - Falling back to classpath scanning")
+      ctx.scan(this.manifest.identifier)
+      return
+    }
+
+    val components = index.getComponents(this.manifest.identifier)
+        .map { Class.forName(it, false, classLoader) }
+    ctx.register(*components.toTypedArray())
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -228,4 +260,22 @@ class ExtensionImpl @Throws(ExtensionException::class) internal constructor(
     this._phase = Extension.Phase.REGISTERED
     this._resolvedDependencies.clear()
   }
+
+  companion object {
+
+    /**
+     * Decodes the manifest of a given container.
+     *
+     * @param containerPath a container file path.
+     * @return a manifest.
+     * @throws ExtensionException when the container cannot be read or decoded.
+     */
+    @Throws(ExtensionException::class)
+    private fun readManifest(containerPath: Path) = try {
+      FileChannel.open(containerPath, StandardOpenOption.READ)
+          .use(::ExtensionManifestImpl)
+    } catch (ex: IOException) {
+      throw ExtensionAccessException("Cannot read container file", ex)
+    }
+  }
 }
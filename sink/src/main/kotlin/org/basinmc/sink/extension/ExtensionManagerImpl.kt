@@ -18,10 +18,17 @@ package org.basinmc.sink.extension
 
 import org.apache.logging.log4j.LogManager
 import org.basinmc.faucet.event.EventBus
+import org.basinmc.faucet.event.Subscription
+import org.basinmc.faucet.event.postIfObserved
 import org.basinmc.faucet.event.extension.*
 import org.basinmc.faucet.extension.Extension.Phase
 import org.basinmc.faucet.extension.ExtensionManager
+import org.basinmc.faucet.extension.error.ExtensionCycleException
 import org.basinmc.faucet.extension.error.ExtensionException
+import org.basinmc.faucet.extension.error.ExtensionResolverException
+import org.basinmc.faucet.extension.manifest.ExtensionFlags
+import org.basinmc.sink.event.handler.ActivationEventHandler
+import org.basinmc.sink.extension.manifest.ManifestIndex
 import org.basinmc.sink.util.LifecycleService
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.beans.factory.annotation.Value
@@ -31,8 +38,16 @@ import java.io.IOException
 import java.nio.file.Files
 import java.nio.file.Path
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.locks.ReentrantLock
+import kotlin.streams.toList
 
 /**
  * @author [Johannes Donath](mailto:johannesd@torchmind.com)
@@ -43,7 +58,9 @@ class ExtensionManagerImpl @Autowired
 constructor(
     private val ctx: ApplicationContext,
     private val eventBus: EventBus,
-    @param:Value("\${basin.extension.dir:extensions/}") private val pluginDir: Path) :
+    @param:Value("\${basin.extension.dir:extensions/}") private val pluginDir: Path,
+    @param:Value("\${basin.extension.discovery.threads:0}") private val discoveryThreads: Int,
+    @param:Value("\${basin.extension.startup.threads:0}") private val startupThreads: Int) :
     LifecycleService(), ExtensionManager {
 
   private val _extensions = CopyOnWriteArrayList<ExtensionImpl>()
@@ -54,6 +71,22 @@ constructor(
   private val lock = ReentrantLock()
   private val registrations = CopyOnWriteArrayList<Path>() // TODO: Probably won't need CopyOnWrite
 
+  private val manifestIndex = ManifestIndex(
+      this.pluginDir.resolveSibling(this.pluginDir.fileName.toString() + ".index"))
+  private var manifestIndexLoaded = false
+
+  private val deferred = ConcurrentHashMap<ExtensionImpl, Subscription>()
+  private val retired = ConcurrentLinkedQueue<Subscription>()
+  private val activationLock = ReentrantLock()
+  private val activating = HashSet<ExtensionImpl>()
+
+  /**
+   * Provides a class loader which resolves classes through the server class loader as well as the
+   * class loaders of all currently loaded extensions (e.g. in order to resolve extension types by
+   * their name).
+   */
+  val classLoader: ClassLoader = ExtensionsClassLoader()
+
   /**
    * {@inheritDoc}
    */
@@ -76,119 +109,408 @@ constructor(
 
   /**
    * Discovers all unregistered extension containers within the configured extension directory.
+   *
+   * Containers are opened and their manifests are decoded in parallel on a bounded pool (see
+   * `basin.extension.discovery.threads`) while the resulting extensions are registered in the
+   * order of their paths on the calling thread. Manifests of containers which did not change
+   * since they were last discovered are retrieved from a persistent index (see [ManifestIndex])
+   * instead.
    */
   fun discover() {
-    this.lock.lock()
-    try {
-      if (!Files.exists(this.pluginDir)) {
-        try {
-          Files.createDirectories(this.pluginDir)
-          logger.info("Created an empty extension directory")
-        } catch (ex: IOException) {
-          logger.warn("Cannot create extension directory", ex)
-        }
-
-        return
+    if (!Files.exists(this.pluginDir)) {
+      try {
+        Files.createDirectories(this.pluginDir)
+        logger.info("Created an empty extension directory")
+      } catch (ex: IOException) {
+        logger.warn("Cannot create extension directory", ex)
       }
 
-      Files.list(this.pluginDir)
-          .filter { p -> p.toString().endsWith(ExtensionManager.CONTAINER_EXTENSION) }
-          .forEach(this::discover)
+      return
+    }
+
+    val containers = try {
+      Files.list(this.pluginDir).use { stream ->
+        stream
+            .filter { p -> p.toString().endsWith(ExtensionManager.CONTAINER_EXTENSION) }
+            .sorted()
+            .toList()
+      }
     } catch (ex: IOException) {
       logger.warn("Cannot index extension directory", ex)
+      return
+    }
+
+    val paths = containers.filter { p -> !this.registrations.contains(p) }
+    if (paths.isEmpty()) {
+      return
+    }
+
+    if (!this.manifestIndexLoaded) {
+      this.manifestIndex.load()
+      this.manifestIndexLoaded = true
+    }
+
+    val executor = createPool("basin-extension-discovery", this.discoveryThreads, paths.size)
+
+    try {
+      val futures = paths.map { path -> executor.submit(Callable { this.open(path) }) }
+
+      this.lock.lock()
+      try {
+        paths.forEachIndexed { i, path ->
+          val extension = try {
+            futures[i].get()
+          } catch (ex: ExecutionException) {
+            logger.error("Failed to load extension: $path", ex.cause)
+            return@forEachIndexed
+          }
+
+          this.register(path, extension)
+        }
+      } finally {
+        this.lock.unlock()
+      }
+    } catch (ex: InterruptedException) {
+      Thread.currentThread().interrupt()
+      logger.warn("Interrupted while discovering extensions")
     } finally {
-      this.lock.unlock()
+      executor.shutdownNow()
     }
+
+    this.manifestIndex.retain(containers)
+    this.manifestIndex.store()
   }
 
+  /**
+   * Discovers a single extension container.
+   *
+   * @param path a container path.
+   */
   fun discover(path: Path) {
     if (this.registrations.contains(path)) {
       return
     }
 
-    logger.debug("Indexing extension at path %s", path)
-    try {
-      val extension = ExtensionImpl(path)
-
-      val state = this.eventBus.post(ExtensionRegistrationEvent.Pre(extension))
-      if (state.has(ExtensionRegistrationEvent.State.REGISTER)) {
-        this.registrations.add(path)
-        this._extensions += extension
-        this.eventBus.post(ExtensionRegistrationEvent.Post(extension))
-      }
+    val extension = try {
+      this.open(path)
     } catch (ex: ExtensionException) {
       logger.error("Failed to load extension: $path", ex)
+      return
     }
 
+    this.lock.lock()
+    try {
+      this.register(path, extension)
+    } finally {
+      this.lock.unlock()
+    }
   }
 
+  /**
+   * Opens an extension container and decodes its manifest.
+   *
+   * This method may be invoked from arbitrary threads.
+   *
+   * @param path a container path.
+   * @return an extension.
+   * @throws ExtensionException when the container cannot be read.
+   */
+  @Throws(ExtensionException::class)
+  private fun open(path: Path): ExtensionImpl {
+    this.manifestIndex.lookup(path)?.let {
+      logger.debug("Using indexed manifest for extension at path %s", path)
+      return ExtensionImpl(path, it)
+    }
+
+    logger.debug("Indexing extension at path %s", path)
+    val extension = ExtensionImpl(path)
+    this.manifestIndex.update(path, extension.manifest)
+    return extension
+  }
+
+  /**
+   * Registers a previously opened extension with this manager (unless its path has been
+   * registered in the meantime or the registration is vetoed by an event handler).
+   *
+   * This method must only be invoked while holding the manager lock.
+   *
+   * @param path a container path.
+   * @param extension an extension.
+   */
+  private fun register(path: Path, extension: ExtensionImpl) {
+    if (this.registrations.contains(path)) {
+      return
+    }
+
+    val state = this.eventBus.postIfObserved { ExtensionRegistrationEvent.Pre(extension) }
+        ?: ExtensionRegistrationEvent.State.REGISTER
+    if (state.has(ExtensionRegistrationEvent.State.REGISTER)) {
+      this.registrations.add(path)
+      this._extensions += extension
+      this.eventBus.postIfObserved { ExtensionRegistrationEvent.Post(extension) }
+    }
+  }
+
+  /**
+   * Resolves, initializes and starts all registered extensions.
+   *
+   * Extensions are processed in the topological layers of their dependency graph (see
+   * [DependencyGraph]) where all extensions of a layer are processed in parallel (see
+   * `basin.extension.startup.threads`) once the previous layer has been processed.
+   *
+   * Extensions which are flagged as lazy (see [ExtensionFlags.LAZY]) are resolved and loaded but
+   * are only started on demand (see [defer]).
+   */
   private fun initialize() {
     logger.info("Extension system has entered startup")
 
-    logger.debug("Performing dependency resolve on new extensions")
-    this.extensions
-        .filter { e -> e.phase == Phase.REGISTERED }
-        .sorted()
-        .forEach { e ->
-          val state = this.eventBus.post(ExtensionResolveEvent.Pre(e))
-          if (!state.has(ExtensionResolveEvent.State.RESOLVE)) {
-            return@forEach
-          }
+    val graph = DependencyGraph(this.extensions)
+    this.reportUnresolvable(graph)
 
-          try {
-            e.resolve()
-            this.eventBus.post(ExtensionResolveEvent.Post(e))
-          } catch (ex: Throwable) {
-            logger.warn("Failed to resolve extension " + e.manifest.identifier + "#" + e
-                .manifest.version, ex)
-          }
+    logger.debug("Wiring dependencies of new extensions")
+    graph.edges.forEach { (e, dependencies) ->
+      if (e.phase == Phase.REGISTERED) {
+        dependencies.forEach { (dependency, source) -> e.wireDependency(dependency, source) }
+      }
+    }
+
+    val services = this.extensions.flatMap { it.manifest.services }
+
+    val executor = createPool("basin-extension-startup", this.startupThreads,
+        graph.layers.map { it.size }.max() ?: 1)
+    try {
+      logger.debug("Performing dependency resolve on new extensions")
+      this.processLayers(executor, graph, Phase.REGISTERED) { e ->
+        val state = this.eventBus.post(ExtensionResolveEvent.Pre(e))
+        if (!state.has(ExtensionResolveEvent.State.RESOLVE)) {
+          return@processLayers
         }
 
-    logger.debug("Performing initialization on resolved extensions")
-    this.extensions
-        .filter { e -> e.phase == Phase.RESOLVED }
-        .sorted()
-        .forEach { e ->
-          val state = this.eventBus.post(ExtensionLoadEvent.Pre(e))
-          if (!state.has(ExtensionLoadEvent.State.LOAD)) {
-            return@forEach
-          }
+        try {
+          e.resolve(services)
+          this.eventBus.post(ExtensionResolveEvent.Post(e))
+        } catch (ex: Throwable) {
+          logger.warn("Failed to resolve extension " + e.manifest.identifier + "#" + e
+              .manifest.version, ex)
+        }
+      }
 
-          try {
-            e.initialize()
-            this.eventBus.post(ExtensionLoadEvent.Post(e))
-          } catch (ex: Throwable) {
-            logger
-                .warn("Failed to initialize extension " + e.manifest.identifier + "#" + e
-                    .manifest.version, ex)
-            e.close() // ensure loader is destroyed
-          }
+      logger.debug("Performing initialization on resolved extensions")
+      this.processLayers(executor, graph, Phase.RESOLVED) { e ->
+        val state = this.eventBus.post(ExtensionLoadEvent.Pre(e))
+        if (!state.has(ExtensionLoadEvent.State.LOAD)) {
+          return@processLayers
         }
 
-    logger.debug("Performing startup on loaded extensions")
-    this.extensions
-        .filter { e -> e.phase == Phase.LOADED }
-        .sorted()
-        .forEach { e ->
-          val state = this.eventBus.post(ExtensionRunEvent.Pre(e))
-          if (!state.has(ExtensionRunEvent.State.RUN)) {
-            return@forEach
-          }
+        try {
+          e.initialize()
+          this.eventBus.post(ExtensionLoadEvent.Post(e))
+        } catch (ex: Throwable) {
+          logger
+              .warn("Failed to initialize extension " + e.manifest.identifier + "#" + e
+                  .manifest.version, ex)
+          e.close() // ensure loader is destroyed
+        }
+      }
 
-          try {
-            e.start(this.ctx)
-            this.eventBus.post(ExtensionRunEvent.Post(e))
-          } catch (ex: Throwable) {
-            logger
-                .warn("Failed to start extension " + e.manifest.identifier + "#" + e
-                    .manifest.version, ex)
-            e.close() // ensure context and loader are destroyed
-          }
+      logger.debug("Performing startup on loaded extensions")
+      this.processLayers(executor, graph, Phase.LOADED) { e ->
+        if (isLazy(e)) {
+          this.defer(e)
+        } else {
+          this.run(e)
         }
+      }
+    } catch (ex: InterruptedException) {
+      Thread.currentThread().interrupt()
+      logger.warn("Interrupted while starting extensions")
+    } finally {
+      executor.shutdownNow()
+    }
 
     logger.info("Extension system startup complete")
   }
 
+  /**
+   * Starts a loaded extension along with all of its lazily started dependencies which have yet to
+   * be activated.
+   *
+   * @param e an extension.
+   */
+  private fun run(e: ExtensionImpl) {
+    e.resolvedDependencies
+        .filter(::isLazy)
+        .forEach(this::activate)
+
+    val state = this.eventBus.post(ExtensionRunEvent.Pre(e))
+    if (!state.has(ExtensionRunEvent.State.RUN)) {
+      return
+    }
+
+    try {
+      e.start(this.ctx)
+      this.eventBus.post(ExtensionRunEvent.Post(e))
+    } catch (ex: Throwable) {
+      logger
+          .warn("Failed to start extension " + e.manifest.identifier + "#" + e
+              .manifest.version, ex)
+      e.close() // ensure context and loader are destroyed
+    }
+  }
+
+  /**
+   * Defers the startup of a lazily started extension until one of its services is looked up (see
+   * [activateProviders]) or an event which is handled by one of its classes is posted.
+   *
+   * The handled event types are located by reading the extension classes without loading them
+   * (see [SubscriptionScanner]). When the classes cannot be read, the extension is started
+   * immediately instead.
+   *
+   * @param e an extension.
+   */
+  private fun defer(e: ExtensionImpl) {
+    val classLoader = e.classLoader ?: return
+    val eventTypes = try {
+      SubscriptionScanner.scan(classLoader, e.manifest.identifier)
+    } catch (ex: IOException) {
+      logger.warn("Cannot locate event handlers of extension " + e.manifest.identifier + "#" + e
+          .manifest.version + " - Starting immediately", ex)
+      this.run(e)
+      return
+    }
+
+    val handler = ActivationEventHandler(eventTypes, classLoader, Runnable { this.activate(e) })
+    this.deferred[e] = this.eventBus.subscribe(handler)
+    if (!isLazy(e)) {
+      this.retire(e) // activated in the meantime
+    }
+
+    logger.debug("Deferred startup of extension %s#%s until first use (%d event types)",
+        e.manifest.identifier, e.manifest.version, eventTypes.size)
+  }
+
+  /**
+   * Starts a lazily started extension unless it has already been started.
+   *
+   * This method blocks until the extension has been started when another thread is already
+   * performing its activation. Calls which occur while the activation is in progress on the same
+   * thread (e.g. when the extension posts an event it handles during its startup) return
+   * immediately.
+   *
+   * @param e an extension.
+   */
+  fun activate(e: ExtensionImpl) {
+    if (!isLazy(e)) {
+      return
+    }
+
+    this.activationLock.lock()
+    try {
+      if (isLazy(e) && this.activating.add(e)) {
+        try {
+          logger.info("Starting extension %s#%s on demand", e.manifest.identifier,
+              e.manifest.version)
+          this.run(e)
+        } finally {
+          this.activating.remove(e)
+          this.retire(e)
+        }
+      }
+    } finally {
+      this.activationLock.unlock()
+    }
+  }
+
+  /**
+   * Retires the activation handler of an extension which is no longer started lazily.
+   *
+   * Activations are typically triggered while the bus dispatches an event and thus the respective
+   * subscription is not closed immediately. Instead, it is queued until the next server tick (see
+   * [closeRetiredActivations]). In the meantime, the handler no longer triggers any activations as
+   * the extension is no longer considered lazy.
+   *
+   * @param e an extension.
+   */
+  private fun retire(e: ExtensionImpl) {
+    this.deferred.remove(e)?.let(this.retired::add)
+  }
+
+  /**
+   * Closes the subscriptions of all activation handlers which have been retired since this method
+   * has last been invoked.
+   *
+   * This method is invoked at the beginning of each server tick and must not be invoked while an
+   * event is dispatched.
+   */
+  fun closeRetiredActivations() {
+    while (true) {
+      val subscription = this.retired.poll() ?: return
+      subscription.close()
+    }
+  }
+
+  /**
+   * Starts all lazily started extensions which provide a given service.
+   *
+   * @param identifier a service identifier.
+   */
+  fun activateProviders(identifier: String) {
+    this.extensions
+        .filter { e -> isLazy(e) && e.manifest.services.any { it.identifier == identifier } }
+        .forEach(this::activate)
+  }
+
+  /**
+   * Reports all extensions which cannot be started due to a circular dependency.
+   *
+   * @param graph a dependency graph.
+   */
+  private fun reportUnresolvable(graph: DependencyGraph) {
+    graph.cycles.forEach { cycle ->
+      logger.error("Failed to resolve extensions",
+          ExtensionCycleException(cycle.map { it.manifest }))
+    }
+
+    val placed = graph.layers.flatten().toSet()
+    graph.blocked.forEach { e ->
+      val dependencies = graph.edges[e]?.keys?.filter { it !in placed } ?: emptyList()
+      logger.error("Failed to resolve extension " + e.manifest.identifier + "#" + e
+          .manifest.version, ExtensionResolverException(e.manifest, dependencies))
+    }
+  }
+
+  /**
+   * Applies an action to all extensions of a given phase layer by layer.
+   *
+   * The action is applied to all extensions of a layer in parallel while layers are processed in
+   * order. Note that the phase is evaluated when a layer is reached and thus excludes extensions
+   * whose dependencies failed to leave the phase.
+   *
+   * @param executor an executor on which the action is applied.
+   * @param graph a dependency graph.
+   * @param phase the phase of the extensions which are to be processed.
+   * @param action an action.
+   * @throws InterruptedException when the calling thread is interrupted.
+   */
+  @Throws(InterruptedException::class)
+  private fun processLayers(executor: ExecutorService, graph: DependencyGraph, phase: Phase,
+      action: (ExtensionImpl) -> Unit) {
+    for (layer in graph.layers) {
+      val futures = layer
+          .filter { e -> e.phase == phase }
+          .map { e -> e to executor.submit { action(e) } }
+
+      futures.forEach { (e, future) ->
+        try {
+          future.get()
+        } catch (ex: ExecutionException) {
+          logger.error("Failed to process extension " + e.manifest.identifier + "#" + e
+              .manifest.version, ex.cause)
+        }
+      }
+    }
+  }
+
   private fun clearRegistry() {
     this.lock.lock()
     try {
@@ -208,9 +530,10 @@ constructor(
     logger.info("Extension system is shutting down")
 
     logger.debug("Performing clean extension shutdown")
-    this.extensions
+    DependencyGraph(this.extensions).layers
+        .asReversed()
+        .flatten()
         .filter { e -> e.phase == Phase.RUNNING }
-        .sorted()
         .forEach { e ->
           this.eventBus.post(ExtensionShutdownEvent.Pre(e))
 
@@ -223,10 +546,72 @@ constructor(
 
           this.eventBus.post(ExtensionShutdownEvent.Post(e))
         }
+
+    logger.debug("Releasing extensions which have not been started on demand")
+    this.closeRetiredActivations()
+    this.deferred.keys.toList().forEach { e ->
+      this.deferred.remove(e)?.close()
+      if (e.phase == Phase.LOADED) {
+        e.close()
+      }
+    }
+  }
+
+  /**
+   * Resolves classes through the class loaders of all loaded extensions in their registration
+   * order when they are not visible to the server class loader.
+   */
+  private inner class ExtensionsClassLoader :
+      ClassLoader(ExtensionManagerImpl::class.java.classLoader) {
+
+    override fun findClass(name: String): Class<*> {
+      for (extension in this@ExtensionManagerImpl.extensions) {
+        val loader = extension.classLoader ?: continue
+        try {
+          return loader.loadClass(name)
+        } catch (ignore: ClassNotFoundException) {
+        }
+      }
+
+      throw ClassNotFoundException(name)
+    }
   }
 
   companion object {
 
     private val logger = LogManager.getFormatterLogger(ExtensionManagerImpl::class.java)
+
+    /**
+     * Evaluates whether an extension is flagged as lazy and has yet to be started.
+     *
+     * @param e an extension.
+     * @return true if lazy and loaded, false otherwise.
+     */
+    private fun isLazy(e: ExtensionImpl) =
+        e.phase == Phase.LOADED && e.manifest.flags.has(ExtensionFlags.LAZY)
+
+    /**
+     * Creates a bounded pool of daemon threads.
+     *
+     * @param name a thread name prefix.
+     * @param threads the desired amount of threads or zero to select an amount based on the
+     * available processors.
+     * @param tasks the maximum amount of tasks which are executed concurrently.
+     * @return an executor.
+     */
+    private fun createPool(name: String, threads: Int, tasks: Int): ExecutorService {
+      val poolSize = if (threads > 0) {
+        threads
+      } else {
+        Runtime.getRuntime().availableProcessors()
+      }
+
+      val threadCount = AtomicInteger()
+      return Executors.newFixedThreadPool(poolSize.coerceIn(1, tasks.coerceAtLeast(1))) { r ->
+        val thread = Thread(r, "$name-${threadCount.incrementAndGet()}")
+        thread.isDaemon = true
+        thread
+      }
+    }
   }
 }
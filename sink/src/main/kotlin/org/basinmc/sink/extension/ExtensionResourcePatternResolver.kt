@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import org.springframework.core.io.Resource
+import org.springframework.core.io.UrlResource
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver
+import java.io.IOException
+
+/**
+ * Resolves resource patterns (such as those used by component scanning) against the classpath of
+ * an extension.
+ *
+ * Spring is unaware of the `basin-ext:` scheme and would otherwise attempt to resolve matching
+ * root directories within extension containers as file system paths (and thus silently skip
+ * them). This implementation enumerates the respective container entries instead.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ * @since 1.0
+ */
+class ExtensionResourcePatternResolver(private val classLoader: ExtensionClassLoader) :
+    PathMatchingResourcePatternResolver(classLoader) {
+
+  /**
+   * {@inheritDoc}
+   */
+  @Throws(IOException::class)
+  override fun doFindPathMatchingFileResources(rootDirResource: Resource,
+      subPattern: String): Set<Resource> {
+    val handler = this.classLoader.urlHandler
+    val rootDir = handler.getEntryName(rootDirResource.url)
+        ?: return super.doFindPathMatchingFileResources(rootDirResource, subPattern)
+
+    return this.classLoader.container.names.asSequence()
+        .filter { it.startsWith(rootDir) }
+        .filter { this.pathMatcher.match(subPattern, it.substring(rootDir.length)) }
+        .sorted()
+        .mapTo(LinkedHashSet<Resource>()) { UrlResource(handler.createURL(it)) }
+  }
+}
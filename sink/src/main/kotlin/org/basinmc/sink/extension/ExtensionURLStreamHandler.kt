@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import org.basinmc.sink.util.ByteBufferInputStream
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.io.InputStream
+import java.net.URL
+import java.net.URLConnection
+import java.net.URLStreamHandler
+import java.nio.ByteBuffer
+
+/**
+ * Resolves `basin-ext:` URLs against the entries of a single extension container.
+ *
+ * URLs of this scheme take the form `basin-ext:/<identifier>@<version>/<entry>`. Since the
+ * handler is not registered with the JVM, these URLs may only be resolved when they have been
+ * constructed through their respective handler (e.g. when obtained via
+ * [ExtensionClassLoader.getResource]) or relative to such a URL.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ * @since 1.0
+ */
+class ExtensionURLStreamHandler(private val container: ExtensionContainer, root: String) :
+    URLStreamHandler() {
+
+  private val rootPath = "/$root/"
+
+  /**
+   * Retrieves the URL which refers to the root directory of the container.
+   */
+  val rootUrl = URL(PROTOCOL, null, -1, this.rootPath, this)
+
+  /**
+   * Constructs a URL for an arbitrary entry within the container.
+   *
+   * @param name an entry name.
+   * @return a URL.
+   */
+  fun createURL(name: String) = URL(PROTOCOL, null, -1, this.rootPath + name, this)
+
+  /**
+   * Extracts the entry name from a URL.
+   *
+   * @param url a URL.
+   * @return an entry name or null if the URL does not refer to this handler's container.
+   */
+  fun getEntryName(url: URL): String? {
+    if (url.protocol != PROTOCOL || !url.path.startsWith(this.rootPath)) {
+      return null
+    }
+
+    return url.path.substring(this.rootPath.length)
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun openConnection(url: URL): URLConnection = Connection(url)
+
+  /**
+   * Provides a connection to a single entry within the container.
+   */
+  private inner class Connection(url: URL) : URLConnection(url) {
+
+    private var buffer: ByteBuffer? = null
+
+    /**
+     * {@inheritDoc}
+     */
+    @Throws(IOException::class)
+    override fun connect() {
+      if (this.connected) {
+        return
+      }
+
+      val name = getEntryName(this.url) ?: throw FileNotFoundException(this.url.toString())
+      this.buffer = when {
+        name.isEmpty() || name in container.directories -> ByteBuffer.allocate(0)
+        else -> container.read(name) ?: throw FileNotFoundException(this.url.toString())
+      }
+      this.connected = true
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Throws(IOException::class)
+    override fun getInputStream(): InputStream {
+      this.connect()
+      return ByteBufferInputStream(this.buffer!!)
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    override fun getContentLengthLong() = try {
+      this.connect()
+      this.buffer!!.remaining().toLong()
+    } catch (ex: IOException) {
+      -1L
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    override fun getContentLength() = this.contentLengthLong.toInt()
+
+    /**
+     * {@inheritDoc}
+     */
+    override fun getLastModified() = container.lastModified
+  }
+
+  companion object {
+
+    /**
+     * Defines the protocol of all extension container URLs.
+     */
+    const val PROTOCOL = "basin-ext"
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import org.basinmc.faucet.extension.Extension
+import org.basinmc.faucet.extension.registration.Registration
+import org.basinmc.faucet.util.Version
+
+/**
+ * Represents a single service implementation which has been exported by an extension.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ * @since 1.0
+ */
+class ServiceRegistration(
+
+    /**
+     * {@inheritDoc}
+     */
+    override val extension: Extension,
+
+    /**
+     * Identifies the service which is implemented (e.g. the fully qualified name of its base
+     * class).
+     */
+    val identifier: String,
+
+    /**
+     * Identifies the specification version which is implemented.
+     */
+    val version: Version,
+
+    /**
+     * Retrieves the service implementation.
+     */
+    val instance: Any) : Registration {
+
+  override fun toString() =
+      "ServiceRegistration{identifier=${this.identifier},version=${this.version}," +
+          "extension=${this.extension.manifest.identifier}}"
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import org.apache.logging.log4j.LogManager
+import org.basinmc.faucet.event.EventBus
+import org.basinmc.faucet.event.extension.ExtensionShutdownEvent
+import org.basinmc.faucet.event.handler.Subscribe
+import org.basinmc.faucet.extension.Extension
+import org.basinmc.faucet.extension.ExtensionHelper
+import org.basinmc.faucet.extension.annotation.ExportedService
+import org.basinmc.faucet.extension.dependency.ServiceReference
+import org.basinmc.faucet.extension.registration.ScanningRegistrationManager
+import org.basinmc.faucet.internal.util.ExactHandles
+import org.basinmc.faucet.util.Version
+import org.basinmc.faucet.util.VersionRange
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.core.annotation.AnnotationUtils
+import org.springframework.stereotype.Service
+import org.springframework.util.ClassUtils
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.reflect.InvocationHandler
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * Maps service identifiers to their providers (newest version first).
+ */
+private typealias Providers = Map<String, List<ServiceRegistration>>
+
+/**
+ * Manages the services which are exported by extensions (see [ExportedService]).
+ *
+ * Services are registered when their extension starts and are removed when it shuts down. The
+ * providers of each service are kept in the order of their versions (newest first) within an
+ * immutable snapshot which is replaced whenever the set of providers changes. Queries are answered
+ * from a cache within the current snapshot and thus only need to be evaluated once per version
+ * range until an extension starts or stops.
+ *
+ * When no started extension satisfies a query, lazily started extensions which declare the
+ * service within their manifest are started (see [ExtensionManagerImpl.activateProviders]) before
+ * the query is answered.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ * @since 1.0
+ */
+@Service
+class ServiceRegistry @Autowired constructor(
+    eventBus: EventBus,
+    private val extensionManager: ExtensionManagerImpl,
+    private val extensionHelper: ExtensionHelper) :
+    ScanningRegistrationManager<ServiceRegistration>() {
+
+  private val lock = ReentrantLock()
+
+  @Volatile
+  private var snapshot = Snapshot(emptyMap())
+  private val proxies = ConcurrentHashMap<ProxyKey, Any>()
+
+  /**
+   * {@inheritDoc}
+   */
+  override val registrations: Collection<ServiceRegistration>
+    get() = this.snapshot.providers.values.flatten()
+
+  init {
+    eventBus.subscribe(this)
+  }
+
+  /**
+   * Retrieves all providers of a given service.
+   *
+   * @param identifier a service identifier.
+   * @return a list of registrations ordered by their version (newest first).
+   */
+  fun getProviders(identifier: String) =
+      this.snapshot.providers[identifier] ?: emptyList<ServiceRegistration>()
+
+  /**
+   * Resolves the newest provider which satisfies a given reference.
+   *
+   * @param reference a service reference.
+   * @return a registration or null if no provider satisfies the reference.
+   */
+  fun resolve(reference: ServiceReference): ServiceRegistration? {
+    val snapshot = this.snapshot
+    snapshot.resolved[reference]?.let { return it.orElse(null) }
+
+    val registration = snapshot.lookup(reference)
+    if (registration == null) {
+      this.extensionManager.activateProviders(reference.baseClassName)
+      if (this.snapshot !== snapshot) {
+        return this.resolve(reference)
+      }
+    }
+
+    snapshot.resolved.putIfAbsent(reference, Optional.ofNullable(registration))
+    return registration
+  }
+
+  /**
+   * Retrieves a stable proxy for a given service interface.
+   *
+   * The proxy resolves the newest provider within the given range when it is first invoked and
+   * retains it until an extension starts or stops. As such, callers may retain the proxy
+   * indefinitely rather than resolving the service for every call. Proxies for interfaces which
+   * are provided by an extension are discarded once the extension shuts down. Invocations fail with an
+   * [IllegalStateException] while no provider is available.
+   *
+   * @param type a service interface.
+   * @param versionRange an acceptable range of service versions.
+   * @param <S> a service type.
+   * @return a proxy.
+   * @throws IllegalArgumentException when the type is not an interface.
+   */
+  fun <S : Any> getService(type: Class<S>, versionRange: VersionRange): S {
+    if (!type.isInterface) {
+      throw IllegalArgumentException("Illegal service type: ${type.name} is not an interface")
+    }
+
+    val proxy = this.proxies.computeIfAbsent(ProxyKey(type, versionRange)) {
+      Proxy.newProxyInstance(type.classLoader, arrayOf(type),
+          ServiceProxy(type, ServiceReference(type.name, versionRange)))
+    }
+
+    return type.cast(proxy)
+  }
+
+  /**
+   * Discards the proxies of all service interfaces which are provided by an extension which has
+   * been shut down (as they would otherwise retain its class loader).
+   *
+   * @param event an event.
+   */
+  @Subscribe
+  private fun handleExtensionShutdown(event: ExtensionShutdownEvent.Post) {
+    this.proxies.keys.removeIf {
+      this.extensionHelper.getExtension(it.type.classLoader) === event.extension
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun scan(extension: Extension): Collection<ServiceRegistration> {
+    val ctx = extension.context ?: return emptyList()
+
+    return ctx.getBeansWithAnnotation(ExportedService::class.java).values
+        .map { bean -> createRegistration(extension, bean) }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun register(registration: ServiceRegistration) {
+    logger.debug("Registering service %s v%s provided by %s", registration.identifier,
+        registration.version, registration.extension.manifest.identifier)
+
+    this.update { providers ->
+      val updated = (providers[registration.identifier] ?: emptyList()) + registration
+      providers + (registration.identifier to updated.sortedByDescending { it.version })
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun unregister(registration: ServiceRegistration) {
+    logger.debug("Removing service %s v%s provided by %s", registration.identifier,
+        registration.version, registration.extension.manifest.identifier)
+
+    this.update { providers ->
+      val updated = (providers[registration.identifier] ?: emptyList()) - registration
+      if (updated.isEmpty()) {
+        providers - registration.identifier
+      } else {
+        providers + (registration.identifier to updated)
+      }
+    }
+  }
+
+  /**
+   * Replaces the current snapshot (and thus invalidates all previously resolved queries).
+   *
+   * @param transform a function which computes the new set of providers.
+   */
+  private fun update(transform: (Providers) -> Providers) {
+    this.lock.lock()
+    try {
+      this.snapshot = Snapshot(transform(this.snapshot.providers))
+    } finally {
+      this.lock.unlock()
+    }
+  }
+
+  /**
+   * Represents an immutable set of providers along with the queries which have been resolved
+   * against it.
+   */
+  private class Snapshot(val providers: Providers) {
+
+    val resolved = ConcurrentHashMap<ServiceReference, Optional<ServiceRegistration>>()
+
+    /**
+     * Locates the newest provider which satisfies a given reference.
+     *
+     * @param reference a service reference.
+     * @return a registration or null if no provider satisfies the reference.
+     */
+    fun lookup(reference: ServiceReference) = this.providers[reference.baseClassName]
+        ?.firstOrNull { it.version in reference.versionRange }
+  }
+
+  /**
+   * Identifies a proxy by its service interface and acceptable version range.
+   */
+  private data class ProxyKey(val type: Class<*>, val versionRange: VersionRange)
+
+  /**
+   * Delegates invocations to the provider which is currently resolved for a given reference.
+   *
+   * Each service method is bound to a method handle when it is first invoked. Since the handles
+   * dispatch through the service interface, they remain valid when the resolved provider changes.
+   */
+  private inner class ServiceProxy(
+      private val type: Class<*>,
+      private val reference: ServiceReference) : InvocationHandler {
+
+    @Volatile
+    private var binding: Binding? = null
+    private val handles = ConcurrentHashMap<Method, MethodHandle>()
+
+    /**
+     * Retrieves the provider which is resolved within the current snapshot.
+     *
+     * @return a service implementation.
+     * @throws IllegalStateException when no compatible provider is available.
+     */
+    private fun getTarget(): Any {
+      val snapshot = this@ServiceRegistry.snapshot
+      this.binding?.takeIf { it.snapshot === snapshot }?.let { return it.target }
+
+      val registration = this@ServiceRegistry.resolve(this.reference)
+          ?: throw IllegalStateException("Service ${this.reference.baseClassName} " +
+              "${this.reference.versionRange} is not available")
+      if (!this.type.isInstance(registration.instance)) {
+        throw IllegalStateException(
+            "Service provider $registration does not implement ${this.type.name}")
+      }
+
+      this.binding = Binding(snapshot, registration.instance)
+      return registration.instance
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    override fun invoke(proxy: Any, method: Method, args: Array<Any?>?): Any? {
+      if (method.declaringClass == Any::class.java) {
+        return when (method.name) {
+          "equals" -> proxy === args!![0]
+          "hashCode" -> System.identityHashCode(proxy)
+          else -> "ServiceProxy{type=${this.type.name},versionRange=${this.reference.versionRange}}"
+        }
+      }
+
+      val handle = this.handles.computeIfAbsent(method, ::bind)
+      return ExactHandles.invokeSpread(handle, this.getTarget(), args)
+    }
+  }
+
+  /**
+   * Represents a provider which has been resolved within a given snapshot.
+   */
+  private class Binding(val snapshot: Snapshot, val target: Any)
+
+  companion object {
+
+    private val logger = LogManager.getFormatterLogger(ServiceRegistry::class.java)
+
+    /**
+     * Binds a service method to a handle which accepts an arbitrary provider along with the
+     * method arguments (see [ExactHandles.spread]).
+     *
+     * @param method a service interface method.
+     * @return a handle.
+     * @throws IllegalStateException when the method is inaccessible.
+     */
+    internal fun bind(method: Method): MethodHandle {
+      val handle = try {
+        MethodHandles.publicLookup().unreflect(method)
+      } catch (ex: IllegalAccessException) {
+        throw IllegalStateException("Cannot access service method $method", ex)
+      }
+
+      return ExactHandles.spread(handle)
+    }
+
+    /**
+     * Creates a registration for an exported service bean.
+     *
+     * The service is identified by the base class which is declared by its annotation (or the
+     * bean type itself if none is declared) while its version is taken from the annotation,
+     * the matching service declaration within the extension manifest or the extension version
+     * (in that order).
+     *
+     * @param extension the extension which exports the service.
+     * @param bean a service bean.
+     * @return a registration.
+     * @throws IllegalArgumentException when the declared version is malformed.
+     */
+    private fun createRegistration(extension: Extension, bean: Any): ServiceRegistration {
+      val beanType = ClassUtils.getUserClass(bean)
+      val annotation = AnnotationUtils.findAnnotation(beanType, ExportedService::class.java)
+
+      val identifier = annotation?.baseClass?.java
+          ?.takeIf { it != Void::class.java }
+          ?.name
+          ?: beanType.name
+      val version = annotation?.version?.takeIf(String::isNotEmpty)?.let { Version(it) }
+          ?: extension.manifest.services.firstOrNull { it.identifier == identifier }?.version
+          ?: extension.manifest.version
+
+      return ServiceRegistration(extension, identifier, version, bean)
+    }
+  }
+}
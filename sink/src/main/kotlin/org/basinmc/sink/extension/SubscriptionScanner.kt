@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import org.apache.logging.log4j.LogManager
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.handler.Bind
+import org.basinmc.faucet.event.handler.Subscribe
+import org.objectweb.asm.AnnotationVisitor
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassVisitor
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.Type
+import java.io.IOException
+import java.util.*
+
+/**
+ * Locates the event types which are handled by the [Subscribe] methods of an extension without
+ * loading the declaring classes.
+ *
+ * Class files are read directly from the extension container and are only parsed up to their
+ * method signatures and annotations. All classes within the extension package as well as their
+ * super classes within the container are considered. Event types are resolved following the same
+ * rules as [org.basinmc.sink.event.handler.MethodEventHandler] (e.g. explicitly declared types
+ * take precedence over the first unbound event parameter).
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+internal object SubscriptionScanner {
+
+  private val logger = LogManager.getFormatterLogger(SubscriptionScanner::class.java)
+
+  private val subscribeDescriptor = Type.getDescriptor(Subscribe::class.java)
+  private val bindDescriptor = Type.getDescriptor(Bind::class.java)
+  private val defaultEventType = Type.getType(Subscribe.DefaultEvent::class.java)
+
+  /**
+   * Collects the event types which are handled by the classes of an extension.
+   *
+   * @param classLoader the class loader of an extension.
+   * @param basePackage the package in which handlers are located.
+   * @return a set of event types.
+   * @throws IOException when a class cannot be read from the container.
+   */
+  @Throws(IOException::class)
+  fun scan(classLoader: ExtensionClassLoader, basePackage: String): Set<Class<out Event<*>>> {
+    val methods = mutableListOf<HandlerMethod>()
+
+    val visited = HashSet<String>()
+    val queue = ArrayDeque<String>(classLoader.classNames
+        .filter { it.startsWith("$basePackage.") }
+        .sorted())
+    while (!queue.isEmpty()) {
+      val name = queue.poll()
+      if (!visited.add(name)) {
+        continue
+      }
+
+      val buffer = classLoader.container.read(name.replace('.', '/') + ".class") ?: continue
+      val bytes = ByteArray(buffer.remaining())
+      buffer.get(bytes)
+
+      val reader = ClassReader(bytes)
+      reader.superName?.let { queue += it.replace('/', '.') }
+      reader.accept(ClassScanner(methods),
+          ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES)
+    }
+
+    return methods.flatMapTo(LinkedHashSet()) { it.resolve(classLoader) }
+  }
+
+  /**
+   * Loads an event type without initializing it.
+   *
+   * @param classLoader a class loader.
+   * @param type a type.
+   * @return an event type or null if the type cannot be loaded or is not an event.
+   */
+  private fun loadEventType(classLoader: ClassLoader, type: Type): Class<out Event<*>>? {
+    val eventType = try {
+      Class.forName(type.className, false, classLoader)
+    } catch (ex: ClassNotFoundException) {
+      logger.debug("Cannot resolve handler parameter type %s", type.className, ex)
+      return null
+    } catch (ex: LinkageError) {
+      logger.debug("Cannot resolve handler parameter type %s", type.className, ex)
+      return null
+    }
+
+    if (!Event::class.java.isAssignableFrom(eventType)) {
+      return null
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    return eventType as Class<out Event<*>>
+  }
+
+  /**
+   * Represents the signature of a single handler method.
+   */
+  private class HandlerMethod(
+      private val declaredTypes: List<Type>,
+      private val parameterTypes: List<Type>) {
+
+    /**
+     * Resolves the event types which are handled by this method.
+     *
+     * @param classLoader a class loader.
+     * @return a list of event types.
+     */
+    fun resolve(classLoader: ClassLoader): List<Class<out Event<*>>> {
+      if (!this.declaredTypes.isEmpty()) {
+        return this.declaredTypes.mapNotNull { loadEventType(classLoader, it) }
+      }
+
+      return listOfNotNull(this.parameterTypes.asSequence()
+          .mapNotNull { loadEventType(classLoader, it) }
+          .firstOrNull())
+    }
+  }
+
+  /**
+   * Collects the handler methods of a single class.
+   */
+  private class ClassScanner(private val methods: MutableList<HandlerMethod>) :
+      ClassVisitor(Opcodes.ASM7) {
+
+    /**
+     * {@inheritDoc}
+     */
+    override fun visitMethod(access: Int, name: String, descriptor: String, signature: String?,
+        exceptions: Array<out String>?): MethodVisitor = MethodScanner(descriptor, this.methods)
+  }
+
+  /**
+   * Evaluates whether a single method is annotated with [Subscribe] and collects its signature.
+   */
+  private class MethodScanner(
+      private val descriptor: String,
+      private val methods: MutableList<HandlerMethod>) : MethodVisitor(Opcodes.ASM7) {
+
+    private var subscribed = false
+    private val declaredTypes = mutableListOf<Type>()
+    private val boundParameters = mutableSetOf<Int>()
+
+    /**
+     * {@inheritDoc}
+     */
+    override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor? {
+      if (descriptor != subscribeDescriptor) {
+        return null
+      }
+
+      this.subscribed = true
+      return object : AnnotationVisitor(Opcodes.ASM7) {
+        override fun visitArray(name: String): AnnotationVisitor? {
+          if (name != "eventType") {
+            return null
+          }
+
+          return object : AnnotationVisitor(Opcodes.ASM7) {
+            override fun visit(name: String?, value: Any) {
+              if (value is Type && value != defaultEventType) {
+                this@MethodScanner.declaredTypes += value
+              }
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    override fun visitParameterAnnotation(parameter: Int, descriptor: String,
+        visible: Boolean): AnnotationVisitor? {
+      if (descriptor == bindDescriptor) {
+        this.boundParameters += parameter
+      }
+
+      return null
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    override fun visitEnd() {
+      if (!this.subscribed) {
+        return
+      }
+
+      val parameterTypes = Type.getArgumentTypes(this.descriptor)
+          .filterIndexed { i, type -> i !in this.boundParameters && type.sort == Type.OBJECT }
+      this.methods += HandlerMethod(this.declaredTypes, parameterTypes)
+    }
+  }
+}
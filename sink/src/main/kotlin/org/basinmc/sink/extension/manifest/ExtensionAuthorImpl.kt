@@ -22,10 +22,11 @@ import org.basinmc.faucet.extension.manifest.ExtensionAuthor
 /**
  * @author [Johannes Donath](mailto:johannesd@torchmind.com)
  */
-class ExtensionAuthorImpl(source: Author) : ExtensionAuthor {
+class ExtensionAuthorImpl(
+    override val name: String,
+    override val alias: String?) : ExtensionAuthor {
 
-  override val name = source.name
-  override val alias: String? = source.alias.orElse(null)
+  constructor(source: Author) : this(source.name, source.alias.orElse(null))
 
   override fun equals(other: Any?): Boolean {
     if (this === other) return true
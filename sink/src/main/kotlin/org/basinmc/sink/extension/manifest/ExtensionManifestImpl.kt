@@ -33,42 +33,56 @@ import java.util.*
 /**
  * @author [Johannes Donath](mailto:johannesd@torchmind.com)
  */
-class ExtensionManifestImpl(source: Manifest) : ExtensionManifest {
+class ExtensionManifestImpl internal constructor(
+    override val formatVersion: Int,
 
-  override val formatVersion = source.metadata.formatVersion.toInt()
+    /**
+     * Retrieves the raw flag mask as encoded within the container.
+     */
+    val flagMask: Int,
+    override val identifier: String,
+    override val version: Version,
+    override val authors: List<ExtensionAuthorImpl>,
+    override val contributors: List<ExtensionAuthorImpl>,
+    override val services: List<ServiceVersion>,
+    override val extensionDependencies: List<ExtensionDependency>,
+    override val serviceDependencies: List<ServiceDependency>) : ExtensionManifest {
 
-  override val flags = ExtensionFlags(source.flags)
-  override val identifier = source.metadata.identifier
-  override val version = Version(source.metadata.version)
+  override val flags = ExtensionFlags(this.flagMask)
 
   override val displayName = "ToDoToDoToDo" // TODO
 
-  override val authors = source.metadata.authors
-      .map(::ExtensionAuthorImpl)
-      .toList()
-  override val contributors = source.metadata.contributors
-      .map(::ExtensionAuthorImpl)
-      .toList()
-  override val services = source.metadata.providedServices
-      .map { service ->
-        ServiceVersion(service.identifier,
-            Version(service.version))
-      } // TODO: Throw ExtensionManifestException
-      .toList()
-  override val extensionDependencies = source.metadata.extensionDependencies
-      .map { dependency ->
-        ExtensionDependency(dependency.identifier,
-            VersionRange(dependency.versionRange),
-            dependency.isOptional)
-      } // TODO: Throw ExtensionManifestException
-      .toList()
-  override val serviceDependencies: List<ServiceDependency> = source.metadata.serviceDependencies
-      .map { dependency ->
-        ServiceDependency(dependency.identifier,
-            VersionRange(dependency.versionRange),
-            dependency.isOptional)
-      }  // TODO: Throw ExtensionManifestException
-      .toList()
+  constructor(source: Manifest) : this(
+      source.metadata.formatVersion.toInt(),
+      source.flags,
+      source.metadata.identifier,
+      Version(source.metadata.version),
+      source.metadata.authors
+          .map(::ExtensionAuthorImpl)
+          .toList(),
+      source.metadata.contributors
+          .map(::ExtensionAuthorImpl)
+          .toList(),
+      source.metadata.providedServices
+          .map { service ->
+            ServiceVersion(service.identifier,
+                Version(service.version))
+          } // TODO: Throw ExtensionManifestException
+          .toList(),
+      source.metadata.extensionDependencies
+          .map { dependency ->
+            ExtensionDependency(dependency.identifier,
+                VersionRange(dependency.versionRange),
+                dependency.isOptional)
+          } // TODO: Throw ExtensionManifestException
+          .toList(),
+      source.metadata.serviceDependencies
+          .map { dependency ->
+            ServiceDependency(dependency.identifier,
+                VersionRange(dependency.versionRange),
+                dependency.isOptional)
+          }  // TODO: Throw ExtensionManifestException
+          .toList())
 
   companion object {
 
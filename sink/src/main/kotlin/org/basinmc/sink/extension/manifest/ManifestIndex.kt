@@ -0,0 +1,312 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension.manifest
+
+import org.apache.logging.log4j.LogManager
+import org.basinmc.faucet.extension.dependency.ExtensionDependency
+import org.basinmc.faucet.extension.dependency.ServiceDependency
+import org.basinmc.faucet.extension.dependency.ServiceVersion
+import org.basinmc.faucet.util.Version
+import org.basinmc.faucet.util.VersionRange
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInput
+import java.io.DataInputStream
+import java.io.DataOutput
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Provides a persistent index of decoded container manifests.
+ *
+ * Entries are keyed by the absolute container path and record the size, modification time and a
+ * hash of the container contents. Containers whose size and modification time match their entry
+ * are considered unchanged without accessing their contents. When only the modification time
+ * differs (e.g. as the container has been copied again as part of a deployment), the container is
+ * hashed and its entry is re-used if the contents did not change.
+ *
+ * Index files which cannot be decoded (e.g. as they have been written by a different format
+ * version) are discarded.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class ManifestIndex(private val path: Path) {
+
+  private val entries = ConcurrentHashMap<Path, Entry>()
+
+  @Volatile
+  private var modified = false
+
+  /**
+   * Replaces the contents of this index with the contents of its index file (if any).
+   */
+  fun load() {
+    this.entries.clear()
+    this.modified = false
+
+    if (!Files.exists(this.path)) {
+      return
+    }
+
+    try {
+      DataInputStream(BufferedInputStream(Files.newInputStream(this.path))).use { input ->
+        if (input.readInt() != MAGIC_NUMBER || input.readUnsignedShort() != FORMAT_VERSION) {
+          logger.info("Discarding manifest index of incompatible format")
+          return
+        }
+
+        for (i in 0 until input.readInt()) {
+          val container = this.path.fileSystem.getPath(input.readUTF())
+          this.entries[container] = readEntry(input)
+        }
+      }
+    } catch (ex: IOException) {
+      logger.warn("Discarding unreadable manifest index", ex)
+      this.entries.clear()
+    } catch (ex: IllegalArgumentException) {
+      logger.warn("Discarding malformed manifest index", ex)
+      this.entries.clear()
+    }
+  }
+
+  /**
+   * Writes the contents of this index to its index file (unless it has not been modified since
+   * it was last loaded or stored).
+   */
+  fun store() {
+    if (!this.modified) {
+      return
+    }
+    this.modified = false
+
+    val tmp = this.path.resolveSibling(this.path.fileName.toString() + ".tmp")
+    try {
+      DataOutputStream(BufferedOutputStream(Files.newOutputStream(tmp))).use { output ->
+        val entries = this.entries.toMap()
+
+        output.writeInt(MAGIC_NUMBER)
+        output.writeShort(FORMAT_VERSION)
+        output.writeInt(entries.size)
+        entries.forEach { (container, entry) ->
+          output.writeUTF(container.toString())
+          writeEntry(output, entry)
+        }
+      }
+
+      Files.move(tmp, this.path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE)
+    } catch (ex: IOException) {
+      logger.warn("Cannot store manifest index", ex)
+    }
+  }
+
+  /**
+   * Retrieves the indexed manifest of a given container unless the container has changed since
+   * it was indexed.
+   *
+   * This method may be invoked from arbitrary threads.
+   *
+   * @param container a container path.
+   * @return a manifest or null if the container is not indexed or has been changed.
+   */
+  fun lookup(container: Path): ExtensionManifestImpl? {
+    val key = container.toAbsolutePath().normalize()
+    val entry = this.entries[key] ?: return null
+
+    try {
+      val attributes = Files.readAttributes(key, BasicFileAttributes::class.java)
+      val size = attributes.size()
+      val modificationTime = attributes.lastModifiedTime().toMillis()
+      if (size == entry.size && modificationTime == entry.modificationTime) {
+        return entry.manifest
+      }
+
+      if (size == entry.size && hash(key).contentEquals(entry.hash)) {
+        this.entries[key] = Entry(size, modificationTime, entry.hash, entry.manifest)
+        this.modified = true
+        return entry.manifest
+      }
+    } catch (ex: IOException) {
+      logger.debug("Cannot verify indexed container %s", key, ex)
+    }
+
+    this.entries.remove(key)
+    this.modified = true
+    return null
+  }
+
+  /**
+   * Indexes the manifest of a given container.
+   *
+   * This method may be invoked from arbitrary threads.
+   *
+   * @param container a container path.
+   * @param manifest the manifest which has been decoded from the container.
+   */
+  fun update(container: Path, manifest: ExtensionManifestImpl) {
+    val key = container.toAbsolutePath().normalize()
+
+    try {
+      val attributes = Files.readAttributes(key, BasicFileAttributes::class.java)
+      this.entries[key] = Entry(attributes.size(), attributes.lastModifiedTime().toMillis(),
+          hash(key), manifest)
+      this.modified = true
+    } catch (ex: IOException) {
+      logger.debug("Cannot index container %s", key, ex)
+    }
+  }
+
+  /**
+   * Discards all entries which do not refer to one of the given containers.
+   *
+   * @param containers a collection of container paths.
+   */
+  fun retain(containers: Collection<Path>) {
+    val keys = containers.map { it.toAbsolutePath().normalize() }.toSet()
+    if (this.entries.keys.retainAll(keys)) {
+      this.modified = true
+    }
+  }
+
+  /**
+   * Represents the indexed state of a single container.
+   */
+  private class Entry(
+      val size: Long,
+      val modificationTime: Long,
+      val hash: ByteArray,
+      val manifest: ExtensionManifestImpl)
+
+  companion object {
+
+    private const val MAGIC_NUMBER = 0x42454958
+    private const val FORMAT_VERSION = 2
+    private const val HASH_ALGORITHM = "SHA-256"
+
+    private val logger = LogManager.getFormatterLogger(ManifestIndex::class.java)
+
+    /**
+     * Computes the hash of a given container.
+     *
+     * @param container a container path.
+     * @return a hash.
+     * @throws IOException when the container cannot be read.
+     */
+    @Throws(IOException::class)
+    private fun hash(container: Path): ByteArray {
+      val digest = MessageDigest.getInstance(HASH_ALGORITHM)
+      val buffer = ByteBuffer.allocate(65536)
+
+      FileChannel.open(container, StandardOpenOption.READ).use { channel ->
+        while (channel.read(buffer) != -1) {
+          buffer.flip()
+          digest.update(buffer)
+          buffer.clear()
+        }
+      }
+
+      return digest.digest()
+    }
+
+    @Throws(IOException::class)
+    private fun readEntry(input: DataInput): Entry {
+      val size = input.readLong()
+      val modificationTime = input.readLong()
+      val hash = ByteArray(input.readUnsignedByte())
+      input.readFully(hash)
+
+      val manifest = ExtensionManifestImpl(
+          input.readInt(),
+          input.readInt(),
+          input.readUTF(),
+          Version(input.readUTF()),
+          readList(input) { ExtensionAuthorImpl(it.readUTF(), readNullable(it)) },
+          readList(input) { ExtensionAuthorImpl(it.readUTF(), readNullable(it)) },
+          readList(input) { ServiceVersion(it.readUTF(), Version(it.readUTF())) },
+          readList(input) {
+            ExtensionDependency(it.readUTF(), VersionRange(it.readUTF()), it.readBoolean())
+          },
+          readList(input) {
+            ServiceDependency(it.readUTF(), VersionRange(it.readUTF()), it.readBoolean())
+          })
+
+      return Entry(size, modificationTime, hash, manifest)
+    }
+
+    @Throws(IOException::class)
+    private fun writeEntry(output: DataOutput, entry: Entry) {
+      output.writeLong(entry.size)
+      output.writeLong(entry.modificationTime)
+      output.writeByte(entry.hash.size)
+      output.write(entry.hash)
+
+      val manifest = entry.manifest
+      output.writeInt(manifest.formatVersion)
+      output.writeInt(manifest.flagMask)
+      output.writeUTF(manifest.identifier)
+      output.writeUTF(manifest.version.toString())
+      writeList(output, manifest.authors) {
+        output.writeUTF(it.name)
+        writeNullable(output, it.alias)
+      }
+      writeList(output, manifest.contributors) {
+        output.writeUTF(it.name)
+        writeNullable(output, it.alias)
+      }
+      writeList(output, manifest.services) {
+        output.writeUTF(it.identifier)
+        output.writeUTF(it.version.toString())
+      }
+      writeList(output, manifest.extensionDependencies) {
+        output.writeUTF(it.identifier)
+        output.writeUTF(it.versionRange.toString())
+        output.writeBoolean(it.optional)
+      }
+      writeList(output, manifest.serviceDependencies) {
+        output.writeUTF(it.baseClassName)
+        output.writeUTF(it.versionRange.toString())
+        output.writeBoolean(it.optional)
+      }
+    }
+
+    private inline fun <T> readList(input: DataInput, reader: (DataInput) -> T): List<T> =
+        List(input.readInt()) { reader(input) }
+
+    private inline fun <T> writeList(output: DataOutput, list: List<T>, writer: (T) -> Unit) {
+      output.writeInt(list.size)
+      list.forEach(writer)
+    }
+
+    private fun readNullable(input: DataInput) = if (input.readBoolean()) input.readUTF() else null
+
+    private fun writeNullable(output: DataOutput, value: String?) {
+      output.writeBoolean(value != null)
+      if (value != null) {
+        output.writeUTF(value)
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.util
+
+import java.io.InputStream
+import java.nio.ByteBuffer
+
+/**
+ * Provides an input stream which reads the remaining contents of a byte buffer.
+ *
+ * The stream operates on an independent view of the passed buffer and thus never alters its
+ * position, limit or mark.
+ *
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class ByteBufferInputStream(buffer: ByteBuffer) : InputStream() {
+
+  private val buffer = buffer.duplicate()
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun read() = if (this.buffer.hasRemaining()) this.buffer.get().toInt() and 0xFF else -1
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun read(b: ByteArray, off: Int, len: Int): Int {
+    if (off < 0 || len < 0 || len > b.size - off) {
+      throw IndexOutOfBoundsException()
+    }
+    if (len == 0) {
+      return 0
+    }
+    if (!this.buffer.hasRemaining()) {
+      return -1
+    }
+
+    val length = minOf(len, this.buffer.remaining())
+    this.buffer.get(b, off, length)
+    return length
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun skip(n: Long): Long {
+    val length = n.coerceIn(0L, this.buffer.remaining().toLong()).toInt()
+    this.buffer.position(this.buffer.position() + length)
+    return length.toLong()
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun available() = this.buffer.remaining()
+
+  /**
+   * {@inheritDoc}
+   */
+  override fun markSupported() = true
+
+  /**
+   * {@inheritDoc}
+   */
+  @Synchronized
+  override fun mark(readlimit: Int) {
+    this.buffer.mark()
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Synchronized
+  override fun reset() {
+    this.buffer.reset()
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.basinmc.faucet.event.StatelessEvent
+import org.basinmc.faucet.event.Subscription
+import org.basinmc.sink.event.handler.ActivationEventHandler
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import java.util.function.Consumer
+
+/**
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class EventBusImplTest {
+
+  @Test(timeout = 10000)
+  fun testMutualUnsubscribe() {
+    val bus = EventBusImpl()
+    val barrier = CyclicBarrier(2)
+    val first = AtomicReference<Subscription>()
+    val second = AtomicReference<Subscription>()
+    val invocations = AtomicInteger()
+
+    first.set(bus.subscribe(FirstEvent::class.java, Consumer<FirstEvent> {
+      invocations.incrementAndGet()
+      barrier.await()
+      second.get().close()
+    }))
+    second.set(bus.subscribe(SecondEvent::class.java, Consumer<SecondEvent> {
+      invocations.incrementAndGet()
+      barrier.await()
+      first.get().close()
+    }))
+
+    val threads = listOf(
+        Thread { bus.post(FirstEvent()) },
+        Thread { bus.post(SecondEvent()) })
+    threads.forEach(Thread::start)
+    threads.forEach { it.join(5000) }
+
+    assertFalse("Handlers closing each other's subscriptions deadlocked",
+        threads.any(Thread::isAlive))
+    assertEquals(2, invocations.get())
+
+    bus.post(FirstEvent())
+    bus.post(SecondEvent())
+    assertEquals(2, invocations.get())
+  }
+
+  @Test(timeout = 10000)
+  fun testUnsubscribeDuringLongRunningHandler() {
+    val bus = EventBusImpl()
+    val entered = CountDownLatch(1)
+    val release = CountDownLatch(1)
+    val invocations = AtomicInteger()
+
+    val subscription = bus.subscribe(FirstEvent::class.java, Consumer<FirstEvent> {
+      invocations.incrementAndGet()
+      entered.countDown()
+      release.await()
+    })
+
+    val poster = Thread { bus.post(FirstEvent()) }
+    poster.start()
+    assertTrue(entered.await(5, TimeUnit.SECONDS))
+
+    // the handler is still running and thus cannot be awaited but close must return regardless
+    subscription.close()
+    release.countDown()
+    poster.join(5000)
+    assertFalse(poster.isAlive)
+
+    bus.post(FirstEvent())
+    assertEquals(1, invocations.get())
+  }
+
+  @Test
+  fun testChildQueuesDrained() {
+    val bus = EventBusImpl()
+    val child = bus.createChild()
+    val invocations = AtomicInteger()
+    child.subscribe(FirstEvent::class.java, Consumer<FirstEvent> { invocations.incrementAndGet() })
+
+    assertTrue(child.postOnMainThread(FirstEvent()))
+    assertTrue(child.postDeferred(FirstEvent()))
+
+    assertEquals(1, bus.drainDeferred())
+    assertEquals(1, bus.drainMainThreadQueue())
+    assertEquals(2, invocations.get())
+  }
+
+  @Test
+  fun testHasSubscribersDoesNotActivate() {
+    val bus = EventBusImpl()
+    val activations = AtomicInteger()
+    bus.subscribe(ActivationEventHandler(listOf(FirstEvent::class.java), null,
+        Runnable { activations.incrementAndGet() }))
+
+    assertTrue(bus.hasSubscribers(FirstEvent::class.java))
+    assertFalse(bus.hasSubscribers(SecondEvent::class.java))
+    assertEquals(0, activations.get())
+
+    bus.post(FirstEvent())
+    assertEquals(1, activations.get())
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun testChildNotDrainedDirectly() {
+    EventBusImpl().createChild().drainMainThreadQueue()
+  }
+
+  class FirstEvent : StatelessEvent
+
+  class SecondEvent : StatelessEvent
+}
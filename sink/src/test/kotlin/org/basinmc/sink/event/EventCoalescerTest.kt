@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.basinmc.faucet.event.Coalesce
+import org.basinmc.faucet.event.Event
+import org.basinmc.faucet.event.StatelessEvent
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.function.Consumer
+
+/**
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class EventCoalescerTest {
+
+  @Test
+  fun testCoalesce() {
+    val coalescer = EventCoalescer(16)
+
+    assertTrue(coalescer.offer(PropertyEvent("a", 1)))
+    assertTrue(coalescer.offer(FieldEvent(1)))
+    assertTrue(coalescer.offer(PropertyEvent("b", 2)))
+    assertTrue(coalescer.offer(PropertyEvent("a", 3)))
+    assertTrue(coalescer.offer(FieldEvent(1)))
+
+    val events = mutableListOf<Event<*>>()
+    assertEquals(3, coalescer.drain(Consumer { events += it }))
+    assertEquals(3, (events[0] as PropertyEvent).value)
+    assertEquals(2, (events[2] as PropertyEvent).value)
+  }
+
+  @Test
+  fun testCapacity() {
+    val coalescer = EventCoalescer(2)
+
+    assertTrue(coalescer.offer(PropertyEvent("a", 1)))
+    assertTrue(coalescer.offer(PropertyEvent("b", 2)))
+    assertFalse(coalescer.offer(PropertyEvent("c", 3)))
+    assertFalse(coalescer.offer(FieldEvent(1)))
+
+    // superseding events do not grow the set of pending events
+    assertTrue(coalescer.offer(PropertyEvent("a", 4)))
+
+    assertEquals(2, coalescer.drain(Consumer { }))
+    assertTrue(coalescer.offer(PropertyEvent("c", 3)))
+  }
+
+  @Coalesce(key = "id")
+  class PropertyEvent(val id: String, val value: Int) : StatelessEvent
+
+  @Coalesce(key = "chunk")
+  class FieldEvent(@JvmField val chunk: Int) : StatelessEvent
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.basinmc.faucet.event.StatelessEvent
+import org.basinmc.faucet.event.handler.Subscribe
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class HandlerWatchdogTest {
+
+  private fun createBus() = EventBusImpl(EventStatisticsImpl(),
+      HandlerWatchdog(null, 20, 1, HandlerWatchdog.Policy.DISABLE), 1, 16, 16, false)
+
+  @Test
+  fun testNestedTimeIsExclusive() {
+    val bus = this.createBus()
+    bus.subscribe(Listener(bus))
+
+    bus.post(OuterEvent())
+
+    val quarantined = bus.getQuarantined()
+    assertEquals(1, quarantined.size)
+    assertTrue(quarantined[0].toString().contains("handleInner"))
+  }
+
+  @Test
+  fun testChildQuarantine() {
+    val bus = this.createBus()
+    val child = bus.createChild()
+    child.subscribe(Listener(child))
+
+    child.post(InnerEvent())
+    assertEquals(1, bus.getQuarantined().size)
+
+    assertTrue(bus.release(bus.getQuarantined()[0]))
+    assertTrue(bus.getQuarantined().isEmpty())
+    assertTrue(child.getQuarantined().isEmpty())
+  }
+
+  class OuterEvent : StatelessEvent
+
+  class InnerEvent : StatelessEvent
+
+  class Listener(private val bus: EventBusImpl) {
+
+    @Subscribe
+    fun handleOuter(event: OuterEvent) {
+      this.bus.post(InnerEvent())
+    }
+
+    @Subscribe
+    fun handleInner(event: InnerEvent) {
+      Thread.sleep(50)
+    }
+  }
+}
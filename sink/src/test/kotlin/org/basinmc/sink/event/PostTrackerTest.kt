@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class PostTrackerTest {
+
+  @Test(timeout = 10000)
+  fun testReclaimAfterPost() {
+    val tracker = PostTracker()
+    val entered = CountDownLatch(1)
+    val retired = CountDownLatch(1)
+    val executions = AtomicInteger()
+
+    val poster = Thread {
+      val slot = tracker.enter()
+      entered.countDown()
+      retired.await()
+      tracker.exit(slot)
+    }
+    poster.start()
+    entered.await(5, TimeUnit.SECONDS)
+
+    tracker.retire { executions.incrementAndGet() }
+    assertEquals(0, executions.get())
+
+    // posters never reclaim and thus the action remains pending until the next reclaim
+    retired.countDown()
+    poster.join(5000)
+    assertEquals(0, executions.get())
+
+    tracker.reclaim()
+    assertEquals(1, executions.get())
+  }
+
+  @Test
+  fun testRetireWhileIdle() {
+    val tracker = PostTracker()
+    val executions = AtomicInteger()
+
+    tracker.exit(tracker.enter())
+    tracker.retire { executions.incrementAndGet() }
+    assertEquals(1, executions.get())
+  }
+}
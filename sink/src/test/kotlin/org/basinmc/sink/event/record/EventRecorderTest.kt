@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.event.record
+
+import org.basinmc.faucet.event.StatelessEvent
+import org.basinmc.faucet.event.filter.IntFilter
+import org.basinmc.faucet.internal.event.FilterExpose
+import org.basinmc.sink.event.EventBusImpl
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.nio.file.Files
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.function.Consumer
+
+/**
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class EventRecorderTest {
+
+  @Test(timeout = 10000)
+  fun testRecordAndReplay() {
+    val recording = Files.createTempFile("events", ".rec")
+    val rerecording = Files.createTempFile("events", ".rec")
+    try {
+      val bus = EventBusImpl()
+      val received = ConcurrentLinkedQueue<Int>()
+      bus.subscribe(SampleEvent::class.java, Consumer<SampleEvent> { received += it.id })
+
+      val recorder = EventRecorder(recording, EventRecorder.MIN_CAPACITY * 16)
+      bus.recorder = recorder
+      val threads = (0 until 4).map { t ->
+        Thread { (0 until 100).forEach { bus.post(SampleEvent(t * 100 + it)) } }
+      }
+      threads.forEach(Thread::start)
+      threads.forEach(Thread::join)
+      recorder.close()
+
+      // replayed events must not end up within the active recording
+      val rerecorder = EventRecorder(rerecording, EventRecorder.MIN_CAPACITY)
+      bus.recorder = rerecorder
+      received.clear()
+
+      val replay = EventReplay.open(recording)
+      var count = 0
+      val replayer = Thread { count = replay.replay(bus, this.javaClass.classLoader, false) }
+      replayer.start()
+      while (replayer.isAlive) {
+        bus.drainMainThreadQueue()
+      }
+      bus.drainMainThreadQueue()
+      rerecorder.close()
+
+      assertEquals(400, count)
+      assertEquals((0 until 400).toSet(), received.toSet())
+      assertEquals(0L, rerecorder.written)
+    } finally {
+      Files.deleteIfExists(recording)
+      Files.deleteIfExists(rerecording)
+    }
+  }
+
+  class SampleEvent(
+      @FilterExpose(IntFilter::class)
+      val id: Int) : StatelessEvent
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import org.basinmc.faucet.util.Version
+import org.basinmc.sink.extension.manifest.ExtensionManifestImpl
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Test
+import org.springframework.asm.ClassWriter
+import org.springframework.asm.Opcodes
+import org.springframework.context.support.GenericApplicationContext
+import org.springframework.stereotype.Component
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class ComponentIndexTest {
+
+  @Test
+  fun testRead() {
+    val directory = Files.createTempDirectory("container")
+    try {
+      val indexed = write(directory.resolve("indexed.bec"), INDEX)
+      ExtensionContainer(indexed).use { container ->
+        val index = ComponentIndex.read(container)
+
+        assertNotNull(index)
+        assertEquals(listOf(INDEXED_COMPONENT), index!!.getComponents(IDENTIFIER))
+      }
+
+      val plain = write(directory.resolve("plain.bec"), null)
+      ExtensionContainer(plain).use { assertNull(ComponentIndex.read(it)) }
+    } finally {
+      directory.toFile().deleteRecursively()
+    }
+  }
+
+  @Test
+  fun testRegisterFromIndex() {
+    val directory = Files.createTempDirectory("container")
+    try {
+      val components = start(write(directory.resolve("indexed.bec"), INDEX))
+
+      assertEquals(listOf(INDEXED_COMPONENT), components)
+    } finally {
+      directory.toFile().deleteRecursively()
+    }
+  }
+
+  @Test
+  fun testRegisterFromScan() {
+    val directory = Files.createTempDirectory("container")
+    try {
+      val components = start(write(directory.resolve("plain.bec"), null))
+
+      assertEquals(listOf(INDEXED_COMPONENT, UNINDEXED_COMPONENT), components)
+    } finally {
+      directory.toFile().deleteRecursively()
+    }
+  }
+
+  companion object {
+
+    private const val IDENTIFIER = "org.basinmc.sample"
+    private const val INDEXED_COMPONENT = "$IDENTIFIER.IndexedComponent"
+    private const val UNINDEXED_COMPONENT = "$IDENTIFIER.UnindexedComponent"
+
+    /**
+     * Lists the indexed component along with entries which are to be ignored (e.g. a different
+     * stereotype and a component outside of the extension package).
+     */
+    private val INDEX = """
+      $INDEXED_COMPONENT=org.springframework.stereotype.Component
+      $IDENTIFIER.SampleEntity=javax.persistence.Entity
+      org.basinmc.other.ForeignComponent=org.springframework.stereotype.Component
+    """.trimIndent()
+
+    /**
+     * Starts an extension from the given container and retrieves the names of all components
+     * which have been registered with its context.
+     */
+    private fun start(path: Path): List<String> {
+      val manifest = ExtensionManifestImpl(1, 0, IDENTIFIER, Version("1.0.0"), emptyList(),
+          emptyList(), emptyList(), emptyList(), emptyList())
+      val extension = ExtensionImpl(path, manifest)
+
+      val parent = GenericApplicationContext()
+      parent.refresh()
+      try {
+        extension.initialize()
+        extension.start(parent)
+
+        val ctx = extension.context!!
+        return ctx.getBeanNamesForAnnotation(Component::class.java)
+            .map { ctx.getType(it)!!.name }
+            .sorted()
+      } finally {
+        extension.close()
+        parent.close()
+      }
+    }
+
+    /**
+     * Writes a container which provides two generated components and (optionally) a component
+     * index.
+     */
+    private fun write(path: Path, index: String?): Path {
+      ZipOutputStream(Files.newOutputStream(path)).use { output ->
+        listOf(INDEXED_COMPONENT, UNINDEXED_COMPONENT).forEach { name ->
+          output.putNextEntry(ZipEntry(name.replace('.', '/') + ".class"))
+          output.write(component(name))
+          output.closeEntry()
+        }
+
+        if (index != null) {
+          output.putNextEntry(ZipEntry(ComponentIndex.LOCATION))
+          output.write(index.toByteArray(StandardCharsets.ISO_8859_1))
+          output.closeEntry()
+        }
+      }
+
+      return path
+    }
+
+    /**
+     * Generates a component class which is only available within a container (e.g. cannot be
+     * located through the class path of the test itself).
+     */
+    private fun component(name: String): ByteArray {
+      val writer = ClassWriter(0)
+      writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC or Opcodes.ACC_SUPER, name.replace('.', '/'),
+          null, "java/lang/Object", null)
+      writer.visitAnnotation("Lorg/springframework/stereotype/Component;", true).visitEnd()
+
+      val constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null)
+      constructor.visitCode()
+      constructor.visitVarInsn(Opcodes.ALOAD, 0)
+      constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V",
+          false)
+      constructor.visitInsn(Opcodes.RETURN)
+      constructor.visitMaxs(1, 1)
+      constructor.visitEnd()
+
+      writer.visitEnd()
+      return writer.toByteArray()
+    }
+  }
+}
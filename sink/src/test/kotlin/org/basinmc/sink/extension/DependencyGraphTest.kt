@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import org.basinmc.faucet.extension.dependency.ExtensionDependency
+import org.basinmc.faucet.util.Version
+import org.basinmc.faucet.util.VersionRange
+import org.basinmc.sink.extension.manifest.ExtensionManifestImpl
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.file.Paths
+
+/**
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class DependencyGraphTest {
+
+  @Test
+  fun testOptionalCycle() {
+    val a = extension("a", "b" to true)
+    val b = extension("b", "a" to true)
+    val c = extension("c", "b" to false)
+    val graph = DependencyGraph(listOf(a, b, c))
+
+    assertEquals(listOf(listOf(a), listOf(b), listOf(c)), graph.layers)
+    assertTrue(graph.cycles.isEmpty())
+    assertTrue(graph.blocked.isEmpty())
+  }
+
+  @Test
+  fun testOptionalOrdering() {
+    val a = extension("a", "b" to true)
+    val b = extension("b")
+    val graph = DependencyGraph(listOf(a, b))
+
+    assertEquals(listOf(listOf(b), listOf(a)), graph.layers)
+  }
+
+  @Test
+  fun testIndependentCycles() {
+    // a -> b -> a and c -> d -> c where the second cycle is reachable from the first
+    val a = extension("a", "b" to false)
+    val b = extension("b", "a" to false, "c" to false)
+    val c = extension("c", "d" to false)
+    val d = extension("d", "c" to false)
+    val e = extension("e", "a" to false)
+    val graph = DependencyGraph(listOf(a, b, c, d, e))
+
+    assertTrue(graph.layers.isEmpty())
+    assertEquals(setOf(listOf(a, b), listOf(c, d)), graph.cycles.toSet())
+    assertEquals(listOf(e), graph.blocked)
+  }
+
+  @Test
+  fun testOverlappingCycles() {
+    // both cycles share the same component: a -> b -> a and b -> c -> b
+    val a = extension("a", "b" to false)
+    val b = extension("b", "a" to false, "c" to false)
+    val c = extension("c", "b" to false)
+    val graph = DependencyGraph(listOf(a, b, c))
+
+    assertEquals(setOf(a, b, c), graph.cycles.flatten().toSet())
+    graph.cycles.forEach { cycle ->
+      cycle.forEachIndexed { i, extension ->
+        val successor = cycle[(i + 1) % cycle.size]
+        assertTrue(successor in graph.edges.getValue(extension))
+      }
+    }
+    assertTrue(graph.blocked.isEmpty())
+  }
+
+  companion object {
+
+    private fun extension(identifier: String,
+        vararg dependencies: Pair<String, Boolean>): ExtensionImpl {
+      val manifest = ExtensionManifestImpl(1, 0, identifier, Version("1.0.0"), emptyList(),
+          emptyList(), emptyList(),
+          dependencies.map { (id, optional) ->
+            ExtensionDependency(id, VersionRange("1.0.0"), optional)
+          },
+          emptyList())
+
+      return ExtensionImpl(Paths.get("$identifier.bec"), manifest)
+    }
+  }
+}
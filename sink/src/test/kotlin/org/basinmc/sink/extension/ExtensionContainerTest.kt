@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import org.basinmc.sink.util.ByteBufferInputStream
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.charset.Charset
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class ExtensionContainerTest {
+
+  @Test
+  fun testEntryNameEncoding() {
+    val directory = Files.createTempDirectory("container")
+    try {
+      val legacy = write(directory.resolve("legacy.bec"), Charset.forName("IBM437"), "café.txt")
+      ExtensionContainer(legacy).use { assertTrue("café.txt" in it) }
+
+      val unicode = write(directory.resolve("unicode.bec"), StandardCharsets.UTF_8, "café.txt")
+      ExtensionContainer(unicode).use { assertTrue("café.txt" in it) }
+    } finally {
+      directory.toFile().deleteRecursively()
+    }
+  }
+
+  @Test
+  fun testOverwrite() {
+    val directory = Files.createTempDirectory("container")
+    try {
+      val path = write(directory.resolve("sample.bec"), StandardCharsets.UTF_8, "sample.txt")
+      ExtensionContainer(path).use { container ->
+        Files.write(path, byteArrayOf(1))
+
+        val contents = ByteBufferInputStream(container.read("sample.txt")!!).readBytes()
+        assertEquals("sample.txt", String(contents, StandardCharsets.UTF_8))
+      }
+    } finally {
+      directory.toFile().deleteRecursively()
+    }
+  }
+
+  companion object {
+
+    /**
+     * Writes a container which stores each entry name as its contents.
+     */
+    private fun write(path: Path, charset: Charset, vararg names: String): Path {
+      ZipOutputStream(Files.newOutputStream(path), charset).use { output ->
+        names.forEach { name ->
+          output.putNextEntry(ZipEntry(name))
+          output.write(name.toByteArray(StandardCharsets.UTF_8))
+          output.closeEntry()
+        }
+      }
+
+      return path
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension
+
+import org.basinmc.faucet.internal.util.ExactHandles
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.lang.reflect.Method
+
+/**
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class ServiceBindingTest {
+
+  @Test
+  fun testInvoke() {
+    val service = SampleServiceImpl()
+    val method = { name: String -> SampleService::class.java.methods.first { it.name == name } }
+
+    assertEquals("sample", invoke(method("name"), service, null))
+    assertEquals(5, invoke(method("add"), service, arrayOf(2, 3)))
+    assertNull(invoke(method("reset"), service, emptyArray()))
+    assertEquals(1, service.resets)
+  }
+
+  @Test(expected = UnsupportedOperationException::class)
+  fun testInvokePropagatesExceptions() {
+    val method = SampleService::class.java.getMethod("fail")
+    invoke(method, SampleServiceImpl(), null)
+  }
+
+  private fun invoke(method: Method, target: Any, args: Array<Any?>?) =
+      ExactHandles.invokeSpread(ServiceRegistry.bind(method), target, args)
+
+  interface SampleService {
+
+    fun name(): String
+
+    fun add(a: Int, b: Int): Int
+
+    fun reset()
+
+    fun fail()
+  }
+
+  class SampleServiceImpl : SampleService {
+
+    var resets = 0
+
+    override fun name() = "sample"
+
+    override fun add(a: Int, b: Int) = a + b
+
+    override fun reset() {
+      this.resets++
+    }
+
+    override fun fail() = throw UnsupportedOperationException()
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Johannes Donath <johannesd@torchmind.com>
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basinmc.sink.extension.manifest
+
+import org.basinmc.faucet.extension.dependency.ExtensionDependency
+import org.basinmc.faucet.extension.dependency.ServiceDependency
+import org.basinmc.faucet.util.Version
+import org.basinmc.faucet.util.VersionRange
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Test
+import java.nio.file.Files
+
+/**
+ * @author [Johannes Donath](mailto:johannesd@torchmind.com)
+ */
+class ManifestIndexTest {
+
+  @Test
+  fun testRangeRoundTrip() {
+    val directory = Files.createTempDirectory("index")
+    try {
+      val container = Files.write(directory.resolve("sample.bec"), byteArrayOf(1, 2, 3))
+      val ranges = RANGES.map(::VersionRange)
+      val manifest = ExtensionManifestImpl(1, 0, "org.basinmc.sample", Version("1.0.0"),
+          emptyList(), emptyList(), emptyList(),
+          ranges.mapIndexed { i, range -> ExtensionDependency("dependency$i", range, i % 2 == 0) },
+          ranges.mapIndexed { i, range -> ServiceDependency("com.example.Service$i", range, false) })
+
+      val path = directory.resolve("extensions.index")
+      val index = ManifestIndex(path)
+      index.update(container, manifest)
+      index.store()
+
+      val reloaded = ManifestIndex(path)
+      reloaded.load()
+      val result = reloaded.lookup(container)
+
+      assertNotNull(result)
+      assertEquals(ranges, result!!.extensionDependencies.map { it.versionRange })
+      assertEquals(ranges, result.serviceDependencies.map { it.versionRange })
+      assertEquals(manifest.extensionDependencies, result.extensionDependencies)
+    } finally {
+      directory.toFile().deleteRecursively()
+    }
+  }
+
+  companion object {
+
+    private val RANGES = listOf("1.0.0", "[1.0.0", "(1.0.0", "1.0.0]", "1.0.0)", "[1.0.0,2.0.0]",
+        "[1.0.0,2.0.0)", "(1.0.0,2.0.0]", "(1.0.0,2.0.0)")
+  }
+}